@@ -54,7 +54,11 @@ public class TestDb extends AndroidTestCase {
         // Android metadata (db version information)
         final HashSet<String> tableNameHashSet = new HashSet<String>();
         tableNameHashSet.add(WeatherContract.LocationEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.LocationAliasEntry.TABLE_NAME);
         tableNameHashSet.add(WeatherContract.WeatherEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.MetricsEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.IntervalEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.HistoryEntry.TABLE_NAME);
 
         mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
         SQLiteDatabase db = new WeatherDbHelper(
@@ -91,6 +95,14 @@ public class TestDb extends AndroidTestCase {
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_COORD_LAT);
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_COORD_LONG);
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_CITY_ID);
+        locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_ETAG);
+        locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED);
+        locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_SYNC_STATUS);
+        locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_FETCHED_AT);
+        locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_FORECAST_FETCHED_AT);
+        locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_INTERVALS_FETCHED_AT);
+        locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_HISTORY_START);
 
         int columnNameIndex = c.getColumnIndex("name");
         do {
@@ -177,6 +189,60 @@ public class TestDb extends AndroidTestCase {
     }
 
 
+    /*
+        An upgrade should throw away the cached forecast and what the locations say about
+        fetching it, but keep the history and how far back each location's has got.
+     */
+    public void testUpgradeKeepsHistory() {
+        long locationRowId = insertLocation();
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+        long historyStart = WeatherContract.normalizeDate(TestUtilities.TEST_DATE);
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_ETAG, "\"etag\"");
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_FETCHED_AT, historyStart);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_HISTORY_START, historyStart);
+        assertEquals(1, db.update(WeatherContract.LocationEntry.TABLE_NAME, locationValues,
+                null, null));
+
+        // The history table shares the weather table's columns.
+        ContentValues historyValues = TestUtilities.createWeatherValues(locationRowId);
+        assertTrue(db.insert(WeatherContract.HistoryEntry.TABLE_NAME, null, historyValues) != -1);
+        assertTrue(db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                TestUtilities.createWeatherValues(locationRowId)) != -1);
+
+        dbHelper.onUpgrade(db, WeatherDbHelper.FIRST_HISTORY_VERSION,
+                WeatherDbHelper.FIRST_HISTORY_VERSION + 1);
+
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME, null, null, null,
+                null, null, null);
+        assertTrue("Error: The location was dropped", cursor.moveToFirst());
+        assertEquals(locationRowId,
+                cursor.getLong(cursor.getColumnIndex(WeatherContract.LocationEntry._ID)));
+        assertEquals("Error: The backfill's checkpoint was lost", historyStart, cursor.getLong(
+                cursor.getColumnIndex(WeatherContract.LocationEntry.COLUMN_HISTORY_START)));
+        assertTrue("Error: The ETag outlived the forecast", cursor.isNull(
+                cursor.getColumnIndex(WeatherContract.LocationEntry.COLUMN_ETAG)));
+        assertTrue("Error: The fetch time outlived the forecast", cursor.isNull(
+                cursor.getColumnIndex(WeatherContract.LocationEntry.COLUMN_FETCHED_AT)));
+        cursor.close();
+
+        cursor = db.query(WeatherContract.HistoryEntry.TABLE_NAME, null, null, null,
+                null, null, null);
+        assertTrue("Error: The history was dropped", cursor.moveToFirst());
+        TestUtilities.validateCurrentRecord("Error: The history didn't survive the upgrade",
+                cursor, historyValues);
+        cursor.close();
+
+        cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME, null, null, null,
+                null, null, null);
+        assertEquals("Error: The forecast was kept", 0, cursor.getCount());
+        cursor.close();
+        dbHelper.close();
+    }
+
     /*
         Students: This is a helper method for the testWeatherTable quiz. You can move your
         code from testLocationTable to here so that you can call this code from both
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestDerivedWeather extends AndroidTestCase {
+
+    public void testCompassPoints() {
+        assertEquals("N", DerivedWeather.getCompassPoint(0));
+        assertEquals("N", DerivedWeather.getCompassPoint(350));
+        assertEquals("NE", DerivedWeather.getCompassPoint(22.5));
+        assertEquals("SE", DerivedWeather.getCompassPoint(157.4));
+        assertEquals("S", DerivedWeather.getCompassPoint(157.5));
+        assertEquals("NW", DerivedWeather.getCompassPoint(337.4));
+        assertEquals("N", DerivedWeather.getCompassPoint(337.5));
+        assertEquals("E", DerivedWeather.getCompassPoint(450));
+    }
+
+    public void testBeaufort() {
+        assertEquals(0, DerivedWeather.getBeaufort(0));
+        assertEquals(1, DerivedWeather.getBeaufort(0.5));
+        assertEquals(4, DerivedWeather.getBeaufort(7.9));
+        assertEquals(5, DerivedWeather.getBeaufort(8.0));
+        assertEquals(12, DerivedWeather.getBeaufort(40));
+    }
+
+    public void testConditions() {
+        assertEquals(DerivedWeather.CONDITION_STORM, DerivedWeather.getCondition(211));
+        assertEquals(DerivedWeather.CONDITION_SNOW, DerivedWeather.getCondition(511));
+        assertEquals(DerivedWeather.CONDITION_FOG, DerivedWeather.getCondition(761));
+        assertEquals(DerivedWeather.CONDITION_STORM, DerivedWeather.getCondition(781));
+        assertEquals(DerivedWeather.CONDITION_CLOUDS, DerivedWeather.getCondition(804));
+        assertNull(DerivedWeather.getCondition(900));
+    }
+
+    public void testOnlyDerivesWhatItHasTheSourceFor() {
+        // The current conditions, say, come without temperatures.
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_WEATHER_ID, 500);
+        values.put(WeatherEntry.COLUMN_WIND_SPEED, 10.0);
+        DerivedWeather.putDerivedValues(values);
+
+        assertEquals(DerivedWeather.CONDITION_RAIN,
+                values.getAsString(WeatherEntry.COLUMN_CONDITION));
+        assertEquals(5, (int) values.getAsInteger(WeatherEntry.COLUMN_BEAUFORT));
+        assertEquals(36.0, values.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED_METRIC), 0.001);
+        assertEquals(22.369, values.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED_IMPERIAL), 0.001);
+        assertFalse(values.containsKey(WeatherEntry.COLUMN_COMPASS));
+        assertFalse(values.containsKey(WeatherEntry.COLUMN_MAX_TEMP_IMPERIAL));
+
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, 100.0);
+        values.put(WeatherEntry.COLUMN_MIN_TEMP, -40.0);
+        DerivedWeather.putDerivedValues(values);
+        assertEquals(212.0, values.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP_IMPERIAL), 0.001);
+        assertEquals(-40.0, values.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP_IMPERIAL), 0.001);
+    }
+}
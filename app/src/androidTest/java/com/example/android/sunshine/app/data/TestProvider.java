@@ -16,6 +16,7 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderClient;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.pm.PackageManager;
@@ -27,9 +28,16 @@ import android.os.Build;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.IntervalEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationAliasEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.MetricsEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -56,11 +64,26 @@ public class TestProvider extends AndroidTestCase {
                 null,
                 null
         );
+        mContext.getContentResolver().delete(
+                IntervalEntry.CONTENT_URI,
+                null,
+                null
+        );
+        mContext.getContentResolver().delete(
+                HistoryEntry.CONTENT_URI,
+                null,
+                null
+        );
         mContext.getContentResolver().delete(
                 LocationEntry.CONTENT_URI,
                 null,
                 null
         );
+        mContext.getContentResolver().delete(
+                MetricsEntry.CONTENT_URI,
+                null,
+                null
+        );
 
         Cursor cursor = mContext.getContentResolver().query(
                 WeatherEntry.CONTENT_URI,
@@ -81,6 +104,16 @@ public class TestProvider extends AndroidTestCase {
         );
         assertEquals("Error: Records not deleted from Location table during delete", 0, cursor.getCount());
         cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                LocationAliasEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                null
+        );
+        assertEquals("Error: Aliases outlived their locations", 0, cursor.getCount());
+        cursor.close();
     }
 
     /*
@@ -160,6 +193,32 @@ public class TestProvider extends AndroidTestCase {
         // vnd.android.cursor.dir/com.example.android.sunshine.app/location
         assertEquals("Error: the LocationEntry CONTENT_URI should return LocationEntry.CONTENT_TYPE",
                 LocationEntry.CONTENT_TYPE, type);
+
+        // content://com.example.android.sunshine.app/location_alias/
+        type = mContext.getContentResolver().getType(LocationAliasEntry.CONTENT_URI);
+        // vnd.android.cursor.dir/com.example.android.sunshine.app/location_alias
+        assertEquals("Error: the LocationAliasEntry CONTENT_URI should return LocationAliasEntry.CONTENT_TYPE",
+                LocationAliasEntry.CONTENT_TYPE, type);
+
+        // content://com.example.android.sunshine.app/metrics/percentile/90
+        type = mContext.getContentResolver().getType(MetricsEntry.buildPercentileUri(90));
+        // vnd.android.cursor.item/com.example.android.sunshine.app/metrics
+        assertEquals("Error: the MetricsEntry percentile URI should return MetricsEntry.CONTENT_ITEM_TYPE",
+                MetricsEntry.CONTENT_ITEM_TYPE, type);
+
+        // content://com.example.android.sunshine.app/interval/94074?start=...&end=...
+        type = mContext.getContentResolver().getType(
+                IntervalEntry.buildIntervalLocationWithRange(testLocation, testDate, testDate + 1));
+        // vnd.android.cursor.dir/com.example.android.sunshine.app/interval
+        assertEquals("Error: the IntervalEntry URI with location should return IntervalEntry.CONTENT_TYPE",
+                IntervalEntry.CONTENT_TYPE, type);
+
+        // content://com.example.android.sunshine.app/history/94074?start=...&end=...
+        type = mContext.getContentResolver().getType(
+                HistoryEntry.buildHistoryLocationWithRange(testLocation, testDate, testDate));
+        // vnd.android.cursor.dir/com.example.android.sunshine.app/history
+        assertEquals("Error: the HistoryEntry URI with location should return HistoryEntry.CONTENT_TYPE",
+                HistoryEntry.CONTENT_TYPE, type);
     }
 
 
@@ -512,4 +571,334 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    /*
+        This test makes sure rows streamed through a WeatherTransaction stay invisible until the
+        transaction commits, and vanish entirely when it is aborted instead.
+     */
+    public void testWeatherTransaction() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        WeatherProvider provider = (WeatherProvider) client.getLocalContentProvider();
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(locationRowId);
+
+        // An aborted transaction leaves nothing behind
+        WeatherProvider.WeatherTransaction transaction = provider.beginWeatherTransaction();
+        for (ContentValues values : weatherValues) {
+            transaction.insert(new ContentValues(values));
+        }
+        transaction.abort();
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: Aborted WeatherTransaction left rows behind", 0, cursor.getCount());
+        cursor.close();
+
+        // A committed one makes every row visible, and notifies observers
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        transaction = provider.beginWeatherTransaction();
+        for (ContentValues values : weatherValues) {
+            transaction.insert(new ContentValues(values));
+        }
+        transaction.commit();
+        // Aborting after a commit must not undo anything
+        transaction.abort();
+
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, transaction.getInsertCount());
+        cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+        client.release();
+    }
+
+    /*
+        Writing a day that's already stored unchanged should do nothing; changing one column
+        should update the row in place and report its date.
+     */
+    public void testWeatherTransactionDelta() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        WeatherProvider provider = (WeatherProvider) client.getLocalContentProvider();
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        long date = WeatherContract.normalizeDate(TestUtilities.TEST_DATE);
+
+        WeatherProvider.WeatherTransaction transaction = provider.beginWeatherTransaction();
+        assertTrue("Error: New day wasn't written",
+                transaction.writeDayIfChanged(TestUtilities.TEST_LOCATION, new ContentValues(weatherValues)));
+        transaction.commit();
+
+        transaction = provider.beginWeatherTransaction();
+        assertFalse("Error: Unchanged day was written again",
+                transaction.writeDayIfChanged(TestUtilities.TEST_LOCATION, new ContentValues(weatherValues)));
+        transaction.commit();
+        assertEquals(0, transaction.getChangedDates(TestUtilities.TEST_LOCATION).size());
+        assertEquals(1, transaction.getUnchangedCount());
+
+        weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, 100);
+        transaction = provider.beginWeatherTransaction();
+        assertTrue("Error: Changed day wasn't written",
+                transaction.writeDayIfChanged(TestUtilities.TEST_LOCATION, new ContentValues(weatherValues)));
+        transaction.commit();
+        assertEquals(0, transaction.getInsertCount());
+        assertEquals(1, transaction.getUpdateCount());
+        assertEquals(0, transaction.getUnchangedCount());
+        assertEquals(Long.valueOf(date), transaction.getChangedDates(TestUtilities.TEST_LOCATION).first());
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: Delta write duplicated the row", 1, cursor.getCount());
+        cursor.moveToFirst();
+        TestUtilities.validateCurrentRecord("Error: Delta write didn't update the row",
+                cursor, weatherValues);
+        cursor.close();
+        client.release();
+    }
+
+    public void testMetricsPercentiles() {
+        Cursor cursor = mContext.getContentResolver().query(MetricsEntry.buildPercentileUri(50),
+                null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: Percentile taken over syncs that don't exist",
+                0, cursor.getInt(cursor.getColumnIndex(MetricsEntry._COUNT)));
+        assertTrue(cursor.isNull(cursor.getColumnIndex(MetricsEntry.COLUMN_TOTAL_MILLIS)));
+        cursor.close();
+
+        // Inserted out of order, so the percentile can't just be read off by position.
+        for (int value : new int[]{7, 3, 10, 1, 5, 9, 2, 8, 4, 6}) {
+            mContext.getContentResolver().insert(MetricsEntry.CONTENT_URI,
+                    TestUtilities.createMetricsValues(value));
+        }
+
+        cursor = mContext.getContentResolver().query(MetricsEntry.buildPercentileUri(50),
+                null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(10, cursor.getInt(cursor.getColumnIndex(MetricsEntry._COUNT)));
+        for (String column : MetricsEntry.MEASURED_COLUMNS) {
+            assertEquals("Error: Wrong median for " + column,
+                    5, cursor.getLong(cursor.getColumnIndex(column)));
+        }
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(MetricsEntry.buildPercentileUri(90),
+                new String[]{MetricsEntry.COLUMN_TOTAL_MILLIS}, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(1, cursor.getColumnCount());
+        assertEquals(9, cursor.getLong(0));
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(MetricsEntry.buildPercentileUri(100),
+                new String[]{MetricsEntry.COLUMN_TOTAL_MILLIS}, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(10, cursor.getLong(0));
+        cursor.close();
+    }
+
+    public void testMetricsAreBounded() {
+        for (int i = 0; i < MetricsEntry.MAX_ROWS + 5; i++) {
+            mContext.getContentResolver().insert(MetricsEntry.CONTENT_URI,
+                    TestUtilities.createMetricsValues(i));
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(MetricsEntry.CONTENT_URI,
+                new String[]{MetricsEntry.COLUMN_TOTAL_MILLIS}, null, null,
+                MetricsEntry.COLUMN_TOTAL_MILLIS + " ASC");
+        assertEquals("Error: Metrics table grew past its limit",
+                MetricsEntry.MAX_ROWS, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals("Error: The oldest syncs weren't the ones dropped", 5, cursor.getLong(0));
+        cursor.close();
+    }
+
+    /*
+        An alias should get the weather of the location it's an alias for, hear about changes
+        to it, and go away with it.
+     */
+    public void testLocationAlias() {
+        final String alias = "north pole";
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ContentValues aliasValues = new ContentValues();
+        aliasValues.put(LocationAliasEntry.COLUMN_ALIAS, alias);
+        aliasValues.put(LocationAliasEntry.COLUMN_LOC_KEY, locationRowId);
+        mContext.getContentResolver().insert(LocationAliasEntry.CONTENT_URI, aliasValues);
+
+        Cursor cursor = mContext.getContentResolver().query(LocationAliasEntry.CONTENT_URI,
+                new String[]{LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_LOCATION_SETTING},
+                LocationAliasEntry.COLUMN_ALIAS + " = ?", new String[]{alias}, null);
+        assertTrue("Error: Alias not found", cursor.moveToFirst());
+        assertEquals(TestUtilities.TEST_LOCATION, cursor.getString(0));
+        cursor.close();
+
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        WeatherProvider provider = (WeatherProvider) client.getLocalContentProvider();
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+
+        TestUtilities.TestContentObserver aliasObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation(alias), true, aliasObserver);
+
+        WeatherProvider.WeatherTransaction transaction = provider.beginWeatherTransaction();
+        transaction.writeDayIfChanged(TestUtilities.TEST_LOCATION, new ContentValues(weatherValues));
+        transaction.commit();
+
+        aliasObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(aliasObserver);
+        client.release();
+
+        cursor = mContext.getContentResolver().query(WeatherEntry.buildWeatherLocation(alias),
+                null, null, null, null);
+        TestUtilities.validateCursor("testLocationAlias.  Error validating weather by alias.",
+                cursor, weatherValues);
+
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        cursor = mContext.getContentResolver().query(LocationAliasEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: Alias outlived its location", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    static final int INTERVALS_TO_INSERT = 40;
+    static ContentValues[] createBulkInsertIntervalValues(long locationRowId) {
+        ContentValues[] returnContentValues = new ContentValues[INTERVALS_TO_INSERT];
+        for (int i = 0; i < INTERVALS_TO_INSERT; i++) {
+            returnContentValues[i] = TestUtilities.createIntervalValues(locationRowId,
+                    TestUtilities.TEST_DATE + i * IntervalEntry.INTERVAL_MILLIS);
+        }
+        return returnContentValues;
+    }
+
+    /*
+        A 5-day forecast's worth of intervals should go in through bulkInsert, and a date range
+        of a location's should come back in order, start inclusive and end exclusive.
+     */
+    public void testIntervalBulkInsertAndRange() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ContentValues[] intervalValues = createBulkInsertIntervalValues(locationRowId);
+        int insertCount = mContext.getContentResolver().bulkInsert(IntervalEntry.CONTENT_URI,
+                intervalValues);
+        assertEquals(INTERVALS_TO_INSERT, insertCount);
+
+        long start = TestUtilities.TEST_DATE + 4 * IntervalEntry.INTERVAL_MILLIS;
+        long end = TestUtilities.TEST_DATE + 12 * IntervalEntry.INTERVAL_MILLIS;
+        Cursor cursor = mContext.getContentResolver().query(
+                IntervalEntry.buildIntervalLocationWithRange(TestUtilities.TEST_LOCATION, start, end),
+                null, null, null, null);
+        assertEquals("Error: Wrong number of intervals in range", 8, cursor.getCount());
+        for (int i = 4; cursor.moveToNext(); i++) {
+            TestUtilities.validateCurrentRecord("Error validating interval " + i,
+                    cursor, intervalValues[i]);
+        }
+        cursor.close();
+    }
+
+    /*
+        Replacing a location's intervals should drop the stored ones from the first new one on,
+        keep the earlier ones, and notify that location's observers.
+     */
+    public void testReplaceIntervals() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        mContext.getContentResolver().bulkInsert(IntervalEntry.CONTENT_URI,
+                createBulkInsertIntervalValues(locationRowId));
+
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        WeatherProvider provider = (WeatherProvider) client.getLocalContentProvider();
+
+        // A newer forecast starting halfway through, and stopping short of the old one's end.
+        List<ContentValues> newer = new ArrayList<ContentValues>();
+        for (int i = 20; i < 30; i++) {
+            ContentValues values = TestUtilities.createIntervalValues(locationRowId,
+                    TestUtilities.TEST_DATE + i * IntervalEntry.INTERVAL_MILLIS);
+            values.remove(IntervalEntry.COLUMN_LOC_KEY);
+            values.put(IntervalEntry.COLUMN_TEMP, -10);
+            newer.add(values);
+        }
+
+        TestUtilities.TestContentObserver intervalObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                IntervalEntry.buildIntervalLocation(TestUtilities.TEST_LOCATION), true,
+                intervalObserver);
+
+        WeatherProvider.WeatherTransaction transaction = provider.beginWeatherTransaction();
+        assertEquals(10, transaction.replaceIntervals(TestUtilities.TEST_LOCATION, locationRowId,
+                newer));
+        transaction.commit();
+
+        intervalObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(intervalObserver);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                IntervalEntry.buildIntervalLocation(TestUtilities.TEST_LOCATION),
+                new String[]{IntervalEntry.COLUMN_TEMP}, null, null, null);
+        assertEquals("Error: Wrong number of intervals after the replace", 30, cursor.getCount());
+        cursor.moveToPosition(19);
+        assertEquals("Error: An earlier interval was replaced", 70.0, cursor.getDouble(0));
+        cursor.moveToPosition(20);
+        assertEquals("Error: A newer interval wasn't written", -10.0, cursor.getDouble(0));
+        cursor.close();
+        client.release();
+    }
+
+    /*
+        A chunk of history should go in along with the location's checkpoint, and a date range
+        of it should come back in order, start inclusive and end exclusive.
+     */
+    public void testInsertHistory() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        WeatherProvider provider = (WeatherProvider) client.getLocalContentProvider();
+
+        // The days come in the weather table's columns, which the history table shares.
+        ContentValues[] historyValues = createBulkInsertWeatherValues(locationRowId);
+        long historyStart = WeatherContract.normalizeDate(TestUtilities.TEST_DATE);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT,
+                provider.insertHistory(historyValues, locationRowId, historyStart));
+        client.release();
+
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry.COLUMN_HISTORY_START}, null, null, null);
+        assertTrue("Error: No location after the history was written", cursor.moveToFirst());
+        assertEquals("Error: The checkpoint wasn't written with the history",
+                historyStart, cursor.getLong(0));
+        cursor.close();
+
+        long millisecondsInADay = 1000*60*60*24;
+        cursor = mContext.getContentResolver().query(
+                HistoryEntry.buildHistoryLocationWithRange(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE + 2 * millisecondsInADay,
+                        TestUtilities.TEST_DATE + 5 * millisecondsInADay),
+                null, null, null, null);
+        assertEquals("Error: Wrong number of days in range", 3, cursor.getCount());
+        for (int i = 2; cursor.moveToNext(); i++) {
+            TestUtilities.validateCurrentRecord("Error validating history " + i,
+                    cursor, historyValues[i]);
+        }
+        cursor.close();
+    }
 }
@@ -36,6 +36,17 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/location_alias"
+    private static final Uri TEST_LOCATION_ALIAS_DIR = WeatherContract.LocationAliasEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/metrics"
+    private static final Uri TEST_METRICS_DIR = WeatherContract.MetricsEntry.CONTENT_URI;
+    private static final Uri TEST_METRICS_PERCENTILE = WeatherContract.MetricsEntry.buildPercentileUri(90);
+    // content://com.example.android.sunshine.app/interval"
+    private static final Uri TEST_INTERVAL_DIR = WeatherContract.IntervalEntry.CONTENT_URI;
+    private static final Uri TEST_INTERVAL_WITH_LOCATION_DIR = WeatherContract.IntervalEntry.buildIntervalLocationWithRange(LOCATION_QUERY, TEST_DATE, TEST_DATE + WeatherContract.IntervalEntry.INTERVAL_MILLIS);
+    // content://com.example.android.sunshine.app/history"
+    private static final Uri TEST_HISTORY_DIR = WeatherContract.HistoryEntry.CONTENT_URI;
+    private static final Uri TEST_HISTORY_WITH_LOCATION_DIR = WeatherContract.HistoryEntry.buildHistoryLocationWithRange(LOCATION_QUERY, TEST_DATE, TEST_DATE);
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -53,5 +64,19 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The LOCATION ALIAS URI was matched incorrectly.",
+                testMatcher.match(TEST_LOCATION_ALIAS_DIR), WeatherProvider.LOCATION_ALIAS);
+        assertEquals("Error: The METRICS URI was matched incorrectly.",
+                testMatcher.match(TEST_METRICS_DIR), WeatherProvider.METRICS);
+        assertEquals("Error: The METRICS PERCENTILE URI was matched incorrectly.",
+                testMatcher.match(TEST_METRICS_PERCENTILE), WeatherProvider.METRICS_PERCENTILE);
+        assertEquals("Error: The INTERVAL URI was matched incorrectly.",
+                testMatcher.match(TEST_INTERVAL_DIR), WeatherProvider.INTERVAL);
+        assertEquals("Error: The INTERVAL WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_INTERVAL_WITH_LOCATION_DIR), WeatherProvider.INTERVAL_WITH_LOCATION);
+        assertEquals("Error: The HISTORY URI was matched incorrectly.",
+                testMatcher.match(TEST_HISTORY_DIR), WeatherProvider.HISTORY);
+        assertEquals("Error: The HISTORY WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_HISTORY_WITH_LOCATION_DIR), WeatherProvider.HISTORY_WITH_LOCATION);
     }
 }
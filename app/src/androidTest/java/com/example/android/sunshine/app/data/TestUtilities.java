@@ -77,6 +77,36 @@ public class TestUtilities extends AndroidTestCase {
         return weatherValues;
     }
 
+    /*
+        One 3-hour interval of weather, starting at the given time.
+     */
+    static ContentValues createIntervalValues(long locationRowId, long date) {
+        ContentValues intervalValues = new ContentValues();
+        intervalValues.put(WeatherContract.IntervalEntry.COLUMN_LOC_KEY, locationRowId);
+        intervalValues.put(WeatherContract.IntervalEntry.COLUMN_DATE, date);
+        intervalValues.put(WeatherContract.IntervalEntry.COLUMN_DEGREES, 1.1);
+        intervalValues.put(WeatherContract.IntervalEntry.COLUMN_HUMIDITY, 1.2);
+        intervalValues.put(WeatherContract.IntervalEntry.COLUMN_PRESSURE, 1.3);
+        intervalValues.put(WeatherContract.IntervalEntry.COLUMN_TEMP, 70);
+        intervalValues.put(WeatherContract.IntervalEntry.COLUMN_SHORT_DESC, "Asteroids");
+        intervalValues.put(WeatherContract.IntervalEntry.COLUMN_WIND_SPEED, 5.5);
+        intervalValues.put(WeatherContract.IntervalEntry.COLUMN_WEATHER_ID, 321);
+
+        return intervalValues;
+    }
+
+    /*
+        One sync's metrics, with every measured column set to the given value.
+     */
+    static ContentValues createMetricsValues(long value) {
+        ContentValues metricsValues = new ContentValues();
+        metricsValues.put(WeatherContract.MetricsEntry.COLUMN_STARTED_AT, TEST_DATE);
+        for (String column : WeatherContract.MetricsEntry.MEASURED_COLUMNS) {
+            metricsValues.put(column, value);
+        }
+        return metricsValues;
+    }
+
     /*
         Students: You can uncomment this helper function once you have finished creating the
         LocationEntry part of the WeatherContract.
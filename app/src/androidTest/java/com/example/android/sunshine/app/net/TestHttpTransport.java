@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.net;
+
+import android.os.SystemClock;
+import android.support.v4.os.CancellationSignal;
+import android.support.v4.os.OperationCanceledException;
+import android.test.AndroidTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+/*
+    Runs the transport against a local stand-in server, so none of these need the real
+    OpenWeatherMap (or any network at all).
+ */
+public class TestHttpTransport extends AndroidTestCase {
+
+    private static final String FORECAST = "{\"cod\":\"200\",\"list\":[]}";
+
+    private MockWebServer mServer;
+    private HttpTransport mTransport;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new MockWebServer();
+        mServer.start();
+        mTransport = new OkHttpTransport();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    /*
+        Two requests in a row should share one connection, which MockWebServer shows as an
+        increasing sequence number on the same socket.
+     */
+    public void testConnectionIsReused() throws Exception {
+        mServer.enqueue(new MockResponse().setBody(FORECAST));
+        mServer.enqueue(new MockResponse().setBody(FORECAST));
+
+        assertEquals(FORECAST, fetch("/first"));
+        assertEquals(FORECAST, fetch("/second"));
+
+        assertEquals("Error: First request didn't open a new connection",
+                0, mServer.takeRequest().getSequenceNumber());
+        assertEquals("Error: Second request didn't reuse the pooled connection",
+                1, mServer.takeRequest().getSequenceNumber());
+    }
+
+    /*
+        The transport should ask for gzip, hand back the unpacked body, and count what was
+        actually sent over the wire.
+     */
+    public void testGzipIsNegotiatedAndCounted() throws Exception {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            body.append(FORECAST);
+        }
+        mServer.enqueue(new MockResponse()
+                .setHeader("Content-Encoding", "gzip")
+                .setBody(gzip(body.toString())));
+
+        assertEquals(body.toString(), fetch("/gzip"));
+
+        RecordedRequest request = mServer.takeRequest();
+        assertEquals("Error: Transport didn't ask for gzip",
+                "gzip", request.getHeader("Accept-Encoding"));
+        assertTrue("Error: No bytes counted as sent", mTransport.getBytesSent() > 0);
+        assertTrue("Error: No bytes counted as received", mTransport.getBytesReceived() > 0);
+        assertTrue("Error: Received bytes weren't counted before decompression",
+                mTransport.getBytesReceived() < body.length());
+    }
+
+    public void testHeadersArePassedThrough() throws Exception {
+        mServer.enqueue(new MockResponse()
+                .setResponseCode(304)
+                .setHeader("ETag", "\"abc\""));
+
+        HttpTransport.Response response = mTransport.get(mServer.url("/etag").toString(),
+                Collections.singletonMap("If-None-Match", "\"abc\""), null);
+        try {
+            assertEquals(304, response.getCode());
+            assertEquals("\"abc\"", response.getHeader("ETag"));
+        } finally {
+            response.close();
+        }
+        assertEquals("\"abc\"", mServer.takeRequest().getHeader("If-None-Match"));
+    }
+
+    public void testCancelAbortsBodyRead() throws Exception {
+        // A body that would take ten seconds to arrive.
+        char[] filler = new char[10 * 1024];
+        Arrays.fill(filler, ' ');
+        mServer.enqueue(new MockResponse()
+                .setBody("{" + new String(filler) + "}")
+                .throttleBody(1024, 1, TimeUnit.SECONDS));
+
+        final CancellationSignal signal = new CancellationSignal();
+        HttpTransport.Response response = mTransport.get(mServer.url("/slow").toString(), null,
+                signal);
+        InputStream in = response.getBody();
+        new Timer().schedule(new TimerTask() {
+            @Override
+            public void run() {
+                signal.cancel();
+            }
+        }, 200);
+
+        long start = SystemClock.elapsedRealtime();
+        try {
+            byte[] buffer = new byte[1024];
+            while (in.read(buffer) != -1) {
+                // Keep reading until the cancel cuts us off.
+            }
+            fail("Error: Body was read to the end despite the cancel");
+        } catch (IOException e) {
+            // Expected.
+        } finally {
+            response.close();
+        }
+        assertTrue("Error: Cancel took too long to take effect",
+                SystemClock.elapsedRealtime() - start < 2000);
+
+        try {
+            mTransport.get(mServer.url("/slow").toString(), null, signal);
+            fail("Error: Request went out on a cancelled signal");
+        } catch (OperationCanceledException e) {
+            // Expected.
+        }
+    }
+
+    private String fetch(String path) throws IOException {
+        HttpTransport.Response response = mTransport.get(mServer.url(path).toString(), null,
+                null);
+        try {
+            assertEquals(200, response.getCode());
+            InputStream in = response.getBody();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            response.close();
+        }
+    }
+
+    private static Buffer gzip(String data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(data.getBytes("UTF-8"));
+        out.close();
+        return new Buffer().write(bytes.toByteArray());
+    }
+}
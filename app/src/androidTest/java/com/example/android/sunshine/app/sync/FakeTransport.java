@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.support.v4.os.CancellationSignal;
+
+import com.example.android.sunshine.app.net.HttpTransport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Answers each request with the canned response for the first URL fragment it contains, and
+ * keeps every request for the test to look at, so the fetchers and the sync can be run
+ * without the network.  A request nothing matches gets a 503.
+ */
+class FakeTransport implements HttpTransport {
+
+    /**
+     * A request as the transport was given it.
+     */
+    static class Request {
+        final String url;
+        final Map<String, String> headers;
+
+        Request(String url, Map<String, String> headers) {
+            this.url = url;
+            this.headers = headers != null
+                    ? new HashMap<String, String>(headers)
+                    : Collections.<String, String>emptyMap();
+        }
+    }
+
+    private static class Canned {
+        int code;
+        String body;
+        Map<String, String> headers;
+        long delayMillis;
+        boolean fail;
+    }
+
+    private final Map<String, Canned> mRoutes = new LinkedHashMap<String, Canned>();
+    private final List<Request> mRequests = new ArrayList<Request>();
+
+    /**
+     * Answers requests whose URL contains the fragment with this status and body.
+     */
+    FakeTransport answer(String urlFragment, int code, String body) {
+        return answer(urlFragment, code, body, Collections.<String, String>emptyMap());
+    }
+
+    FakeTransport answer(String urlFragment, int code, String body,
+                         Map<String, String> headers) {
+        Canned canned = getRoute(urlFragment);
+        canned.code = code;
+        canned.body = body;
+        canned.headers = headers;
+        canned.fail = false;
+        return this;
+    }
+
+    /**
+     * Holds back the answer to requests whose URL contains the fragment.  A cancelled or
+     * interrupted request stops waiting at once.
+     */
+    FakeTransport delay(String urlFragment, long millis) {
+        getRoute(urlFragment).delayMillis = millis;
+        return this;
+    }
+
+    /**
+     * Fails requests whose URL contains the fragment, as a dropped connection would.
+     */
+    FakeTransport fail(String urlFragment) {
+        getRoute(urlFragment).fail = true;
+        return this;
+    }
+
+    /**
+     * @return the requests made so far whose URL contains the fragment, in the order they
+     * were made.
+     */
+    synchronized List<Request> getRequests(String urlFragment) {
+        List<Request> requests = new ArrayList<Request>();
+        for (Request request : mRequests) {
+            if (request.url.contains(urlFragment)) {
+                requests.add(request);
+            }
+        }
+        return requests;
+    }
+
+    private synchronized Canned getRoute(String urlFragment) {
+        Canned canned = mRoutes.get(urlFragment);
+        if (canned == null) {
+            canned = unavailable();
+            mRoutes.put(urlFragment, canned);
+        }
+        return canned;
+    }
+
+    private static Canned unavailable() {
+        Canned canned = new Canned();
+        canned.code = 503;
+        canned.body = "";
+        canned.headers = Collections.emptyMap();
+        return canned;
+    }
+
+    private synchronized Canned route(String url, Map<String, String> headers) {
+        mRequests.add(new Request(url, headers));
+        for (Map.Entry<String, Canned> route : mRoutes.entrySet()) {
+            if (url.contains(route.getKey())) {
+                return route.getValue();
+            }
+        }
+        return unavailable();
+    }
+
+    @Override
+    public Response get(String url, Map<String, String> headers, CancellationSignal signal)
+            throws IOException {
+        if (signal != null) {
+            signal.throwIfCanceled();
+        }
+        final Canned canned = route(url, headers);
+        if (canned.delayMillis > 0) {
+            long until = System.currentTimeMillis() + canned.delayMillis;
+            while (System.currentTimeMillis() < until) {
+                if (signal != null && signal.isCanceled()) {
+                    throw new IOException("Cancelled");
+                }
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted");
+                }
+            }
+        }
+        if (canned.fail) {
+            throw new IOException("Connection reset");
+        }
+        return new Response() {
+            @Override
+            public int getCode() {
+                return canned.code;
+            }
+
+            @Override
+            public String getHeader(String name) {
+                return canned.headers.get(name);
+            }
+
+            @Override
+            public InputStream getBody() throws IOException {
+                return new ByteArrayInputStream(canned.body.getBytes("UTF-8"));
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public long getBytesSent() {
+        return 0;
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return 0;
+    }
+
+    @Override
+    public long getNetworkNanos(@Phase int phase) {
+        return 0;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+/**
+ * Builds OpenWeatherMap daily forecast responses for the tests to answer with.
+ */
+class ForecastResponses {
+
+    /**
+     * @return a successful response with the given number of days, each warmer than the one
+     * before by a degree, starting from maxTemp.
+     */
+    static String forecast(long cityId, String cityName, int days, double maxTemp) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"city\":{\"id\":").append(cityId)
+                .append(",\"name\":\"").append(cityName).append("\"")
+                .append(",\"coord\":{\"lon\":-0.13,\"lat\":51.51},\"country\":\"GB\"},")
+                .append("\"cod\":\"200\",\"cnt\":").append(days).append(",\"list\":[");
+        for (int i = 0; i < days; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"dt\":").append(1400000000L + i * 86400L)
+                    .append(",\"temp\":{\"day\":15,\"min\":").append(maxTemp + i - 8)
+                    .append(",\"max\":").append(maxTemp + i)
+                    .append(",\"night\":9,\"eve\":13,\"morn\":10},")
+                    .append("\"pressure\":1013.2,\"humidity\":62,")
+                    .append("\"weather\":[{\"id\":800,\"main\":\"Clear\",")
+                    .append("\"description\":\"sky is clear\",\"icon\":\"01d\"}],")
+                    .append("\"speed\":3.4,\"deg\":270,\"clouds\":0}");
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * @return the error OpenWeatherMap answers with for a location it doesn't know.
+     */
+    static String notFound() {
+        return "{\"cod\":\"404\",\"message\":\"city not found\"}";
+    }
+}
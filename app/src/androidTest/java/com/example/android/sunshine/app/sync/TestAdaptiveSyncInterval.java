@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+
+public class TestAdaptiveSyncInterval extends AndroidTestCase {
+
+    // More syncs than it takes to go from one bound to the other.
+    private static final int SYNCS = 20;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        clearPrefs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        clearPrefs();
+        super.tearDown();
+    }
+
+    private void clearPrefs() {
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .remove(mContext.getString(R.string.pref_forecast_volatility_key))
+                .remove(mContext.getString(R.string.pref_sync_interval_key))
+                .commit();
+    }
+
+    /**
+     * Runs one sync's worth of samples through a fresh instance, as a sync would.
+     *
+     * @return the interval afterwards.
+     */
+    private int sync(int comparedDays, int changedDays) {
+        AdaptiveSyncInterval syncInterval = new AdaptiveSyncInterval();
+        syncInterval.addSample(comparedDays, changedDays);
+        syncInterval.update(mContext);
+        return AdaptiveSyncInterval.getSyncInterval(mContext);
+    }
+
+    public void testVolatileForecastsTightenToMinimum() {
+        int interval = AdaptiveSyncInterval.getSyncInterval(mContext);
+        assertEquals(SunshineSyncAdapter.SYNC_INTERVAL, interval);
+
+        for (int i = 0; i < SYNCS; i++) {
+            int next = sync(14, 14);
+            assertTrue("Error: Interval widened while forecasts kept changing",
+                    next <= interval);
+            interval = next;
+        }
+        assertEquals(AdaptiveSyncInterval.MIN_SYNC_INTERVAL, interval);
+    }
+
+    public void testStableForecastsWidenToMaximum() {
+        int interval = AdaptiveSyncInterval.getSyncInterval(mContext);
+
+        for (int i = 0; i < SYNCS; i++) {
+            int next = sync(14, 0);
+            assertTrue("Error: Interval tightened while nothing changed", next >= interval);
+            interval = next;
+        }
+        assertEquals(AdaptiveSyncInterval.MAX_SYNC_INTERVAL, interval);
+    }
+
+    public void testNothingComparedIsIgnored() {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String volatilityKey = mContext.getString(R.string.pref_forecast_volatility_key);
+
+        assertEquals(SunshineSyncAdapter.SYNC_INTERVAL, sync(0, 0));
+        assertFalse("Error: Volatility stored with nothing compared",
+                prefs.contains(volatilityKey));
+
+        int interval = sync(14, 14);
+        float volatility = prefs.getFloat(volatilityKey, -1);
+        assertEquals(interval, sync(0, 0));
+        assertEquals("Error: Volatility moved with nothing compared",
+                volatility, prefs.getFloat(volatilityKey, -1));
+    }
+}
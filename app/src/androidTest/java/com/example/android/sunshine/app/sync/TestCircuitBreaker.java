@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.util.Random;
+
+public class TestCircuitBreaker extends AndroidTestCase {
+    private static final long HOUR_MILLIS = 60 * 60 * 1000;
+
+    public void testOpensAfterThreshold() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 2, HOUR_MILLIS, 4 * HOUR_MILLIS,
+                new Random(0));
+        assertTrue(breaker.allowRequest());
+        breaker.recordFailure();
+        assertTrue("Error: Breaker opened before the threshold", breaker.allowRequest());
+        assertEquals(0, breaker.getRetryDelayMillis());
+
+        breaker.recordFailure();
+        assertTrue("Error: Breaker didn't open at the threshold", breaker.isOpen());
+        assertFalse(breaker.allowRequest());
+
+        // The first open period is jittered between half and all of the base.
+        long delay = breaker.getRetryDelayMillis();
+        assertTrue("Error: Retry delay " + delay + " out of range",
+                delay > HOUR_MILLIS / 2 - 1000 && delay <= HOUR_MILLIS);
+    }
+
+    public void testSuccessResets() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 2, HOUR_MILLIS, 4 * HOUR_MILLIS,
+                new Random(0));
+        breaker.recordFailure();
+        breaker.recordSuccess();
+        breaker.recordFailure();
+        assertTrue("Error: Failures weren't consecutive, breaker shouldn't open",
+                breaker.allowRequest());
+    }
+
+    public void testHalfOpenLetsOneProbeThrough() {
+        // With no wait the breaker goes straight from open to half-open.
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 0, 0, new Random(0));
+        breaker.recordFailure();
+
+        assertTrue("Error: Probe wasn't let through", breaker.allowRequest());
+        assertFalse("Error: Second request allowed while probing", breaker.allowRequest());
+
+        breaker.recordSuccess();
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.allowRequest());
+        assertTrue(breaker.allowRequest());
+    }
+}
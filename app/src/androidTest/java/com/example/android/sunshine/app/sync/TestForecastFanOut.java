@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class TestForecastFanOut extends AndroidTestCase {
+    private static final String LOCATION = "99705";
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private static class QueueConsumer implements ForecastFanOut.Consumer {
+        final BlockingQueue<ForecastUpdate> updates = new LinkedBlockingQueue<ForecastUpdate>();
+
+        @Override
+        public void onForecastUpdated(Context context, ForecastUpdate update) {
+            updates.add(update);
+        }
+    }
+
+    private static ContentValues createDay(long date, int weatherId, double high, double low) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.WeatherEntry.COLUMN_DATE, date);
+        values.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+        values.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+        values.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
+        values.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
+        return values;
+    }
+
+    private static LocationForecast createForecast() {
+        LocationForecast forecast = new LocationForecast(LOCATION);
+        forecast.status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+        return forecast;
+    }
+
+    public void testEveryConsumerGetsTodayFromMemory() throws InterruptedException {
+        ForecastFanOut fanOut = new ForecastFanOut();
+        QueueConsumer first = new QueueConsumer();
+        QueueConsumer second = new QueueConsumer();
+        fanOut.register(first);
+        fanOut.register(second);
+
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        LocationForecast forecast = createForecast();
+        forecast.days.add(createDay(today, 800, 21.5, 12.0));
+        forecast.days.add(createDay(today + 24 * 60 * 60 * 1000, 500, 18.0, 10.0));
+        forecast.changedDates.add(today);
+        fanOut.publish(getContext(), LOCATION, forecast);
+
+        for (QueueConsumer consumer : new QueueConsumer[]{first, second}) {
+            ForecastUpdate update = consumer.updates.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertNotNull("Error: Consumer wasn't handed the update", update);
+            assertEquals(LOCATION, update.locationSetting);
+            assertTrue(update.isTodayChanged());
+            assertTrue(update.hasToday());
+            assertEquals(800, update.getWeatherId());
+            assertEquals(21.5, update.getMaxTemp());
+            assertEquals(12.0, update.getMinTemp());
+        }
+    }
+
+    public void testCurrentConditionsLaidOverLastToday() throws InterruptedException {
+        ForecastFanOut fanOut = new ForecastFanOut();
+        QueueConsumer consumer = new QueueConsumer();
+        fanOut.register(consumer);
+
+        // Current conditions alone aren't a whole day.
+        ContentValues current = new ContentValues();
+        current.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 200);
+        current.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, "Storm");
+        LocationForecast forecast = createForecast();
+        forecast.current = current;
+        fanOut.publish(getContext(), LOCATION, forecast);
+        ForecastUpdate update = consumer.updates.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertFalse("Error: Partial row handed out as today", update.hasToday());
+
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        forecast = createForecast();
+        forecast.days.add(createDay(today, 800, 21.5, 12.0));
+        fanOut.publish(getContext(), LOCATION, forecast);
+        consumer.updates.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        forecast = createForecast();
+        forecast.current = current;
+        fanOut.publish(getContext(), LOCATION, forecast);
+        update = consumer.updates.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertTrue(update.hasToday());
+        assertEquals(200, update.getWeatherId());
+        assertEquals("Storm", update.getShortDesc());
+        assertEquals("Error: Forecast's high not kept", 21.5, update.getMaxTemp());
+    }
+
+    public void testFailingConsumerDoesNotStopOthers() throws InterruptedException {
+        ForecastFanOut fanOut = new ForecastFanOut();
+        fanOut.register(new ForecastFanOut.Consumer() {
+            @Override
+            public void onForecastUpdated(Context context, ForecastUpdate update) {
+                throw new IllegalStateException();
+            }
+        });
+        QueueConsumer consumer = new QueueConsumer();
+        fanOut.register(consumer);
+
+        fanOut.publish(getContext(), LOCATION, createForecast());
+        fanOut.publish(getContext(), LOCATION, createForecast());
+        assertNotNull(consumer.updates.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertNotNull(consumer.updates.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.support.v4.os.CancellationSignal;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+    Runs the group fetch against a canned /group response, so none of these need the network.
+ */
+public class TestGroupFetcher extends AndroidTestCase {
+
+    private static final long LONDON_ID = 2643743;
+    private static final long PARIS_ID = 2988507;
+    private static final long OSLO_ID = 3143244;
+
+    // The cities come back in a different order from the one they were asked for, along with
+    // one we never asked for, and without Oslo.
+    private static final String GROUP = "{\"cnt\":3,\"list\":["
+            + city(PARIS_ID, "Paris", 48.85, 2.35, 500, "Rain", 1008, 93, 6.2)
+            + "," + city(1, "Nowhere", 0, 0, 800, "Clear", 1000, 50, 1)
+            + "," + city(LONDON_ID, "London", 51.51, -0.13, 800, "Clear", 1021, 62, 3.1)
+            + "]}";
+
+    private static String city(long id, String name, double lat, double lon, int weatherId,
+                               String main, double pressure, double humidity, double wind) {
+        return "{\"coord\":{\"lon\":" + lon + ",\"lat\":" + lat + "},"
+                + "\"weather\":[{\"id\":" + weatherId + ",\"main\":\"" + main
+                + "\",\"description\":\"\",\"icon\":\"01d\"}],"
+                + "\"main\":{\"temp\":12.5,\"pressure\":" + pressure
+                + ",\"humidity\":" + humidity + "},"
+                + "\"wind\":{\"speed\":" + wind + ",\"deg\":270},"
+                + "\"id\":" + id + ",\"name\":\"" + name + "\"}";
+    }
+
+    private static Map<Long, String> cities() {
+        Map<Long, String> cities = new LinkedHashMap<Long, String>();
+        cities.put(LONDON_ID, "london,uk");
+        cities.put(PARIS_ID, "paris,fr");
+        cities.put(OSLO_ID, "oslo,no");
+        return cities;
+    }
+
+    private static LocationForecast find(List<LocationForecast> forecasts, String location) {
+        for (LocationForecast forecast : forecasts) {
+            if (location.equals(forecast.locationSetting)) {
+                return forecast;
+            }
+        }
+        fail("Error: No forecast for " + location);
+        return null;
+    }
+
+    public void testCitiesAreMatchedById() throws Exception {
+        FakeTransport transport = new FakeTransport().answer("/group", 200, GROUP);
+        List<LocationForecast> forecasts =
+                new GroupFetcher(transport, cities(), new CancellationSignal()).call();
+
+        assertEquals("Error: Not one forecast per location asked for", 3, forecasts.size());
+        assertEquals(1, transport.getRequests("/group").size());
+        assertTrue("Error: Not every city ID was asked for", transport.getRequests("/group")
+                .get(0).url.contains(LONDON_ID + "%2C" + PARIS_ID + "%2C" + OSLO_ID));
+
+        LocationForecast london = find(forecasts, "london,uk");
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, london.status);
+        assertEquals(LONDON_ID, london.cityId);
+        assertEquals("London", london.cityName);
+        assertEquals(51.51, london.cityLatitude, 0.0);
+        assertEquals(800, (int) london.current.getAsInteger(
+                WeatherContract.WeatherEntry.COLUMN_WEATHER_ID));
+        assertEquals(1021.0, london.current.getAsDouble(
+                WeatherContract.WeatherEntry.COLUMN_PRESSURE), 0.0);
+
+        LocationForecast paris = find(forecasts, "paris,fr");
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, paris.status);
+        assertEquals("Paris", paris.cityName);
+        assertEquals("Rain", paris.current.getAsString(
+                WeatherContract.WeatherEntry.COLUMN_SHORT_DESC));
+        assertTrue("Error: Group response only carries current conditions",
+                paris.days.isEmpty());
+    }
+
+    public void testLeftOutCityFallsBack() throws Exception {
+        FakeTransport transport = new FakeTransport().answer("/group", 200, GROUP);
+        List<LocationForecast> forecasts =
+                new GroupFetcher(transport, cities(), new CancellationSignal()).call();
+
+        LocationForecast oslo = find(forecasts, "oslo,no");
+        assertEquals("Error: City missing from the response wasn't left to fall back",
+                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN, oslo.status);
+        assertNull(oslo.current);
+        assertEquals(OSLO_ID, oslo.cityId);
+    }
+
+    public void testErrorResponseFailsEveryCity() throws Exception {
+        FakeTransport transport = new FakeTransport()
+                .answer("/group", 200, "{\"cod\":\"401\",\"message\":\"Invalid API key\"}");
+        List<LocationForecast> forecasts =
+                new GroupFetcher(transport, cities(), new CancellationSignal()).call();
+
+        for (LocationForecast forecast : forecasts) {
+            assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN, forecast.status);
+            assertNull(forecast.current);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+public class TestHedgePolicy extends AndroidTestCase {
+
+    public void testDefaultUntilEnoughSamples() {
+        HedgePolicy policy = new HedgePolicy(10, 4, 90, 2000);
+        for (int i = 0; i < 3; i++) {
+            policy.addSample(800);
+        }
+        assertEquals("Error: Hedged on too few samples", 2000, policy.getHedgeDelayMillis());
+        policy.addSample(800);
+        assertEquals(800, policy.getHedgeDelayMillis());
+    }
+
+    public void testPercentile() {
+        HedgePolicy policy = new HedgePolicy(10, 1, 90, 2000);
+        // Out of order, so the percentile can't just be read off by position.
+        for (long millis : new long[]{1700, 900, 1000, 600, 5000, 800, 1200, 700, 1100, 1500}) {
+            policy.addSample(millis);
+        }
+        assertEquals(1700, policy.getHedgeDelayMillis());
+    }
+
+    public void testOldestSamplesAreDropped() {
+        HedgePolicy policy = new HedgePolicy(4, 1, 100, 2000);
+        for (int i = 0; i < 4; i++) {
+            policy.addSample(9000);
+        }
+        for (int i = 0; i < 4; i++) {
+            policy.addSample(1000);
+        }
+        assertEquals("Error: Old samples still counted", 1000, policy.getHedgeDelayMillis());
+    }
+
+    public void testDelayIsClamped() {
+        HedgePolicy policy = new HedgePolicy(4, 1, 50, 2000);
+        policy.addSample(10);
+        assertEquals(HedgePolicy.MIN_DELAY_MILLIS, policy.getHedgeDelayMillis());
+
+        policy = new HedgePolicy(4, 1, 50, 2000);
+        policy.addSample(HedgePolicy.MAX_DELAY_MILLIS * 10);
+        assertEquals(HedgePolicy.MAX_DELAY_MILLIS, policy.getHedgeDelayMillis());
+    }
+}
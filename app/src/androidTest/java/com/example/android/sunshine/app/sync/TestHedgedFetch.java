@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.support.v4.os.CancellationSignal;
+import android.test.AndroidTestCase;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestHedgedFetch extends AndroidTestCase {
+    private static final String LOCATION = "94043";
+    // Long enough that nothing in these tests should ever hit it.
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private ExecutorService mExecutor;
+    // Hedges after 200ms, whatever the samples say.
+    private HedgePolicy mPolicy;
+
+    /**
+     * A fetch that takes the given time, or until cancelled, then answers with the given
+     * status.  The forecast's city name says which fetch it came from.
+     */
+    static class FakeFetch implements Callable<LocationForecast> {
+        final String name;
+        final long millis;
+        final int status;
+        final CancellationSignal signal = new CancellationSignal();
+        final AtomicInteger calls = new AtomicInteger();
+
+        FakeFetch(String name, long millis, int status) {
+            this.name = name;
+            this.millis = millis;
+            this.status = status;
+        }
+
+        @Override
+        public LocationForecast call() throws InterruptedException {
+            calls.incrementAndGet();
+            LocationForecast forecast = new LocationForecast(LOCATION);
+            forecast.cityName = name;
+            long end = System.currentTimeMillis() + millis;
+            while (System.currentTimeMillis() < end) {
+                if (signal.isCanceled()) {
+                    return forecast;
+                }
+                Thread.sleep(10);
+            }
+            forecast.status = status;
+            return forecast;
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mExecutor = Executors.newFixedThreadPool(2);
+        mPolicy = new HedgePolicy(4, Integer.MAX_VALUE, 95, 200);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mExecutor.shutdownNow();
+        super.tearDown();
+    }
+
+    private HedgedFetch hedge(FakeFetch primary, FakeFetch secondary) {
+        return new HedgedFetch(mExecutor, mPolicy, LOCATION, primary, primary.signal,
+                secondary, secondary.signal);
+    }
+
+    public void testFastPrimaryIsNotHedged() throws Exception {
+        FakeFetch primary = new FakeFetch("primary", 0, SunshineSyncAdapter.LOCATION_STATUS_OK);
+        FakeFetch secondary = new FakeFetch("secondary", 0, SunshineSyncAdapter.LOCATION_STATUS_OK);
+
+        LocationForecast forecast = hedge(primary, secondary).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals("primary", forecast.cityName);
+        Thread.sleep(400);
+        assertEquals("Error: Fast primary was hedged", 0, secondary.calls.get());
+    }
+
+    public void testSlowPrimaryIsHedged() throws Exception {
+        FakeFetch primary = new FakeFetch("primary", TIMEOUT_SECONDS * 1000,
+                SunshineSyncAdapter.LOCATION_STATUS_OK);
+        FakeFetch secondary = new FakeFetch("secondary", 0, SunshineSyncAdapter.LOCATION_STATUS_OK);
+
+        LocationForecast forecast = hedge(primary, secondary).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals("Error: Secondary's answer wasn't taken", "secondary", forecast.cityName);
+        assertTrue("Error: Losing primary wasn't cancelled", primary.signal.isCanceled());
+    }
+
+    public void testPrimaryCanStillWin() throws Exception {
+        FakeFetch primary = new FakeFetch("primary", 400, SunshineSyncAdapter.LOCATION_STATUS_OK);
+        FakeFetch secondary = new FakeFetch("secondary", TIMEOUT_SECONDS * 1000,
+                SunshineSyncAdapter.LOCATION_STATUS_OK);
+
+        LocationForecast forecast = hedge(primary, secondary).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals("primary", forecast.cityName);
+        assertEquals(1, secondary.calls.get());
+        assertTrue("Error: Losing secondary wasn't cancelled", secondary.signal.isCanceled());
+    }
+
+    public void testEarlyPrimaryFailureIsTheResult() throws Exception {
+        FakeFetch primary = new FakeFetch("primary", 0,
+                SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN);
+        FakeFetch secondary = new FakeFetch("secondary", 0, SunshineSyncAdapter.LOCATION_STATUS_OK);
+
+        LocationForecast forecast = hedge(primary, secondary).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN, forecast.status);
+        assertEquals(0, secondary.calls.get());
+    }
+
+    public void testFailedSecondaryWaitsForPrimary() throws Exception {
+        FakeFetch primary = new FakeFetch("primary", 600, SunshineSyncAdapter.LOCATION_STATUS_OK);
+        FakeFetch secondary = new FakeFetch("secondary", 0,
+                SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN);
+
+        LocationForecast forecast = hedge(primary, secondary).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals("Error: Secondary's failure was taken over the primary's answer",
+                "primary", forecast.cityName);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, forecast.status);
+    }
+
+    public void testCancelStopsBoth() throws Exception {
+        FakeFetch primary = new FakeFetch("primary", TIMEOUT_SECONDS * 1000,
+                SunshineSyncAdapter.LOCATION_STATUS_OK);
+        FakeFetch secondary = new FakeFetch("secondary", TIMEOUT_SECONDS * 1000,
+                SunshineSyncAdapter.LOCATION_STATUS_OK);
+
+        HedgedFetch fetch = hedge(primary, secondary);
+        try {
+            fetch.get(400, TimeUnit.MILLISECONDS);
+            fail("Error: Fetch finished while both sources were still going");
+        } catch (TimeoutException e) {
+            // Expected.
+        }
+        assertTrue(fetch.cancel(true));
+        assertTrue(fetch.isCancelled());
+        assertTrue(primary.signal.isCanceled());
+        assertTrue(secondary.signal.isCanceled());
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.util.List;
+
+public class TestHistoryBackfill extends AndroidTestCase {
+
+    public void testChunksRunBackwardsWithoutGaps() {
+        List<int[]> chunks = HistoryBackfill.planChunks(1000, 800, 30, 3);
+        assertEquals(3, chunks.size());
+        assertEquals(971, chunks.get(0)[0]);
+        assertEquals(1000, chunks.get(0)[1]);
+        assertEquals(941, chunks.get(1)[0]);
+        assertEquals(970, chunks.get(1)[1]);
+        assertEquals(911, chunks.get(2)[0]);
+        assertEquals(940, chunks.get(2)[1]);
+    }
+
+    public void testPartialChunkIsLeftForLater() {
+        // 45 days to go: one whole chunk, and 15 days that wait until there are 30.
+        List<int[]> chunks = HistoryBackfill.planChunks(1000, 956, 30, 3);
+        assertEquals(1, chunks.size());
+        assertEquals(971, chunks.get(0)[0]);
+
+        assertTrue("Error: Planned a chunk past the oldest day",
+                HistoryBackfill.planChunks(1000, 980, 30, 3).isEmpty());
+    }
+
+    public void testFormatDay() {
+        // The Julian day of December 20th, 2014.
+        assertEquals("2014-12-20", HistoryFetcher.formatDay(2457012));
+    }
+}
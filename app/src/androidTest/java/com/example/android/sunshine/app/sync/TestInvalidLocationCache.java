@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+public class TestInvalidLocationCache extends AndroidTestCase {
+
+    private static final long START = 1000000000000L;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getSharedPreferences(InvalidLocationCache.PREFS_NAME, Context.MODE_PRIVATE)
+                .edit().clear().commit();
+    }
+
+    public void testCanonicalForm() {
+        InvalidLocationCache cache = new InvalidLocationCache(mContext);
+        cache.add("Londn, UK", START);
+        assertTrue(cache.contains("londn,uk", START));
+        assertTrue(cache.contains("  LONDN ,  UK ", START));
+        assertFalse("Error: Unrelated location counted as invalid",
+                cache.contains("London, UK", START));
+    }
+
+    public void testExpiry() {
+        InvalidLocationCache cache = new InvalidLocationCache(mContext);
+        cache.add("xyzzy", START);
+        long expiry = START + InvalidLocationCache.EXPIRY_MILLIS;
+        assertTrue(cache.contains("xyzzy", expiry - 1));
+        assertFalse("Error: Expired entry still counted", cache.contains("xyzzy", expiry));
+    }
+
+    public void testRemove() {
+        InvalidLocationCache cache = new InvalidLocationCache(mContext);
+        cache.add("xyzzy", START);
+        cache.remove("Xyzzy");
+        assertFalse("Error: Removed entry still counted", cache.contains("xyzzy", START));
+    }
+
+    public void testSurvivesRestart() {
+        new InvalidLocationCache(mContext).add("xyzzy", START);
+
+        // As if the process had been killed and started again.
+        InvalidLocationCache cache = new InvalidLocationCache(mContext);
+        assertTrue("Error: Entry lost on restart", cache.contains("xyzzy", START));
+    }
+
+    public void testBounded() {
+        InvalidLocationCache cache = new InvalidLocationCache(mContext);
+        for (int i = 0; i <= InvalidLocationCache.MAX_ENTRIES; i++) {
+            cache.add("nowhere " + i, START + i);
+        }
+        assertFalse("Error: Entry closest to expiring wasn't dropped",
+                cache.contains("nowhere 0", START + InvalidLocationCache.MAX_ENTRIES));
+        assertTrue(cache.contains("nowhere 1", START + InvalidLocationCache.MAX_ENTRIES));
+        assertTrue(cache.contains("nowhere " + InvalidLocationCache.MAX_ENTRIES,
+                START + InvalidLocationCache.MAX_ENTRIES));
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+
+public class TestQuotaGovernor extends AndroidTestCase {
+
+    private static final long START = 1000000000000L;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .remove(mContext.getString(R.string.pref_quota_tokens_key))
+                .remove(mContext.getString(R.string.pref_quota_updated_at_key))
+                .commit();
+    }
+
+    private static int drain(QuotaGovernor quota, int priority, long now) {
+        int acquired = 0;
+        while (quota.tryAcquire(priority, now)) {
+            acquired++;
+        }
+        return acquired;
+    }
+
+    public void testVisibleBorrowsAheadOfRefill() {
+        QuotaGovernor quota = new QuotaGovernor(mContext);
+        assertEquals(QuotaGovernor.CAPACITY, drain(quota, SyncScheduler.PRIORITY_FAVORITE, START));
+        assertEquals("Error: Visible location couldn't borrow",
+                QuotaGovernor.BORROW_LIMIT, drain(quota, SyncScheduler.PRIORITY_VISIBLE, START));
+        assertFalse(quota.tryAcquire(SyncScheduler.PRIORITY_FAVORITE, START));
+    }
+
+    public void testPrefetchLeavesReserve() {
+        QuotaGovernor quota = new QuotaGovernor(mContext);
+        assertEquals(QuotaGovernor.CAPACITY - QuotaGovernor.PREFETCH_RESERVE,
+                drain(quota, SyncScheduler.PRIORITY_PREFETCH, START));
+        assertEquals("Error: Prefetch ate into the reserve", QuotaGovernor.PREFETCH_RESERVE,
+                drain(quota, SyncScheduler.PRIORITY_FAVORITE, START));
+    }
+
+    public void testRefillAndWait() {
+        QuotaGovernor quota = new QuotaGovernor(mContext);
+        drain(quota, SyncScheduler.PRIORITY_FAVORITE, START);
+        assertEquals(QuotaGovernor.REFILL_MILLIS,
+                quota.getWaitMillis(SyncScheduler.PRIORITY_FAVORITE, START));
+        assertEquals(0, quota.getWaitMillis(SyncScheduler.PRIORITY_VISIBLE, START));
+        assertEquals((QuotaGovernor.PREFETCH_RESERVE + 1) * QuotaGovernor.REFILL_MILLIS,
+                quota.getWaitMillis(SyncScheduler.PRIORITY_PREFETCH, START));
+
+        long later = START + 3 * QuotaGovernor.REFILL_MILLIS;
+        assertEquals(3, drain(quota, SyncScheduler.PRIORITY_FAVORITE, later));
+
+        // However long it's been, the bucket only holds so much.
+        long muchLater = later + 100 * QuotaGovernor.CAPACITY * QuotaGovernor.REFILL_MILLIS;
+        assertEquals(QuotaGovernor.CAPACITY,
+                drain(quota, SyncScheduler.PRIORITY_FAVORITE, muchLater));
+    }
+
+    public void testClockGoingBackwards() {
+        QuotaGovernor quota = new QuotaGovernor(mContext);
+        drain(quota, SyncScheduler.PRIORITY_FAVORITE, START);
+        assertFalse(quota.tryAcquire(SyncScheduler.PRIORITY_FAVORITE,
+                START - 10 * QuotaGovernor.REFILL_MILLIS));
+        assertTrue(quota.tryAcquire(SyncScheduler.PRIORITY_FAVORITE,
+                START - 9 * QuotaGovernor.REFILL_MILLIS));
+    }
+
+    public void testBucketSurvivesRestart() {
+        QuotaGovernor quota = new QuotaGovernor(mContext);
+        drain(quota, SyncScheduler.PRIORITY_FAVORITE, START);
+
+        // As if the process had been killed and started again.
+        quota = new QuotaGovernor(mContext);
+        assertFalse("Error: Quota was reset by a restart",
+                quota.tryAcquire(SyncScheduler.PRIORITY_FAVORITE, START));
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+public class TestResponseJournal extends AndroidTestCase {
+    private static final int CAPACITY = 16 * 1024;
+
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = new File(mContext.getCacheDir(), "test.journal");
+        mFile.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    private static byte[] gzip(String body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+        gzip.write(body.getBytes("UTF-8"));
+        gzip.close();
+        return bytes.toByteArray();
+    }
+
+    private static String gunzip(ResponseJournal.Record record) throws IOException {
+        InputStream in = record.openBody();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        in.close();
+        return bytes.toString("UTF-8");
+    }
+
+    // A response as the fetcher journals it, for a city of the given name.
+    private static ResponseJournal.Record createRecord(String location, long fetchedAt,
+                                                       String cityName) throws IOException {
+        return new ResponseJournal.Record(location, fetchedAt, "\"" + cityName + "\"", null,
+                gzip(ForecastResponses.forecast(fetchedAt, cityName, 3, 20.5)));
+    }
+
+    private static void assertRecord(ResponseJournal.Record expected,
+                                     ResponseJournal.Record actual) throws IOException {
+        assertNotNull("Error: Record is missing", actual);
+        assertEquals(expected.locationSetting, actual.locationSetting);
+        assertEquals(expected.fetchedAt, actual.fetchedAt);
+        assertEquals(expected.eTag, actual.eTag);
+        assertEquals(expected.lastModified, actual.lastModified);
+        assertTrue("Error: Body doesn't match", Arrays.equals(expected.body, actual.body));
+        assertEquals(gunzip(expected), gunzip(actual));
+    }
+
+    public void testLatestSurvivesReopen() throws IOException {
+        ResponseJournal.Record first = createRecord("a", 1000, "first");
+        ResponseJournal.Record second = createRecord("a", 2000, "second");
+        ResponseJournal.Record other = createRecord("b", 1500, "other");
+
+        ResponseJournal journal = new ResponseJournal(mFile, CAPACITY);
+        journal.append(first);
+        journal.append(other);
+        journal.append(second);
+        assertRecord(second, journal.getLatest("a"));
+        assertRecord(other, journal.getLatest("b"));
+        assertNull(journal.getLatest("c"));
+
+        journal = new ResponseJournal(mFile, CAPACITY);
+        assertRecord(second, journal.getLatest("a"));
+        assertRecord(other, journal.getLatest("b"));
+        assertEquals(Arrays.asList("b", "a"), journal.getLocations());
+    }
+
+    public void testCorruptRecordIsDropped() throws IOException {
+        ResponseJournal.Record good = createRecord("a", 1000, "good");
+        ResponseJournal.Record torn = createRecord("b", 2000, "torn-torn-torn");
+
+        ResponseJournal journal = new ResponseJournal(mFile, CAPACITY);
+        journal.append(good);
+        journal.append(torn);
+
+        // Flip a byte in the middle of the second record.
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        byte[] contents = new byte[CAPACITY];
+        file.readFully(contents);
+        int index = new String(contents, "ISO-8859-1").indexOf("torn-torn-torn");
+        assertTrue(index > 0);
+        file.seek(index + 5);
+        file.write('X');
+        file.close();
+
+        journal = new ResponseJournal(mFile, CAPACITY);
+        assertRecord(good, journal.getLatest("a"));
+        assertNull("Error: Corrupt record was read back", journal.getLatest("b"));
+
+        // Appending carries on from the last good record.
+        journal.append(torn);
+        journal = new ResponseJournal(mFile, CAPACITY);
+        assertRecord(torn, journal.getLatest("b"));
+    }
+
+    public void testCompactionKeepsLatest() throws IOException {
+        char[] filler = new char[1000];
+        Arrays.fill(filler, 'x');
+        String cityName = new String(filler);
+        long now = System.currentTimeMillis();
+
+        ResponseJournal journal = new ResponseJournal(mFile, CAPACITY);
+        ResponseJournal.Record latestA = null;
+        ResponseJournal.Record latestB = null;
+        // Several times what fits, so it has to compact along the way.
+        for (int i = 0; i < 50; i++) {
+            latestA = createRecord("a", now + i, cityName + i);
+            latestB = createRecord("b", now + i, cityName + i);
+            journal.append(latestA);
+            journal.append(latestB);
+        }
+        assertRecord(latestA, journal.getLatest("a"));
+        assertRecord(latestB, journal.getLatest("b"));
+
+        journal = new ResponseJournal(mFile, CAPACITY);
+        assertRecord(latestA, journal.getLatest("a"));
+        assertRecord(latestB, journal.getLatest("b"));
+    }
+
+    public void testUnreadableJournalStartsOver() throws IOException {
+        ResponseJournal journal = new ResponseJournal(mFile, CAPACITY);
+        journal.append(createRecord("a", 1000, "first"));
+
+        // Scribble over the header, as a journal from another version would have it.
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.writeInt(0);
+        file.close();
+
+        journal = new ResponseJournal(mFile, CAPACITY);
+        assertNull("Error: Record read back from an unreadable journal", journal.getLatest("a"));
+        assertEquals(CAPACITY, mFile.length());
+
+        ResponseJournal.Record second = createRecord("b", 2000, "second");
+        journal.append(second);
+        journal = new ResponseJournal(mFile, CAPACITY);
+        assertRecord(second, journal.getLatest("b"));
+        assertNull(journal.getLatest("a"));
+    }
+
+    public void testReplayParsesJournaledResponse() throws IOException {
+        long fetchedAt = System.currentTimeMillis();
+        ResponseJournal journal = new ResponseJournal(mFile, CAPACITY);
+        journal.append(new ResponseJournal.Record("london", fetchedAt, "\"v1\"", null,
+                gzip(ForecastResponses.forecast(2643743, "London", 14, 20.5))));
+
+        journal = new ResponseJournal(mFile, CAPACITY);
+        LocationForecast forecast = new LocationForecast("london");
+        assertTrue("Error: Journaled response didn't replay",
+                ForecastFetcher.replay(journal.getLatest("london"), forecast));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, forecast.status);
+        assertEquals(fetchedAt, forecast.fetchedAt);
+        assertEquals("\"v1\"", forecast.eTag);
+        assertEquals(2643743, forecast.cityId);
+        assertEquals("London", forecast.cityName);
+        assertEquals(14, forecast.days.size());
+        assertEquals(33.5, forecast.days.get(13).getAsDouble(WeatherEntry.COLUMN_MAX_TEMP), 0.0);
+        assertTrue("Error: Derived columns weren't worked out on replay",
+                forecast.days.get(0).containsKey(WeatherEntry.COLUMN_MAX_TEMP_IMPERIAL));
+    }
+
+    public void testUnparseableResponseIsNotReplayed() throws IOException {
+        ResponseJournal.Record record = new ResponseJournal.Record("london", 1000, null, null,
+                gzip("{\"city\":"));
+        LocationForecast forecast = new LocationForecast("london");
+        assertFalse(ForecastFetcher.replay(record, forecast));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID, forecast.status);
+        assertTrue(forecast.days.isEmpty());
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.preference.PreferenceManager;
+import android.support.v4.os.CancellationSignal;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.net.HttpTransport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Runs prefetches against a transport that answers every request the same way, so none of
+    these need the network.
+ */
+public class TestSpeculativePrefetch extends AndroidTestCase {
+
+    private static final String NOT_FOUND = "{\"cod\":\"404\",\"message\":\"city not found\"}";
+
+    private CannedTransport mTransport;
+
+    private static class CannedTransport implements HttpTransport {
+        final AtomicInteger requests = new AtomicInteger();
+        private final int mCode;
+        private final String mBody;
+
+        CannedTransport(int code, String body) {
+            mCode = code;
+            mBody = body;
+        }
+
+        @Override
+        public Response get(String url, Map<String, String> headers, CancellationSignal signal)
+                throws IOException {
+            requests.incrementAndGet();
+            return new Response() {
+                @Override
+                public int getCode() {
+                    return mCode;
+                }
+
+                @Override
+                public String getHeader(String name) {
+                    return null;
+                }
+
+                @Override
+                public InputStream getBody() throws IOException {
+                    return new ByteArrayInputStream(mBody.getBytes("UTF-8"));
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+
+        @Override
+        public long getBytesSent() {
+            return 0;
+        }
+
+        @Override
+        public long getBytesReceived() {
+            return 0;
+        }
+
+        @Override
+        public long getNetworkNanos(@Phase int phase) {
+            return 0;
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // A full quota, and nothing known to be invalid.
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .remove(mContext.getString(R.string.pref_quota_tokens_key))
+                .remove(mContext.getString(R.string.pref_quota_updated_at_key))
+                .commit();
+        mContext.getSharedPreferences(InvalidLocationCache.PREFS_NAME, Context.MODE_PRIVATE)
+                .edit().clear().commit();
+        mTransport = new CannedTransport(404, NOT_FOUND);
+        SunshineSyncAdapter.setTransport(mTransport);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SunshineSyncAdapter.setTransport(null);
+        super.tearDown();
+    }
+
+    public void testOnlyTheStagedLocationIsTaken() throws Exception {
+        SpeculativePrefetch prefetch = new SpeculativePrefetch();
+        prefetch.prefetch(mContext, "Lond");
+        assertNull("Error: Prefetch of another location was taken", prefetch.take("London"));
+        // Nor was the staged one dropped for it, so asking again doesn't go to the network.
+        prefetch.prefetch(mContext, "Lond");
+        prefetch.take("Lond");
+        assertEquals(1, mTransport.requests.get());
+    }
+
+    public void testSameLocationIsFetchedOnce() throws Exception {
+        SpeculativePrefetch prefetch = new SpeculativePrefetch();
+        prefetch.prefetch(mContext, "Lond");
+        prefetch.prefetch(mContext, "Lond");
+        prefetch.take("Lond");
+        assertEquals(1, mTransport.requests.get());
+    }
+
+    public void testInvalidLocationIsRemembered() throws Exception {
+        SpeculativePrefetch prefetch = new SpeculativePrefetch();
+        prefetch.prefetch(mContext, "Xyzzy");
+        assertNull("Error: Invalid location was staged", prefetch.take("Xyzzy"));
+        assertTrue(InvalidLocationCache.get(mContext).contains("Xyzzy"));
+
+        // So there's no asking again.
+        prefetch.prefetch(mContext, "Xyzzy");
+        assertEquals(1, mTransport.requests.get());
+    }
+
+    public void testCancelDropsStaged() throws Exception {
+        SpeculativePrefetch prefetch = new SpeculativePrefetch();
+        prefetch.prefetch(mContext, "Lond");
+        prefetch.cancel();
+        assertNull(prefetch.take("Lond"));
+
+        prefetch.prefetch(mContext, "London");
+        prefetch.keepOnly("Londo");
+        assertNull("Error: Prefetch for an abandoned location was kept", prefetch.take("London"));
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestSunshineJobService extends AndroidTestCase {
+
+    private ExecutorService mExecutor;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mExecutor = Executors.newSingleThreadExecutor();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mExecutor.shutdownNow();
+        super.tearDown();
+    }
+
+    /**
+     * Counts how many times it has run.
+     */
+    private static class CountingRunnable implements Runnable {
+        final AtomicInteger runs = new AtomicInteger();
+
+        @Override
+        public void run() {
+            runs.incrementAndGet();
+        }
+    }
+
+    public void testStopWhileQueuedFinishesJob() throws Exception {
+        // Another job's sync holds the sync thread.
+        final CountDownLatch release = new CountDownLatch(1);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        CountingRunnable sync = new CountingRunnable();
+        CountingRunnable stopped = new CountingRunnable();
+        SunshineJobService.JobSync jobSync = new SunshineJobService.JobSync(sync, stopped);
+        mExecutor.execute(jobSync);
+
+        jobSync.cancel(true);
+        assertEquals("Error: Job stopped while queued wasn't finished off", 1, stopped.runs.get());
+
+        release.countDown();
+        mExecutor.shutdown();
+        assertTrue(mExecutor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals("Error: Sync ran after its job was stopped", 0, sync.runs.get());
+        assertEquals(1, stopped.runs.get());
+    }
+
+    public void testStopWhileRunningLeavesFinishToSync() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        CountingRunnable stopped = new CountingRunnable();
+        SunshineJobService.JobSync jobSync = new SunshineJobService.JobSync(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(10));
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            }
+        }, stopped);
+        mExecutor.execute(jobSync);
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        jobSync.cancel(true);
+        assertTrue("Error: Running sync wasn't interrupted",
+                interrupted.await(5, TimeUnit.SECONDS));
+        assertEquals("Error: Running sync finished off twice", 0, stopped.runs.get());
+    }
+
+    public void testFinishedSyncIsNotStopped() throws Exception {
+        CountingRunnable sync = new CountingRunnable();
+        CountingRunnable stopped = new CountingRunnable();
+        SunshineJobService.JobSync jobSync = new SunshineJobService.JobSync(sync, stopped);
+        mExecutor.execute(jobSync);
+
+        jobSync.get(5, TimeUnit.SECONDS);
+        assertFalse(jobSync.cancel(true));
+        assertEquals(1, sync.runs.get());
+        assertEquals(0, stopped.runs.get());
+    }
+}
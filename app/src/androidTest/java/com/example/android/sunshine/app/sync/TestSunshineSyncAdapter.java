@@ -0,0 +1,390 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentProviderClient;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.support.v4.os.CancellationSignal;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.net.HttpTransport;
+import com.example.android.sunshine.app.net.OkHttpTransport;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/*
+    Runs whole syncs against canned OpenWeatherMap responses, so none of these need the
+    network.  Every location is named after the test run, so nothing is left over from an
+    earlier one, in the database or the response journal.
+ */
+public class TestSunshineSyncAdapter extends AndroidTestCase {
+
+    private FakeTransport mTransport;
+    private String mSuffix;
+    private String mHome;
+    private String mPreviousLocation;
+
+    /**
+     * Keeps what each location was synced with, in the order they were finished.
+     */
+    private static class Completions implements SyncCoalescer.Callback {
+        final List<String> locations = new ArrayList<String>();
+        final List<Integer> statuses = new ArrayList<Integer>();
+
+        @Override
+        public synchronized void onSyncComplete(String locationSetting, int status) {
+            locations.add(locationSetting);
+            statuses.add(status);
+        }
+    }
+
+    /**
+     * Sends what would have gone to OpenWeatherMap to a local stand-in server instead.
+     */
+    private static class ServerTransport implements HttpTransport {
+        private final HttpTransport mTransport = new OkHttpTransport();
+        private final String mBaseUrl;
+
+        ServerTransport(MockWebServer server) {
+            mBaseUrl = server.url("/").toString();
+        }
+
+        @Override
+        public Response get(String url, Map<String, String> headers, CancellationSignal signal)
+                throws IOException {
+            return mTransport.get(url.replace("http://api.openweathermap.org/", mBaseUrl),
+                    headers, signal);
+        }
+
+        @Override
+        public long getBytesSent() {
+            return mTransport.getBytesSent();
+        }
+
+        @Override
+        public long getBytesReceived() {
+            return mTransport.getBytesReceived();
+        }
+
+        @Override
+        public long getNetworkNanos(@Phase int phase) {
+            return mTransport.getNetworkNanos(phase);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSuffix = Long.toString(System.currentTimeMillis());
+        mHome = "Home" + mSuffix;
+
+        // A full quota, nothing known to be invalid, no hedging to the secondary source, and
+        // the default freshness.  The sync always fetches the preferred location too, so
+        // that's one of ours.
+        String locationKey = mContext.getString(R.string.pref_location_key);
+        mPreviousLocation = PreferenceManager.getDefaultSharedPreferences(mContext)
+                .getString(locationKey, null);
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .remove(mContext.getString(R.string.pref_quota_tokens_key))
+                .remove(mContext.getString(R.string.pref_quota_updated_at_key))
+                .remove(mContext.getString(R.string.pref_freshness_ttl_key))
+                .putBoolean(mContext.getString(R.string.pref_hedge_requests_key), false)
+                .putString(locationKey, mHome)
+                .commit();
+        mContext.getSharedPreferences(InvalidLocationCache.PREFS_NAME, Context.MODE_PRIVATE)
+                .edit().clear().commit();
+        deleteAllRecords();
+
+        // The 3-hour forecasts are left out; a 404 doesn't count against the endpoint.
+        mTransport = new FakeTransport()
+                .answer("/forecast?", 404, ForecastResponses.notFound())
+                .answer(daily(mHome), 200, ForecastResponses.forecast(100, "Home", 14, 20));
+        SunshineSyncAdapter.setTransport(mTransport);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SunshineSyncAdapter.setTransport(null);
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .remove(mContext.getString(R.string.pref_hedge_requests_key))
+                .putString(mContext.getString(R.string.pref_location_key), mPreviousLocation)
+                .commit();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        ContentResolver resolver = mContext.getContentResolver();
+        resolver.delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        resolver.delete(WeatherContract.IntervalEntry.CONTENT_URI, null, null);
+        resolver.delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    /**
+     * @return the URL fragment that picks out the daily forecast request for the location.
+     */
+    private static String daily(String location) {
+        return "daily?q=" + location + "&";
+    }
+
+    /**
+     * Runs a sync the way a manual one from the framework would, on this thread.
+     */
+    private void sync() {
+        Bundle extras = new Bundle();
+        extras.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        ContentProviderClient provider = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        try {
+            new SunshineSyncAdapter(mContext, false).onPerformSync(null, extras,
+                    WeatherContract.CONTENT_AUTHORITY, provider, new SyncResult());
+        } finally {
+            provider.release();
+        }
+    }
+
+    private int countDays(String location) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(location),
+                null, null, null, null);
+        assertNotNull(cursor);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return each stored day's high for the location, earliest first.
+     */
+    private List<Double> getHighs(String location) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(location),
+                new String[]{WeatherContract.WeatherEntry.COLUMN_MAX_TEMP},
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull(cursor);
+        try {
+            List<Double> highs = new ArrayList<Double>();
+            while (cursor.moveToNext()) {
+                highs.add(cursor.getDouble(0));
+            }
+            return highs;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return the ETag and Last-Modified stored for the location.
+     */
+    private String[] getValidators(String location) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry.COLUMN_ETAG,
+                        WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{location},
+                null);
+        assertNotNull(cursor);
+        try {
+            assertTrue("Error: No location row for " + location, cursor.moveToFirst());
+            return new String[]{cursor.getString(0), cursor.getString(1)};
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int getSyncStatus(String location) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry.COLUMN_SYNC_STATUS},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{location},
+                null);
+        assertNotNull(cursor);
+        try {
+            assertTrue("Error: No location row for " + location, cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+        The first location is the slowest to come back and the second doesn't parse, but the
+        batch is still finished in the order it was asked for, and the other two are written.
+     */
+    public void testBatchIsWrittenInOrderDespiteOneFailure() {
+        String slow = "Slow" + mSuffix;
+        String broken = "Broken" + mSuffix;
+        String fast = "Fast" + mSuffix;
+        mTransport.answer(daily(slow), 200, ForecastResponses.forecast(101, "Slow", 14, 10))
+                .delay(daily(slow), 500)
+                .answer(daily(broken), 200, "{\"cod\":\"200\",\"list\":{}}")
+                .answer(daily(fast), 200, ForecastResponses.forecast(102, "Fast", 14, 30));
+
+        Completions completions = new Completions();
+        SyncCoalescer coalescer = SyncCoalescer.getInstance();
+        for (String location : new String[]{slow, broken, fast}) {
+            coalescer.request(location, SyncScheduler.PRIORITY_FAVORITE, false, completions);
+        }
+        sync();
+
+        assertEquals("Error: Batch wasn't finished in the order it was asked for",
+                Arrays.asList(slow, broken, fast), completions.locations);
+        assertEquals(Arrays.asList(SunshineSyncAdapter.LOCATION_STATUS_OK,
+                SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID,
+                SunshineSyncAdapter.LOCATION_STATUS_OK), completions.statuses);
+
+        assertEquals("Error: Slow location wasn't written", 14, countDays(slow));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, getSyncStatus(slow));
+        assertEquals("Error: Location after the failure wasn't written", 14, countDays(fast));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, getSyncStatus(fast));
+        assertEquals("Error: Unparseable forecast was written", 0, countDays(broken));
+    }
+
+    /*
+        A location fetched within the freshness TTL is answered from what's stored, without
+        going to the network.
+     */
+    public void testFreshLocationSkipsNetwork() {
+        String location = "Fresh" + mSuffix;
+        mTransport.answer(daily(location), 200, ForecastResponses.forecast(104, "Fresh", 14, 20));
+
+        Completions completions = new Completions();
+        SyncCoalescer coalescer = SyncCoalescer.getInstance();
+        coalescer.request(location, SyncScheduler.PRIORITY_FAVORITE, false, completions);
+        sync();
+        assertEquals(1, mTransport.getRequests(daily(location)).size());
+
+        coalescer.request(location, SyncScheduler.PRIORITY_FAVORITE, false, completions);
+        sync();
+        assertEquals("Error: Location inside its freshness TTL went to the network",
+                1, mTransport.getRequests(daily(location)).size());
+        assertEquals(Arrays.asList(SunshineSyncAdapter.LOCATION_STATUS_OK,
+                SunshineSyncAdapter.LOCATION_STATUS_OK), completions.statuses);
+        assertEquals(14, countDays(location));
+    }
+
+    /*
+        Forcing a location, as pull-to-refresh does, fetches it however fresh it is.
+     */
+    public void testForcedSyncBypassesFreshness() {
+        String location = "Forced" + mSuffix;
+        mTransport.answer(daily(location), 200, ForecastResponses.forecast(105, "Forced", 14, 20));
+
+        Completions completions = new Completions();
+        SyncCoalescer coalescer = SyncCoalescer.getInstance();
+        coalescer.request(location, SyncScheduler.PRIORITY_FAVORITE, false, completions);
+        sync();
+        coalescer.request(location, SyncScheduler.PRIORITY_FAVORITE, true, completions);
+        sync();
+
+        assertEquals("Error: Forced sync was skipped for being fresh",
+                2, mTransport.getRequests(daily(location)).size());
+        assertEquals(Arrays.asList(SunshineSyncAdapter.LOCATION_STATUS_OK,
+                SunshineSyncAdapter.LOCATION_STATUS_OK), completions.statuses);
+    }
+
+    /*
+        Once we hold a forecast, asking for it again sends back the validators stored with it,
+        and a 304 in answer leaves the stored days as they were.
+     */
+    public void testNotModifiedLeavesStoredForecast() throws Exception {
+        final String location = "Cached" + mSuffix;
+        final List<RecordedRequest> requests =
+                Collections.synchronizedList(new ArrayList<RecordedRequest>());
+        final AtomicReference<MockResponse> response = new AtomicReference<MockResponse>(
+                new MockResponse()
+                        .setBody(ForecastResponses.forecast(103, "Cached", 14, 20))
+                        .setHeader("ETag", "\"v1\"")
+                        .setHeader("Last-Modified", "Wed, 21 Oct 2015 07:28:00 GMT"));
+        MockWebServer server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (request.getPath().contains(daily(location))) {
+                    requests.add(request);
+                    return response.get();
+                }
+                if (request.getPath().contains(daily(mHome))) {
+                    return new MockResponse()
+                            .setBody(ForecastResponses.forecast(100, "Home", 14, 20));
+                }
+                return new MockResponse().setResponseCode(404)
+                        .setBody(ForecastResponses.notFound());
+            }
+        });
+        server.start();
+        try {
+            SunshineSyncAdapter.setTransport(new ServerTransport(server));
+            Completions completions = new Completions();
+            SyncCoalescer coalescer = SyncCoalescer.getInstance();
+            coalescer.request(location, SyncScheduler.PRIORITY_FAVORITE, false, completions);
+            sync();
+
+            List<Double> highs = getHighs(location);
+            assertEquals(14, highs.size());
+            String[] validators = getValidators(location);
+            assertEquals("Error: ETag wasn't stored", "\"v1\"", validators[0]);
+            assertEquals("Error: Last-Modified wasn't stored",
+                    "Wed, 21 Oct 2015 07:28:00 GMT", validators[1]);
+
+            // Forced, so it isn't skipped for being fresh.
+            response.set(new MockResponse().setResponseCode(304));
+            coalescer.request(location, SyncScheduler.PRIORITY_FAVORITE, true, completions);
+            sync();
+
+            assertEquals(2, requests.size());
+            assertNull("Error: Nothing was stored, but the first fetch was conditional",
+                    requests.get(0).getHeader("If-None-Match"));
+            RecordedRequest conditional = requests.get(1);
+            assertEquals("Error: If-None-Match isn't the stored ETag",
+                    validators[0], conditional.getHeader("If-None-Match"));
+            assertEquals("Error: If-Modified-Since isn't the stored Last-Modified",
+                    validators[1], conditional.getHeader("If-Modified-Since"));
+
+            assertEquals(Arrays.asList(SunshineSyncAdapter.LOCATION_STATUS_OK,
+                    SunshineSyncAdapter.LOCATION_STATUS_OK), completions.statuses);
+            assertEquals("Error: 304 changed the stored forecast", highs, getHighs(location));
+            assertTrue("Error: 304 changed the stored validators",
+                    Arrays.equals(validators, getValidators(location)));
+        } finally {
+            server.shutdown();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class TestSyncCoalescer extends AndroidTestCase {
+
+    // Records the locations it's told about.
+    static class RecordingCallback implements SyncCoalescer.Callback {
+        final List<String> completed = new ArrayList<String>();
+
+        @Override
+        public void onSyncComplete(String locationSetting, int status) {
+            completed.add(locationSetting);
+        }
+    }
+
+    public void testRequestsShareOnePendingSync() {
+        SyncCoalescer coalescer = new SyncCoalescer(new SyncScheduler());
+        assertTrue("Error: First request didn't ask for a sync",
+                coalescer.request("a", SyncScheduler.PRIORITY_VISIBLE, false, null));
+        assertFalse("Error: Second request asked for another sync",
+                coalescer.request("a", SyncScheduler.PRIORITY_VISIBLE, false, null));
+        assertFalse("Error: Other location asked for another sync",
+                coalescer.request("b", SyncScheduler.PRIORITY_VISIBLE, false, null));
+    }
+
+    public void testEveryRequesterIsNotified() {
+        SyncCoalescer coalescer = new SyncCoalescer(new SyncScheduler());
+        RecordingCallback first = new RecordingCallback();
+        RecordingCallback second = new RecordingCallback();
+        coalescer.request("a", SyncScheduler.PRIORITY_VISIBLE, false, first);
+        coalescer.request("a", SyncScheduler.PRIORITY_VISIBLE, false, second);
+
+        coalescer.onSyncStarted();
+        SyncScheduler.Batch batch = coalescer.takeBatch(10);
+        assertEquals(Collections.singletonList("a"), batch.getLocations());
+        coalescer.finishLocation("a", SunshineSyncAdapter.LOCATION_STATUS_OK);
+        coalescer.finishBatch(batch, Collections.<String>emptyList());
+
+        assertEquals(Collections.singletonList("a"), first.completed);
+        assertEquals(Collections.singletonList("a"), second.completed);
+        assertNull(coalescer.takeBatch(10));
+        assertFalse(coalescer.onSyncFinished());
+    }
+
+    public void testRequestsMidSyncGetOneFollowUp() {
+        SyncCoalescer coalescer = new SyncCoalescer(new SyncScheduler());
+        RecordingCallback early = new RecordingCallback();
+        RecordingCallback late = new RecordingCallback();
+        coalescer.request("a", SyncScheduler.PRIORITY_VISIBLE, false, early);
+        coalescer.onSyncStarted();
+        SyncScheduler.Batch batch = coalescer.takeBatch(10);
+
+        // Both arrive while "a" is being fetched, so neither needs a sync of its own...
+        assertFalse(coalescer.request("a", SyncScheduler.PRIORITY_VISIBLE, false, late));
+        assertFalse(coalescer.request("a", SyncScheduler.PRIORITY_VISIBLE, false, null));
+
+        coalescer.finishLocation("a", SunshineSyncAdapter.LOCATION_STATUS_OK);
+        coalescer.finishBatch(batch, Collections.<String>emptyList());
+        assertEquals(1, early.completed.size());
+        assertEquals("Error: Late request was served by the fetch already running",
+                0, late.completed.size());
+
+        // ...and they share a single follow-up.
+        batch = coalescer.takeBatch(10);
+        assertEquals(Collections.singletonList("a"), batch.getLocations());
+        coalescer.finishLocation("a", SunshineSyncAdapter.LOCATION_STATUS_OK);
+        coalescer.finishBatch(batch, Collections.<String>emptyList());
+        assertEquals(1, early.completed.size());
+        assertEquals(1, late.completed.size());
+
+        assertNull(coalescer.takeBatch(10));
+        assertTrue("Error: Request after the sync ended didn't ask for a sync",
+                coalescer.request("a", SyncScheduler.PRIORITY_VISIBLE, false, null));
+    }
+
+    public void testCancelledSyncAsksAgain() {
+        SyncCoalescer coalescer = new SyncCoalescer(new SyncScheduler());
+        RecordingCallback callback = new RecordingCallback();
+        coalescer.request("a", SyncScheduler.PRIORITY_VISIBLE, false, callback);
+        coalescer.onSyncStarted();
+        SyncScheduler.Batch batch = coalescer.takeBatch(10);
+
+        // Cancelled before "a" was written.
+        coalescer.finishBatch(batch, Collections.singletonList("a"));
+        assertTrue("Error: Unserved request was dropped", coalescer.onSyncFinished());
+        assertEquals(0, callback.completed.size());
+
+        coalescer.onSyncStarted();
+        batch = coalescer.takeBatch(10);
+        assertEquals(Collections.singletonList("a"), batch.getLocations());
+        coalescer.finishLocation("a", SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN);
+        assertEquals(Collections.singletonList("a"), callback.completed);
+    }
+
+    public void testForceIsKeptUntilFetched() {
+        SyncCoalescer coalescer = new SyncCoalescer(new SyncScheduler());
+        coalescer.request("a", SyncScheduler.PRIORITY_VISIBLE, false, null);
+        coalescer.request("a", SyncScheduler.PRIORITY_VISIBLE, true, null);
+        coalescer.onSyncStarted();
+        SyncScheduler.Batch batch = coalescer.takeBatch(10);
+        assertTrue("Error: Force was lost when the requests were merged",
+                coalescer.isForced("a"));
+
+        // Preempted before it was fetched; the force goes back with it.
+        coalescer.finishBatch(batch, Collections.singletonList("a"));
+        batch = coalescer.takeBatch(10);
+        assertTrue("Error: Force was lost when the location was put back",
+                coalescer.isForced("a"));
+        coalescer.finishLocation("a", SunshineSyncAdapter.LOCATION_STATUS_OK);
+        coalescer.finishBatch(batch, Collections.<String>emptyList());
+        assertFalse(coalescer.isForced("a"));
+    }
+
+    public void testSyncActiveFromRequestToFinish() {
+        SyncCoalescer coalescer = new SyncCoalescer(new SyncScheduler());
+        assertFalse(coalescer.isSyncActive());
+        coalescer.request("a", SyncScheduler.PRIORITY_VISIBLE, false, null);
+        assertTrue("Error: Requested sync didn't count as active", coalescer.isSyncActive());
+
+        coalescer.onSyncStarted();
+        assertTrue("Error: Running sync didn't count as active", coalescer.isSyncActive());
+        SyncScheduler.Batch batch = coalescer.takeBatch(10);
+        coalescer.finishLocation("a", SunshineSyncAdapter.LOCATION_STATUS_OK);
+        coalescer.finishBatch(batch, Collections.<String>emptyList());
+        assertNull(coalescer.takeBatch(10));
+        coalescer.onSyncFinished();
+        assertFalse("Error: Finished sync still counted as active", coalescer.isSyncActive());
+    }
+}
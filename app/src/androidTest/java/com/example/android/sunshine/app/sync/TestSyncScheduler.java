@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class TestSyncScheduler extends AndroidTestCase {
+
+    public void testPriorityOrder() {
+        SyncScheduler scheduler = new SyncScheduler();
+        scheduler.enqueue("prefetch", SyncScheduler.PRIORITY_PREFETCH);
+        scheduler.enqueue("favorite", SyncScheduler.PRIORITY_FAVORITE);
+        scheduler.enqueue("visible", SyncScheduler.PRIORITY_VISIBLE);
+
+        SyncScheduler.Batch batch = scheduler.takeBatch(10);
+        assertEquals(Collections.singletonList("visible"), batch.getLocations());
+        scheduler.finishBatch(batch, Collections.<String>emptyList());
+
+        batch = scheduler.takeBatch(10);
+        assertEquals(Collections.singletonList("favorite"), batch.getLocations());
+        scheduler.finishBatch(batch, Collections.<String>emptyList());
+
+        batch = scheduler.takeBatch(10);
+        assertEquals(Collections.singletonList("prefetch"), batch.getLocations());
+        scheduler.finishBatch(batch, Collections.<String>emptyList());
+
+        assertNull("Error: Queue should be empty", scheduler.takeBatch(10));
+    }
+
+    public void testEnqueueKeepsBetterPriority() {
+        SyncScheduler scheduler = new SyncScheduler();
+        scheduler.enqueue("a", SyncScheduler.PRIORITY_FAVORITE);
+        scheduler.enqueue("b", SyncScheduler.PRIORITY_FAVORITE);
+        scheduler.enqueue("b", SyncScheduler.PRIORITY_VISIBLE);
+        scheduler.enqueue("b", SyncScheduler.PRIORITY_PREFETCH);
+
+        assertEquals(Collections.singletonList("b"), scheduler.takeBatch(10).getLocations());
+    }
+
+    public void testPreemptionRequeuesUnfinished() {
+        SyncScheduler scheduler = new SyncScheduler();
+        scheduler.enqueue("a", SyncScheduler.PRIORITY_FAVORITE);
+        scheduler.enqueue("b", SyncScheduler.PRIORITY_FAVORITE);
+
+        SyncScheduler.Batch batch = scheduler.takeBatch(10);
+        assertEquals(Arrays.asList("a", "b"), batch.getLocations());
+        assertFalse(batch.isPreempted());
+
+        // Work of the same priority waits its turn...
+        scheduler.enqueue("c", SyncScheduler.PRIORITY_FAVORITE);
+        assertFalse("Error: Equal priority work shouldn't preempt", batch.isPreempted());
+
+        // ...but the visible location doesn't.
+        scheduler.enqueue("visible", SyncScheduler.PRIORITY_VISIBLE);
+        assertTrue("Error: Visible location didn't preempt the batch", batch.isPreempted());
+
+        // "a" finished before the preemption, "b" didn't.
+        scheduler.finishBatch(batch, Collections.singletonList("b"));
+
+        assertEquals(Collections.singletonList("visible"), scheduler.takeBatch(10).getLocations());
+        // "b" kept its original place in line, ahead of "c".
+        assertEquals(Arrays.asList("b", "c"), scheduler.takeBatch(10).getLocations());
+    }
+
+    public void testNewVisibleLocationSupersedes() {
+        SyncScheduler scheduler = new SyncScheduler();
+        scheduler.enqueue("old", SyncScheduler.PRIORITY_VISIBLE);
+        SyncScheduler.Batch batch = scheduler.takeBatch(10);
+
+        scheduler.enqueue("old", SyncScheduler.PRIORITY_VISIBLE);
+        assertFalse("Error: Location preempted its own batch", batch.isPreempted());
+
+        scheduler.enqueue("new", SyncScheduler.PRIORITY_VISIBLE);
+        assertTrue("Error: New visible location didn't supersede the old one",
+                batch.isPreempted());
+    }
+}
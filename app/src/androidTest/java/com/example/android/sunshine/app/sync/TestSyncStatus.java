@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+
+public class TestSyncStatus extends AndroidTestCase {
+
+    private static final long START = 1000000000000L;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .remove(mContext.getString(R.string.pref_location_status_key))
+                .remove(mContext.getString(R.string.pref_last_sync_success_key))
+                .remove(mContext.getString(R.string.pref_sync_error_key))
+                .commit();
+    }
+
+    public void testStatusIsInMemoryAtOnce() {
+        SyncStatus status = new SyncStatus(mContext);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN, status.getLocationStatus());
+        assertEquals(0, status.getLastSuccessAt());
+
+        status.setLocationStatus(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+                "Server returned 503", START);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+                status.getLocationStatus());
+        assertEquals("Server returned 503", status.getError());
+        assertEquals("Error: Failure counted as a success", 0, status.getLastSuccessAt());
+
+        status.setLocationStatus(SunshineSyncAdapter.LOCATION_STATUS_OK, null, START + 1000);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, status.getLocationStatus());
+        assertNull("Error: Error outlived a success", status.getError());
+        assertEquals(START + 1000, status.getLastSuccessAt());
+
+        status.reset();
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN, status.getLocationStatus());
+        assertEquals(START + 1000, status.getLastSuccessAt());
+    }
+
+    public void testWritesAreCoalesced() {
+        SyncStatus status = new SyncStatus(mContext);
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String statusKey = mContext.getString(R.string.pref_location_status_key);
+
+        status.setLocationStatus(SunshineSyncAdapter.LOCATION_STATUS_OK, null, START);
+        status.setLocationStatus(SunshineSyncAdapter.LOCATION_STATUS_INVALID,
+                "Location not found", START + 1000);
+        assertFalse("Error: Status written before the delay", prefs.contains(statusKey));
+
+        status.flush();
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID, prefs.getInt(statusKey, -1));
+
+        SyncStatus reloaded = new SyncStatus(mContext);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID, reloaded.getLocationStatus());
+        assertEquals(START, reloaded.getLastSuccessAt());
+        assertEquals("Location not found", reloaded.getError());
+    }
+}
@@ -68,6 +68,13 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
             WeatherEntry.COLUMN_WIND_SPEED,
             WeatherEntry.COLUMN_DEGREES,
             WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_CONDITION,
+            WeatherEntry.COLUMN_MAX_TEMP_IMPERIAL,
+            WeatherEntry.COLUMN_MIN_TEMP_IMPERIAL,
+            WeatherEntry.COLUMN_WIND_SPEED_METRIC,
+            WeatherEntry.COLUMN_WIND_SPEED_IMPERIAL,
+            WeatherEntry.COLUMN_COMPASS,
+            WeatherEntry.COLUMN_BEAUFORT,
             // This works because the WeatherProvider returns location data joined with
             // weather data, even though they're stored in two different tables.
             WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING
@@ -85,6 +92,13 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
     public static final int COL_WEATHER_WIND_SPEED = 7;
     public static final int COL_WEATHER_DEGREES = 8;
     public static final int COL_WEATHER_CONDITION_ID = 9;
+    public static final int COL_WEATHER_CONDITION = 10;
+    public static final int COL_WEATHER_MAX_TEMP_IMPERIAL = 11;
+    public static final int COL_WEATHER_MIN_TEMP_IMPERIAL = 12;
+    public static final int COL_WEATHER_WIND_SPEED_METRIC = 13;
+    public static final int COL_WEATHER_WIND_SPEED_IMPERIAL = 14;
+    public static final int COL_WEATHER_COMPASS = 15;
+    public static final int COL_WEATHER_BEAUFORT = 16;
 
     private ImageView mIconView;
     private TextView mDateView;
@@ -198,14 +212,15 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
 
             // Read weather condition ID from cursor
             int weatherId = data.getInt(COL_WEATHER_CONDITION_ID);
+            String condition = data.getString(COL_WEATHER_CONDITION);
 
             if ( Utility.usingLocalGraphics(getActivity()) ) {
-                mIconView.setImageResource(Utility.getArtResourceForWeatherCondition(weatherId));
+                mIconView.setImageResource(Utility.getArtResourceForCondition(condition));
             } else {
                 // Use weather art image
                 Glide.with(this)
-                        .load(Utility.getArtUrlForWeatherCondition(getActivity(), weatherId))
-                        .error(Utility.getArtResourceForWeatherCondition(weatherId))
+                        .load(Utility.getArtUrlForCondition(getActivity(), condition))
+                        .error(Utility.getArtResourceForCondition(condition))
                         .crossFade()
                         .into(mIconView);
             }
@@ -230,13 +245,15 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
             boolean isMetric = Utility.isMetric(getActivity());
 
             double high = data.getDouble(COL_WEATHER_MAX_TEMP);
-            String highString = Utility.formatTemperature(getActivity(), high);
+            String highString = Utility.formatTemperature(getActivity(), high,
+                    data.getDouble(COL_WEATHER_MAX_TEMP_IMPERIAL));
             mHighTempView.setText(highString);
             mHighTempView.setContentDescription(getString(R.string.a11y_high_temp, highString));
 
             // Read low temperature from cursor and update view
             double low = data.getDouble(COL_WEATHER_MIN_TEMP);
-            String lowString = Utility.formatTemperature(getActivity(), low);
+            String lowString = Utility.formatTemperature(getActivity(), low,
+                    data.getDouble(COL_WEATHER_MIN_TEMP_IMPERIAL));
             mLowTempView.setText(lowString);
             mLowTempView.setContentDescription(getString(R.string.a11y_low_temp, lowString));
 
@@ -247,9 +264,13 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
             mHumidityLabelView.setContentDescription(mHumidityView.getContentDescription());
 
             // Read wind speed and direction from cursor and update view
-            float windSpeedStr = data.getFloat(COL_WEATHER_WIND_SPEED);
-            float windDirStr = data.getFloat(COL_WEATHER_DEGREES);
-            mWindView.setText(Utility.getFormattedWind(getActivity(), windSpeedStr, windDirStr));
+            float windSpeedMetric = data.getFloat(COL_WEATHER_WIND_SPEED_METRIC);
+            float windSpeedImperial = data.getFloat(COL_WEATHER_WIND_SPEED_IMPERIAL);
+            String compass = data.getString(COL_WEATHER_COMPASS);
+            mWindView.setText(getString(R.string.format_wind_force,
+                    Utility.getFormattedWind(getActivity(), windSpeedMetric, windSpeedImperial,
+                            compass),
+                    data.getInt(COL_WEATHER_BEAUFORT)));
             mWindView.setContentDescription(getString(R.string.a11y_wind, mWindView.getText()));
             mWindLabelView.setContentDescription(mWindView.getContentDescription());
 
@@ -20,6 +20,7 @@ import android.app.Dialog;
 import android.content.Context;
 import android.content.res.TypedArray;
 import android.os.Bundle;
+import android.os.Handler;
 import android.preference.EditTextPreference;
 import android.text.Editable;
 import android.text.TextWatcher;
@@ -27,10 +28,25 @@ import android.util.AttributeSet;
 import android.widget.Button;
 import android.widget.EditText;
 
+import com.example.android.sunshine.app.sync.InvalidLocationCache;
+import com.example.android.sunshine.app.sync.SpeculativePrefetch;
+
 public class LocationEditTextPreference extends EditTextPreference {
     static final private int DEFAULT_MINIMUM_LOCATION_LENGTH = 2;
+    // How long the text has to sit unchanged before we fetch the weather for it.
+    static final private long PREFETCH_DELAY_MILLIS = 750;
     private int mMinLength;
 
+    private final Handler mHandler = new Handler();
+    // Starts fetching whatever has been typed, so the forecast is ready if it's kept.
+    private final Runnable mPrefetch = new Runnable() {
+        @Override
+        public void run() {
+            SpeculativePrefetch.getInstance().prefetch(getContext(),
+                    getEditText().getText().toString());
+        }
+    };
+
     public LocationEditTextPreference(Context context, AttributeSet attrs) {
         super(context, attrs);
         TypedArray a = context.getTheme().obtainStyledAttributes(
@@ -49,7 +65,7 @@ public class LocationEditTextPreference extends EditTextPreference {
     protected void showDialog(Bundle state) {
         super.showDialog(state);
 
-        EditText et = getEditText();
+        final EditText et = getEditText();
         et.addTextChangedListener(new TextWatcher() {
 
 
@@ -65,6 +81,7 @@ public class LocationEditTextPreference extends EditTextPreference {
 
             @Override
             public void afterTextChanged(Editable s) {
+                mHandler.removeCallbacks(mPrefetch);
                 Dialog d = getDialog();
                 if (d instanceof AlertDialog) {
                     AlertDialog dialog = (AlertDialog) d;
@@ -73,12 +90,29 @@ public class LocationEditTextPreference extends EditTextPreference {
                     if (s.length() < mMinLength) {
                         // Disable OK button
                         positiveButton.setEnabled(false);
+                    } else if (InvalidLocationCache.get(getContext()).contains(s.toString())) {
+                        // We've asked about this one lately, and the server didn't know it.
+                        et.setError(getContext().getString(R.string.pref_location_known_invalid));
+                        positiveButton.setEnabled(false);
                     } else {
                         // Re-enable the button.
                         positiveButton.setEnabled(true);
+                        mHandler.postDelayed(mPrefetch, PREFETCH_DELAY_MILLIS);
                     }
                 }
             }
         });
     }
+
+    @Override
+    protected void onDialogClosed(boolean positiveResult) {
+        mHandler.removeCallbacks(mPrefetch);
+        if (positiveResult) {
+            // The sync this sets off will pick up the prefetch, if it was for this.
+            SpeculativePrefetch.getInstance().keepOnly(getEditText().getText().toString());
+        } else {
+            SpeculativePrefetch.getInstance().cancel();
+        }
+        super.onDialogClosed(positiveResult);
+    }
 }
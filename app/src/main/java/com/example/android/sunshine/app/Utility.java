@@ -22,7 +22,9 @@ import android.net.NetworkInfo;
 import android.preference.PreferenceManager;
 import android.text.format.Time;
 
+import com.example.android.sunshine.app.data.DerivedWeather;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.SyncStatus;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -43,16 +45,13 @@ public class Utility {
                 .equals(context.getString(R.string.pref_units_metric));
     }
 
-    public static String formatTemperature(Context context, double temperature) {
-        // Data stored in Celsius by default.  If user prefers to see in Fahrenheit, convert
-        // the values here.
-        String suffix = "\u00B0";
-        if (!isMetric(context)) {
-            temperature = (temperature * 1.8) + 32;
-        }
-
-        // For presentation, assume the user doesn't care about tenths of a degree.
-        return String.format(context.getString(R.string.format_temperature), temperature);
+    /**
+     * Formats a temperature we hold in both units, so there's nothing to convert.  For
+     * presentation, assume the user doesn't care about tenths of a degree.
+     */
+    public static String formatTemperature(Context context, double metric, double imperial) {
+        return String.format(context.getString(R.string.format_temperature),
+                isMetric(context) ? metric : imperial);
     }
 
     static String formatDate(long dateInMilliseconds) {
@@ -167,37 +166,20 @@ public class Utility {
         return monthDayString;
     }
 
-    public static String getFormattedWind(Context context, float windSpeed, float degrees) {
-        int windFormat;
+    /**
+     * @param windSpeedMetric in kilometres per hour
+     * @param windSpeedImperial in miles per hour
+     * @param compass the compass point the wind comes from, e.g "NW"
+     */
+    public static String getFormattedWind(Context context, float windSpeedMetric,
+                                          float windSpeedImperial, String compass) {
         if (Utility.isMetric(context)) {
-            windFormat = R.string.format_wind_kmh;
+            return String.format(context.getString(R.string.format_wind_kmh), windSpeedMetric,
+                    compass);
         } else {
-            windFormat = R.string.format_wind_mph;
-            windSpeed = .621371192237334f * windSpeed;
-        }
-
-        // From wind direction in degrees, determine compass direction as a string (e.g NW)
-        // You know what's fun, writing really long if/else statements with tons of possible
-        // conditions.  Seriously, try it!
-        String direction = "Unknown";
-        if (degrees >= 337.5 || degrees < 22.5) {
-            direction = "N";
-        } else if (degrees >= 22.5 && degrees < 67.5) {
-            direction = "NE";
-        } else if (degrees >= 67.5 && degrees < 112.5) {
-            direction = "E";
-        } else if (degrees >= 112.5 && degrees < 157.5) {
-            direction = "SE";
-        } else if (degrees >= 157.5 && degrees < 202.5) {
-            direction = "S";
-        } else if (degrees >= 202.5 && degrees < 247.5) {
-            direction = "SW";
-        } else if (degrees >= 247.5 && degrees < 292.5) {
-            direction = "W";
-        } else if (degrees >= 292.5 && degrees < 337.5) {
-            direction = "NW";
+            return String.format(context.getString(R.string.format_wind_mph), windSpeedImperial,
+                    compass);
         }
-        return String.format(context.getString(windFormat), windSpeed, direction);
     }
 
     /**
@@ -207,32 +189,38 @@ public class Utility {
      * @return resource id for the corresponding icon. -1 if no relation is found.
      */
     public static int getIconResourceForWeatherCondition(int weatherId) {
-        // Based on weather code data found at:
-        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-        if (weatherId >= 200 && weatherId <= 232) {
-            return R.drawable.ic_storm;
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            return R.drawable.ic_light_rain;
-        } else if (weatherId >= 500 && weatherId <= 504) {
-            return R.drawable.ic_rain;
-        } else if (weatherId == 511) {
-            return R.drawable.ic_snow;
-        } else if (weatherId >= 520 && weatherId <= 531) {
-            return R.drawable.ic_rain;
-        } else if (weatherId >= 600 && weatherId <= 622) {
-            return R.drawable.ic_snow;
-        } else if (weatherId >= 701 && weatherId <= 761) {
-            return R.drawable.ic_fog;
-        } else if (weatherId == 761 || weatherId == 781) {
-            return R.drawable.ic_storm;
-        } else if (weatherId == 800) {
-            return R.drawable.ic_clear;
-        } else if (weatherId == 801) {
-            return R.drawable.ic_light_clouds;
-        } else if (weatherId >= 802 && weatherId <= 804) {
-            return R.drawable.ic_cloudy;
+        return getIconResourceForCondition(DerivedWeather.getCondition(weatherId));
+    }
+
+    /**
+     * Helper method to provide the icon resource id for a condition, as stored with the weather.
+     * @param condition one of the DerivedWeather.CONDITION_ constants, or null
+     * @return resource id for the corresponding icon. -1 if no relation is found.
+     */
+    public static int getIconResourceForCondition(String condition) {
+        if (condition == null) {
+            return -1;
+        }
+        switch (condition) {
+            case DerivedWeather.CONDITION_STORM:
+                return R.drawable.ic_storm;
+            case DerivedWeather.CONDITION_LIGHT_RAIN:
+                return R.drawable.ic_light_rain;
+            case DerivedWeather.CONDITION_RAIN:
+                return R.drawable.ic_rain;
+            case DerivedWeather.CONDITION_SNOW:
+                return R.drawable.ic_snow;
+            case DerivedWeather.CONDITION_FOG:
+                return R.drawable.ic_fog;
+            case DerivedWeather.CONDITION_CLEAR:
+                return R.drawable.ic_clear;
+            case DerivedWeather.CONDITION_LIGHT_CLOUDS:
+                return R.drawable.ic_light_clouds;
+            case DerivedWeather.CONDITION_CLOUDS:
+                return R.drawable.ic_cloudy;
+            default:
+                return -1;
         }
-        return -1;
     }
 
     /**
@@ -257,36 +245,25 @@ public class Utility {
      * @return url for the corresponding weather artwork. null if no relation is found.
      */
     public static String getArtUrlForWeatherCondition(Context context, int weatherId) {
+        return getArtUrlForCondition(context, DerivedWeather.getCondition(weatherId));
+    }
+
+    /**
+     * Helper method to provide the art url for a condition, as stored with the weather.
+     *
+     * @param context Context to use for retrieving the URL format
+     * @param condition one of the DerivedWeather.CONDITION_ constants, or null
+     * @return url for the corresponding weather artwork. null if no relation is found.
+     */
+    public static String getArtUrlForCondition(Context context, String condition) {
+        if (condition == null) {
+            return null;
+        }
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         String formatArtUrl = prefs.getString(context.getString(R.string.pref_art_pack_key),
                 context.getString(R.string.pref_art_pack_sunshine));
-
-        // Based on weather code data found at:
-        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-        if (weatherId >= 200 && weatherId <= 232) {
-            return String.format(Locale.US, formatArtUrl, "storm");
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            return String.format(Locale.US, formatArtUrl, "light_rain");
-        } else if (weatherId >= 500 && weatherId <= 504) {
-            return String.format(Locale.US, formatArtUrl, "rain");
-        } else if (weatherId == 511) {
-            return String.format(Locale.US, formatArtUrl, "snow");
-        } else if (weatherId >= 520 && weatherId <= 531) {
-            return String.format(Locale.US, formatArtUrl, "rain");
-        } else if (weatherId >= 600 && weatherId <= 622) {
-            return String.format(Locale.US, formatArtUrl, "snow");
-        } else if (weatherId >= 701 && weatherId <= 761) {
-            return String.format(Locale.US, formatArtUrl, "fog");
-        } else if (weatherId == 761 || weatherId == 781) {
-            return String.format(Locale.US, formatArtUrl, "storm");
-        } else if (weatherId == 800) {
-            return String.format(Locale.US, formatArtUrl, "clear");
-        } else if (weatherId == 801) {
-            return String.format(Locale.US, formatArtUrl, "light_clouds");
-        } else if (weatherId >= 802 && weatherId <= 804) {
-            return String.format(Locale.US, formatArtUrl, "clouds");
-        }
-        return null;
+        // The conditions are named as the art packs name their pictures.
+        return String.format(Locale.US, formatArtUrl, condition);
     }
 
     /**
@@ -296,32 +273,38 @@ public class Utility {
      * @return resource id for the corresponding icon. -1 if no relation is found.
      */
     public static int getArtResourceForWeatherCondition(int weatherId) {
-        // Based on weather code data found at:
-        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-        if (weatherId >= 200 && weatherId <= 232) {
-            return R.drawable.art_storm;
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            return R.drawable.art_light_rain;
-        } else if (weatherId >= 500 && weatherId <= 504) {
-            return R.drawable.art_rain;
-        } else if (weatherId == 511) {
-            return R.drawable.art_snow;
-        } else if (weatherId >= 520 && weatherId <= 531) {
-            return R.drawable.art_rain;
-        } else if (weatherId >= 600 && weatherId <= 622) {
-            return R.drawable.art_snow;
-        } else if (weatherId >= 701 && weatherId <= 761) {
-            return R.drawable.art_fog;
-        } else if (weatherId == 761 || weatherId == 781) {
-            return R.drawable.art_storm;
-        } else if (weatherId == 800) {
-            return R.drawable.art_clear;
-        } else if (weatherId == 801) {
-            return R.drawable.art_light_clouds;
-        } else if (weatherId >= 802 && weatherId <= 804) {
-            return R.drawable.art_clouds;
+        return getArtResourceForCondition(DerivedWeather.getCondition(weatherId));
+    }
+
+    /**
+     * Helper method to provide the art resource id for a condition, as stored with the weather.
+     * @param condition one of the DerivedWeather.CONDITION_ constants, or null
+     * @return resource id for the corresponding art. -1 if no relation is found.
+     */
+    public static int getArtResourceForCondition(String condition) {
+        if (condition == null) {
+            return -1;
+        }
+        switch (condition) {
+            case DerivedWeather.CONDITION_STORM:
+                return R.drawable.art_storm;
+            case DerivedWeather.CONDITION_LIGHT_RAIN:
+                return R.drawable.art_light_rain;
+            case DerivedWeather.CONDITION_RAIN:
+                return R.drawable.art_rain;
+            case DerivedWeather.CONDITION_SNOW:
+                return R.drawable.art_snow;
+            case DerivedWeather.CONDITION_FOG:
+                return R.drawable.art_fog;
+            case DerivedWeather.CONDITION_CLEAR:
+                return R.drawable.art_clear;
+            case DerivedWeather.CONDITION_LIGHT_CLOUDS:
+                return R.drawable.art_light_clouds;
+            case DerivedWeather.CONDITION_CLOUDS:
+                return R.drawable.art_clouds;
+            default:
+                return -1;
         }
-        return -1;
     }
 
     /**
@@ -555,24 +538,19 @@ public class Utility {
 
     /**
      *
-     * @param c Context used to get the SharedPreferences
+     * @param c Context used to get the SyncStatus
      * @return the location status integer type
      */
-    @SuppressWarnings("ResourceType")
     static public @SunshineSyncAdapter.LocationStatus
     int getLocationStatus(Context c){
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
-        return sp.getInt(c.getString(R.string.pref_location_status_key), SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+        return SyncStatus.get(c).getLocationStatus();
     }
 
     /**
      * Resets the location status.  (Sets it to SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN)
-     * @param c Context used to get the SharedPreferences
+     * @param c Context used to get the SyncStatus
      */
     static public void resetLocationStatus(Context c){
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
-        SharedPreferences.Editor spe = sp.edit();
-        spe.putInt(c.getString(R.string.pref_location_status_key), SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
-        spe.apply();
+        SyncStatus.get(c).reset();
     }
 }
\ No newline at end of file
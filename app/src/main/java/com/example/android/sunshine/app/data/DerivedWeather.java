@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * Works out the weather table's derived columns from the ones the server sends: the wind's
+ * compass point and Beaufort force, the condition that picks the icon and art, and the
+ * temperatures and wind speed in both sets of units.  The sync fills them in as it parses,
+ * so the list, the details, the widgets and the notification just read them off the row.
+ */
+public class DerivedWeather {
+
+    // The conditions there's an icon and a piece of art for, named as the art packs name them.
+    public static final String CONDITION_STORM = "storm";
+    public static final String CONDITION_LIGHT_RAIN = "light_rain";
+    public static final String CONDITION_RAIN = "rain";
+    public static final String CONDITION_SNOW = "snow";
+    public static final String CONDITION_FOG = "fog";
+    public static final String CONDITION_CLEAR = "clear";
+    public static final String CONDITION_LIGHT_CLOUDS = "light_clouds";
+    public static final String CONDITION_CLOUDS = "clouds";
+
+    private static final String[] COMPASS_POINTS = {
+            "N", "NE", "E", "SE", "S", "SW", "W", "NW"
+    };
+
+    // The lowest wind speed, in metres per second, of each Beaufort force from 1 up.
+    private static final double[] BEAUFORT_LIMITS = {
+            0.5, 1.6, 3.4, 5.5, 8.0, 10.8, 13.9, 17.2, 20.8, 24.5, 28.5, 32.7
+    };
+
+    private static final double KMH_PER_METRE_PER_SECOND = 3.6;
+    private static final double MPH_PER_METRE_PER_SECOND = 2.2369363;
+
+    /**
+     * Adds the derived columns for whichever of their source columns the values hold, so a
+     * partial row (say just the current conditions) gets just the ones that go with it.
+     *
+     * @param values weather columns as parsed, with temperatures in Celsius and the wind
+     *               speed in metres per second.
+     */
+    public static void putDerivedValues(ContentValues values) {
+        Integer weatherId = values.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID);
+        if (weatherId != null) {
+            values.put(WeatherEntry.COLUMN_CONDITION, getCondition(weatherId));
+        }
+        Double degrees = values.getAsDouble(WeatherEntry.COLUMN_DEGREES);
+        if (degrees != null) {
+            values.put(WeatherEntry.COLUMN_COMPASS, getCompassPoint(degrees));
+        }
+        Double windSpeed = values.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED);
+        if (windSpeed != null) {
+            values.put(WeatherEntry.COLUMN_BEAUFORT, getBeaufort(windSpeed));
+            values.put(WeatherEntry.COLUMN_WIND_SPEED_METRIC,
+                    windSpeed * KMH_PER_METRE_PER_SECOND);
+            values.put(WeatherEntry.COLUMN_WIND_SPEED_IMPERIAL,
+                    windSpeed * MPH_PER_METRE_PER_SECOND);
+        }
+        Double max = values.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP);
+        if (max != null) {
+            values.put(WeatherEntry.COLUMN_MAX_TEMP_IMPERIAL, toFahrenheit(max));
+        }
+        Double min = values.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP);
+        if (min != null) {
+            values.put(WeatherEntry.COLUMN_MIN_TEMP_IMPERIAL, toFahrenheit(min));
+        }
+    }
+
+    /**
+     * @param weatherId from OpenWeatherMap API response
+     * @return the condition for the weather ID, one of the CONDITION_ constants, or null if
+     * there's no art for it.
+     */
+    public static String getCondition(int weatherId) {
+        // Based on weather code data found at:
+        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+        if (weatherId >= 200 && weatherId <= 232) {
+            return CONDITION_STORM;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return CONDITION_LIGHT_RAIN;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return CONDITION_RAIN;
+        } else if (weatherId == 511) {
+            return CONDITION_SNOW;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return CONDITION_RAIN;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return CONDITION_SNOW;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return CONDITION_FOG;
+        } else if (weatherId == 781) {
+            return CONDITION_STORM;
+        } else if (weatherId == 800) {
+            return CONDITION_CLEAR;
+        } else if (weatherId == 801) {
+            return CONDITION_LIGHT_CLOUDS;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return CONDITION_CLOUDS;
+        }
+        return null;
+    }
+
+    /**
+     * @param degrees meteorological degrees, 0 being north
+     * @return the nearest of the eight compass points, e.g "NW".
+     */
+    public static String getCompassPoint(double degrees) {
+        double normalized = ((degrees % 360) + 360) % 360;
+        return COMPASS_POINTS[(int) ((normalized + 22.5) / 45) % COMPASS_POINTS.length];
+    }
+
+    /**
+     * @param windSpeed in metres per second
+     * @return the wind's force on the Beaufort scale.
+     */
+    public static int getBeaufort(double windSpeed) {
+        int force = 0;
+        while (force < BEAUFORT_LIMITS.length && windSpeed >= BEAUFORT_LIMITS[force]) {
+            force++;
+        }
+        return force;
+    }
+
+    public static double toFahrenheit(double celsius) {
+        return (celsius * 1.8) + 32;
+    }
+}
@@ -43,6 +43,10 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_LOCATION_ALIAS = "location_alias";
+    public static final String PATH_METRICS = "metrics";
+    public static final String PATH_INTERVAL = "interval";
+    public static final String PATH_HISTORY = "history";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
@@ -81,11 +85,71 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // OpenWeatherMap's numeric ID for the city, which lets us ask for many cities in one
+        // request.  Null until a forecast response has told us what it is.
+        public static final String COLUMN_CITY_ID = "city_id";
+
+        // Cache validators from the last forecast response for this location, sent back to
+        // openweathermap as If-None-Match / If-Modified-Since.  Either may be null.
+        public static final String COLUMN_ETAG = "etag";
+        public static final String COLUMN_LAST_MODIFIED = "last_modified";
+
+        // How the last sync of this location went, as one of the sync adapter's
+        // LocationStatus values.  Null until the location has been through a sync.
+        public static final String COLUMN_SYNC_STATUS = "sync_status";
+
+        // When the server last answered for this location with a forecast, or to say the one
+        // we have is current, in milliseconds since the epoch.  Null until then.
+        public static final String COLUMN_FETCHED_AT = "fetched_at";
+
+        // When the server last answered for this location with its full daily forecast, or
+        // to say the one we have is current, in milliseconds since the epoch.  Unlike
+        // COLUMN_FETCHED_AT, this isn't moved on by a refresh of only the current conditions.
+        // Null until then.
+        public static final String COLUMN_FORECAST_FETCHED_AT = "forecast_fetched_at";
+
+        // When we last fetched the 3-hour forecast for this location, in milliseconds since the
+        // epoch.  Null until then.
+        public static final String COLUMN_INTERVALS_FETCHED_AT = "intervals_fetched_at";
+
+        // The earliest (normalized) date the history backfill has got back to for this
+        // location.  Every day from there on up to where it started has been fetched, though
+        // a day the archive had nothing for is left out.  Null until the backfill first gets
+        // to it.
+        public static final String COLUMN_HISTORY_START = "history_start";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
     }
 
+    /*
+        Inner class that defines the table contents of the location alias table.  "London",
+        "london" and "London,UK" are all the same city to openweathermap, so only the first one
+        we fetch gets a row in the location table; the others are aliases for that row.  The
+        weather URIs accept an alias anywhere they accept a location setting.
+     */
+    public static final class LocationAliasEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_LOCATION_ALIAS).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_LOCATION_ALIAS;
+
+        public static final String TABLE_NAME = "location_alias";
+
+        // A location setting, as typed, that turned out to be a location we already had.
+        public static final String COLUMN_ALIAS = "alias";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+
+        public static Uri buildLocationAliasUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id);
+        }
+    }
+
     /* Inner class that defines the table contents of the weather table */
     public static final class WeatherEntry implements BaseColumns {
 
@@ -126,6 +190,27 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // The rest are worked out from the columns above as the weather is parsed, once,
+        // rather than every time a row is shown.  See DerivedWeather.
+
+        // The compass point the wind comes from, one of the eight, e.g "NW".
+        public static final String COLUMN_COMPASS = "compass";
+
+        // Which of the art and icon sets goes with the weather ID, e.g "light_rain", or null if
+        // none does.
+        public static final String COLUMN_CONDITION = "condition";
+
+        // The wind's force on the Beaufort scale, 0 to 12.
+        public static final String COLUMN_BEAUFORT = "beaufort";
+
+        // Min and max temperatures for the day in Fahrenheit.
+        public static final String COLUMN_MIN_TEMP_IMPERIAL = "min_imperial";
+        public static final String COLUMN_MAX_TEMP_IMPERIAL = "max_imperial";
+
+        // Windspeed in kilometres and in miles per hour.
+        public static final String COLUMN_WIND_SPEED_METRIC = "wind_metric";
+        public static final String COLUMN_WIND_SPEED_IMPERIAL = "wind_imperial";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -165,4 +250,230 @@ public class WeatherContract {
                 return 0;
         }
     }
+
+    /*
+        Inner class that defines the table contents of the interval table, which holds the
+        5-day forecast in 3-hour steps.  Unlike the weather table's, its dates aren't normalized;
+        each row is dated the start of its interval, in UTC.
+     */
+    public static final class IntervalEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_INTERVAL).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_INTERVAL;
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_INTERVAL;
+
+        public static final String TABLE_NAME = "interval_forecast";
+
+        // How long each row's forecast covers.
+        public static final long INTERVAL_MILLIS = 3 * 60 * 60 * 1000;
+
+        // Query parameters bounding the dates a location's intervals are returned for.
+        public static final String PARAM_START = "start";
+        public static final String PARAM_END = "end";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Start of the interval, stored as long in milliseconds since the epoch
+        public static final String COLUMN_DATE = "date";
+
+        // The rest are as in the weather table, and go by the same names, except that there's
+        // one temperature for the interval rather than a high and a low.
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        public static final String COLUMN_SHORT_DESC = "short_desc";
+        public static final String COLUMN_TEMP = "temp";
+        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_PRESSURE = "pressure";
+        public static final String COLUMN_WIND_SPEED = "wind";
+        public static final String COLUMN_DEGREES = "degrees";
+
+        public static Uri buildIntervalUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id);
+        }
+
+        public static Uri buildIntervalLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        /**
+         * The location's intervals starting from startDate up to, but not including, endDate.
+         */
+        public static Uri buildIntervalLocationWithRange(String locationSetting, long startDate,
+                                                         long endDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_START, Long.toString(startDate))
+                    .appendQueryParameter(PARAM_END, Long.toString(endDate)).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getStartDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_START);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return 0;
+        }
+
+        public static long getEndDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_END);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return Long.MAX_VALUE;
+        }
+    }
+
+    /*
+        Inner class that defines the table contents of the history table: the weather each
+        location actually had on days gone by, for trend views.  Its columns go by the weather
+        table's names and mean the same things, with the dates normalized in the same way.
+     */
+    public static final class HistoryEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HISTORY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HISTORY;
+
+        public static final String TABLE_NAME = "history";
+
+        // Query parameters bounding the dates a location's history is returned for.
+        public static final String PARAM_START = "start";
+        public static final String PARAM_END = "end";
+
+        public static final String COLUMN_LOC_KEY = "location_id";
+        public static final String COLUMN_DATE = "date";
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        public static final String COLUMN_SHORT_DESC = "short_desc";
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_PRESSURE = "pressure";
+        public static final String COLUMN_WIND_SPEED = "wind";
+        public static final String COLUMN_DEGREES = "degrees";
+
+        public static Uri buildHistoryLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        /**
+         * The location's history from startDate up to, but not including, endDate.
+         */
+        public static Uri buildHistoryLocationWithRange(String locationSetting, long startDate,
+                                                        long endDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_START, Long.toString(normalizeDate(startDate)))
+                    .appendQueryParameter(PARAM_END, Long.toString(normalizeDate(endDate)))
+                    .build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getStartDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_START);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return 0;
+        }
+
+        public static long getEndDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_END);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return Long.MAX_VALUE;
+        }
+    }
+
+    /* Inner class that defines the table contents of the sync metrics table */
+    public static final class MetricsEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_METRICS).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_METRICS;
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_METRICS;
+
+        public static final String TABLE_NAME = "sync_metrics";
+
+        // Only this many of the most recent syncs are kept; inserting another drops the oldest.
+        public static final int MAX_ROWS = 100;
+
+        public static final String PATH_PERCENTILE = "percentile";
+
+        // When the sync started, in milliseconds since the epoch.
+        public static final String COLUMN_STARTED_AT = "started_at";
+        // How many locations the sync went through.
+        public static final String COLUMN_LOCATIONS = "locations";
+
+        // How long the whole sync took, and how long it spent in each stage, in milliseconds.
+        // The network stages are summed over every request, so with requests running side by
+        // side they can add up to more than the total.
+        public static final String COLUMN_TOTAL_MILLIS = "total_ms";
+        public static final String COLUMN_DNS_MILLIS = "dns_ms";
+        public static final String COLUMN_CONNECT_MILLIS = "connect_ms";
+        // From sending a request to having the response headers back.
+        public static final String COLUMN_WAIT_MILLIS = "wait_ms";
+        // Blocked reading response bodies.
+        public static final String COLUMN_DOWNLOAD_MILLIS = "download_ms";
+        // Turning responses into forecasts, not counting the time blocked on the download.
+        public static final String COLUMN_PARSE_MILLIS = "parse_ms";
+        // Writing forecasts to the database.
+        public static final String COLUMN_WRITE_MILLIS = "write_ms";
+        // Updating widgets and Muzei and showing the notification, which waits on Glide.
+        public static final String COLUMN_NOTIFY_MILLIS = "notify_ms";
+
+        public static final String COLUMN_BYTES_SENT = "bytes_sent";
+        public static final String COLUMN_BYTES_RECEIVED = "bytes_received";
+        // Weather and location rows inserted, updated or deleted.
+        public static final String COLUMN_ROWS_WRITTEN = "rows_written";
+        // Locations left for a later sync because the API key's request quota had run low.
+        public static final String COLUMN_QUOTA_DEFERRED = "quota_deferred";
+
+        // Every column a percentile can be asked for.
+        public static final String[] MEASURED_COLUMNS = {
+                COLUMN_LOCATIONS,
+                COLUMN_TOTAL_MILLIS,
+                COLUMN_DNS_MILLIS,
+                COLUMN_CONNECT_MILLIS,
+                COLUMN_WAIT_MILLIS,
+                COLUMN_DOWNLOAD_MILLIS,
+                COLUMN_PARSE_MILLIS,
+                COLUMN_WRITE_MILLIS,
+                COLUMN_NOTIFY_MILLIS,
+                COLUMN_BYTES_SENT,
+                COLUMN_BYTES_RECEIVED,
+                COLUMN_ROWS_WRITTEN,
+                COLUMN_QUOTA_DEFERRED
+        };
+
+        public static Uri buildMetricsUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id);
+        }
+
+        /**
+         * A single row holding the given percentile (0 to 100) of each measured column over the
+         * syncs kept, with the number of syncs it was taken over in _count.
+         */
+        public static Uri buildPercentileUri(int percentile) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_PERCENTILE)
+                    .appendPath(Integer.toString(percentile)).build();
+        }
+
+        public static int getPercentileFromUri(Uri uri) {
+            return Integer.parseInt(uri.getPathSegments().get(2));
+        }
+    }
 }
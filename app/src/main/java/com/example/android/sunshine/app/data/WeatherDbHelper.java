@@ -15,11 +15,17 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.IntervalEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationAliasEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.MetricsEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
 /**
@@ -28,7 +34,12 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 13;
+
+    // The version the history came in with.  Upgrades from here on keep it.
+    static final int FIRST_HISTORY_VERSION = 11;
+    // The version the location table's forecast_fetched_at came in with.
+    private static final int FIRST_FORECAST_FETCHED_AT_VERSION = 13;
 
     static final String DATABASE_NAME = "weather.db";
 
@@ -36,19 +47,47 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
     }
 
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        // Readers mustn't have to wait for a sync's write transaction.
+        if (!db.isReadOnly()) {
+            db.enableWriteAheadLogging();
+        }
+    }
+
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
         // Create a table to hold locations.  A location consists of the string supplied in the
         // location setting, the city name, and the latitude and longitude
-        final String SQL_CREATE_LOCATION_TABLE = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
+        final String SQL_CREATE_LOCATION_TABLE = "CREATE TABLE IF NOT EXISTS " + LocationEntry.TABLE_NAME + " (" +
                 LocationEntry._ID + " INTEGER PRIMARY KEY," +
                 LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
                 LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
                 LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+                LocationEntry.COLUMN_CITY_ID + " INTEGER, " +
+                LocationEntry.COLUMN_ETAG + " TEXT, " +
+                LocationEntry.COLUMN_LAST_MODIFIED + " TEXT, " +
+                LocationEntry.COLUMN_SYNC_STATUS + " INTEGER, " +
+                LocationEntry.COLUMN_FETCHED_AT + " INTEGER, " +
+                LocationEntry.COLUMN_FORECAST_FETCHED_AT + " INTEGER, " +
+                LocationEntry.COLUMN_INTERVALS_FETCHED_AT + " INTEGER, " +
+                LocationEntry.COLUMN_HISTORY_START + " INTEGER " +
+                " );";
+
+        // Other location settings that name a location we already have.  Pointing an alias
+        // somewhere new just replaces it.
+        final String SQL_CREATE_LOCATION_ALIAS_TABLE = "CREATE TABLE IF NOT EXISTS " +
+                LocationAliasEntry.TABLE_NAME + " (" +
+                LocationAliasEntry._ID + " INTEGER PRIMARY KEY," +
+                LocationAliasEntry.COLUMN_ALIAS + " TEXT UNIQUE ON CONFLICT REPLACE NOT NULL, " +
+                LocationAliasEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                " FOREIGN KEY (" + LocationAliasEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + ") " +
                 " );";
 
-        final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
+        final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE IF NOT EXISTS " + WeatherEntry.TABLE_NAME + " (" +
                 // Why AutoIncrement here, and not above?
                 // Unique keys will be auto-generated in either case.  But for weather
                 // forecasting, it's reasonable to assume the user will want information
@@ -70,6 +109,14 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
                 WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
 
+                WeatherEntry.COLUMN_COMPASS + " TEXT, " +
+                WeatherEntry.COLUMN_CONDITION + " TEXT, " +
+                WeatherEntry.COLUMN_BEAUFORT + " INTEGER, " +
+                WeatherEntry.COLUMN_MIN_TEMP_IMPERIAL + " REAL, " +
+                WeatherEntry.COLUMN_MAX_TEMP_IMPERIAL + " REAL, " +
+                WeatherEntry.COLUMN_WIND_SPEED_METRIC + " REAL, " +
+                WeatherEntry.COLUMN_WIND_SPEED_IMPERIAL + " REAL, " +
+
                 // Set up the location column as a foreign key to location table.
                 " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
                 LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
@@ -79,20 +126,127 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
                 WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
 
+        // The 3-hour forecast, about 40 rows per location.  The UNIQUE constraint leads with the
+        // location so that its index is the one a location's date range is read through.
+        final String SQL_CREATE_INTERVAL_TABLE = "CREATE TABLE IF NOT EXISTS " + IntervalEntry.TABLE_NAME + " (" +
+                IntervalEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                IntervalEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                IntervalEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                IntervalEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                IntervalEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+                IntervalEntry.COLUMN_TEMP + " REAL NOT NULL, " +
+                IntervalEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                IntervalEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                IntervalEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                IntervalEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+
+                " FOREIGN KEY (" + IntervalEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+                " UNIQUE (" + IntervalEntry.COLUMN_LOC_KEY + ", " +
+                IntervalEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+
+        // Past weather, a row per location per day, months of it for each location.  As with
+        // the intervals, the UNIQUE constraint's index serves a location's date range.
+        final String SQL_CREATE_HISTORY_TABLE = "CREATE TABLE IF NOT EXISTS " + HistoryEntry.TABLE_NAME + " (" +
+                HistoryEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                HistoryEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                HistoryEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                HistoryEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                HistoryEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+                HistoryEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                HistoryEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                HistoryEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                HistoryEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                HistoryEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                HistoryEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+
+                " FOREIGN KEY (" + HistoryEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+                " UNIQUE (" + HistoryEntry.COLUMN_LOC_KEY + ", " +
+                HistoryEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+
+        // One row per sync, saying where its time went.  Only the most recent few are kept.
+        final String SQL_CREATE_METRICS_TABLE = "CREATE TABLE IF NOT EXISTS " + MetricsEntry.TABLE_NAME + " (" +
+                MetricsEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                MetricsEntry.COLUMN_STARTED_AT + " INTEGER NOT NULL, " +
+                MetricsEntry.COLUMN_LOCATIONS + " INTEGER NOT NULL, " +
+                MetricsEntry.COLUMN_TOTAL_MILLIS + " INTEGER NOT NULL, " +
+                MetricsEntry.COLUMN_DNS_MILLIS + " INTEGER NOT NULL, " +
+                MetricsEntry.COLUMN_CONNECT_MILLIS + " INTEGER NOT NULL, " +
+                MetricsEntry.COLUMN_WAIT_MILLIS + " INTEGER NOT NULL, " +
+                MetricsEntry.COLUMN_DOWNLOAD_MILLIS + " INTEGER NOT NULL, " +
+                MetricsEntry.COLUMN_PARSE_MILLIS + " INTEGER NOT NULL, " +
+                MetricsEntry.COLUMN_WRITE_MILLIS + " INTEGER NOT NULL, " +
+                MetricsEntry.COLUMN_NOTIFY_MILLIS + " INTEGER NOT NULL, " +
+                MetricsEntry.COLUMN_BYTES_SENT + " INTEGER NOT NULL, " +
+                MetricsEntry.COLUMN_BYTES_RECEIVED + " INTEGER NOT NULL, " +
+                MetricsEntry.COLUMN_ROWS_WRITTEN + " INTEGER NOT NULL, " +
+                MetricsEntry.COLUMN_QUOTA_DEFERRED + " INTEGER NOT NULL " +
+                " );";
+
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_ALIAS_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_METRICS_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_INTERVAL_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_HISTORY_TABLE);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
+        // Most of this database is only a cache for online data, so its upgrade policy is
+        // to discard that data and start over.  The history is the exception: it takes a year
+        // of requests to fill in, and can't be got back from the forecast.  So from the
+        // version it came in, it's kept, along with the locations it belongs to and how far
+        // back each one's backfill has got.
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+        // A column added to any of the kept tables has to be added here with ALTER TABLE.
+        if (oldVersion < FIRST_HISTORY_VERSION) {
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationAliasEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HistoryEntry.TABLE_NAME);
+        } else {
+            if (oldVersion < FIRST_FORECAST_FETCHED_AT_VERSION) {
+                addColumn(sqLiteDatabase, LocationEntry.TABLE_NAME,
+                        LocationEntry.COLUMN_FORECAST_FETCHED_AT, "INTEGER");
+            }
+            // What the locations say about the last fetch no longer holds once the forecast
+            // is gone, and a kept ETag would have the server tell us nothing has changed.
+            ContentValues fetchState = new ContentValues();
+            fetchState.putNull(LocationEntry.COLUMN_ETAG);
+            fetchState.putNull(LocationEntry.COLUMN_LAST_MODIFIED);
+            fetchState.putNull(LocationEntry.COLUMN_SYNC_STATUS);
+            fetchState.putNull(LocationEntry.COLUMN_FETCHED_AT);
+            fetchState.putNull(LocationEntry.COLUMN_FORECAST_FETCHED_AT);
+            fetchState.putNull(LocationEntry.COLUMN_INTERVALS_FETCHED_AT);
+            sqLiteDatabase.update(LocationEntry.TABLE_NAME, fetchState, null, null);
+        }
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + MetricsEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + IntervalEntry.TABLE_NAME);
+        // Only creates the tables that aren't there.
         onCreate(sqLiteDatabase);
     }
+
+    /**
+     * Adds a column to one of the tables kept across upgrades, unless it's there already.
+     */
+    private static void addColumn(SQLiteDatabase db, String table, String column,
+                                  String type) {
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        try {
+            int nameIndex = cursor.getColumnIndex("name");
+            while (cursor.moveToNext()) {
+                if (column.equals(cursor.getString(nameIndex))) {
+                    return;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + column + " " + type);
+    }
 }
@@ -20,10 +20,22 @@ import android.content.ContentProvider;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
 public class WeatherProvider extends ContentProvider {
 
     // The URI Matcher used by this content provider.
@@ -34,8 +46,18 @@ public class WeatherProvider extends ContentProvider {
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
+    static final int LOCATION_ALIAS = 301;
+    static final int METRICS = 400;
+    static final int METRICS_PERCENTILE = 401;
+    static final int INTERVAL = 500;
+    static final int INTERVAL_WITH_LOCATION = 501;
+    static final int HISTORY = 600;
+    static final int HISTORY_WITH_LOCATION = 601;
 
     private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sIntervalByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sHistoryByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sLocationByAliasQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -49,6 +71,39 @@ public class WeatherProvider extends ContentProvider {
                         "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
                         " = " + WeatherContract.LocationEntry.TABLE_NAME +
                         "." + WeatherContract.LocationEntry._ID);
+
+        sIntervalByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+
+        //interval_forecast INNER JOIN location ON interval_forecast.location_id = location._id
+        sIntervalByLocationSettingQueryBuilder.setTables(
+                WeatherContract.IntervalEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.IntervalEntry.TABLE_NAME +
+                        "." + WeatherContract.IntervalEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
+
+        sHistoryByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+
+        //history INNER JOIN location ON history.location_id = location._id
+        sHistoryByLocationSettingQueryBuilder.setTables(
+                WeatherContract.HistoryEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.HistoryEntry.TABLE_NAME +
+                        "." + WeatherContract.HistoryEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
+
+        sLocationByAliasQueryBuilder = new SQLiteQueryBuilder();
+
+        //location_alias INNER JOIN location ON location_alias.location_id = location._id
+        sLocationByAliasQueryBuilder.setTables(
+                WeatherContract.LocationAliasEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.LocationAliasEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationAliasEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
     }
 
     //location.location_setting = ?
@@ -68,8 +123,120 @@ public class WeatherProvider extends ContentProvider {
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
+    //location.location_setting = ? AND interval_forecast.date >= ? AND interval_forecast.date < ?
+    private static final String sLocationSettingWithDateRangeSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.IntervalEntry.TABLE_NAME +
+                    "." + WeatherContract.IntervalEntry.COLUMN_DATE + " >= ? AND " +
+                    WeatherContract.IntervalEntry.TABLE_NAME +
+                    "." + WeatherContract.IntervalEntry.COLUMN_DATE + " < ? ";
+
+    //interval_forecast.date ASC
+    private static final String sIntervalDateSortOrder =
+            WeatherContract.IntervalEntry.TABLE_NAME +
+                    "." + WeatherContract.IntervalEntry.COLUMN_DATE + " ASC";
+
+    //location_id = ? AND date >= ?
+    private static final String sIntervalLocationIdFromDateSelection =
+            WeatherContract.IntervalEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.IntervalEntry.COLUMN_DATE + " >= ? ";
+
+    // Every column of an interval row but its _ID, in the order the compiled insert binds them.
+    private static final String[] sIntervalInsertColumns = {
+            WeatherContract.IntervalEntry.COLUMN_LOC_KEY,
+            WeatherContract.IntervalEntry.COLUMN_DATE,
+            WeatherContract.IntervalEntry.COLUMN_WEATHER_ID,
+            WeatherContract.IntervalEntry.COLUMN_SHORT_DESC,
+            WeatherContract.IntervalEntry.COLUMN_TEMP,
+            WeatherContract.IntervalEntry.COLUMN_HUMIDITY,
+            WeatherContract.IntervalEntry.COLUMN_PRESSURE,
+            WeatherContract.IntervalEntry.COLUMN_WIND_SPEED,
+            WeatherContract.IntervalEntry.COLUMN_DEGREES
+    };
+
+    //location.location_setting = ? AND history.date >= ? AND history.date < ?
+    private static final String sLocationSettingWithHistoryRangeSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.HistoryEntry.TABLE_NAME +
+                    "." + WeatherContract.HistoryEntry.COLUMN_DATE + " >= ? AND " +
+                    WeatherContract.HistoryEntry.TABLE_NAME +
+                    "." + WeatherContract.HistoryEntry.COLUMN_DATE + " < ? ";
+
+    //history.date ASC
+    private static final String sHistoryDateSortOrder =
+            WeatherContract.HistoryEntry.TABLE_NAME +
+                    "." + WeatherContract.HistoryEntry.COLUMN_DATE + " ASC";
+
+    // Every column of a history row but its _ID, in the order the compiled insert binds them.
+    private static final String[] sHistoryInsertColumns = {
+            WeatherContract.HistoryEntry.COLUMN_LOC_KEY,
+            WeatherContract.HistoryEntry.COLUMN_DATE,
+            WeatherContract.HistoryEntry.COLUMN_WEATHER_ID,
+            WeatherContract.HistoryEntry.COLUMN_SHORT_DESC,
+            WeatherContract.HistoryEntry.COLUMN_MIN_TEMP,
+            WeatherContract.HistoryEntry.COLUMN_MAX_TEMP,
+            WeatherContract.HistoryEntry.COLUMN_HUMIDITY,
+            WeatherContract.HistoryEntry.COLUMN_PRESSURE,
+            WeatherContract.HistoryEntry.COLUMN_WIND_SPEED,
+            WeatherContract.HistoryEntry.COLUMN_DEGREES
+    };
+
+    // The same columns of the weather table, which go by the same names.
+    private static final String[] sWeatherHistoryColumns = {
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+
+    //location_alias.alias = ?
+    private static final String sAliasSelection =
+            WeatherContract.LocationAliasEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationAliasEntry.COLUMN_ALIAS + " = ? ";
+
+    //location_id NOT IN (SELECT _id FROM location)
+    private static final String sOrphanedAliasSelection =
+            WeatherContract.LocationAliasEntry.COLUMN_LOC_KEY + " NOT IN (SELECT " +
+                    WeatherContract.LocationEntry._ID + " FROM " +
+                    WeatherContract.LocationEntry.TABLE_NAME + ")";
+
+    //location_id = ? AND date = ?
+    private static final String sWeatherLocationIdAndDaySelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
+
+    /**
+     * @return the location setting of the location the given one is an alias for, or the
+     * given one if it isn't an alias.
+     */
+    private static String getCanonicalLocationSetting(SQLiteDatabase db, String locationSetting) {
+        Cursor cursor = sLocationByAliasQueryBuilder.query(db,
+                new String[]{WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                sAliasSelection,
+                new String[]{locationSetting},
+                null,
+                null,
+                null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : locationSetting;
+        } finally {
+            cursor.close();
+        }
+    }
+
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
-        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        String locationSetting = getCanonicalLocationSetting(db,
+                WeatherContract.WeatherEntry.getLocationSettingFromUri(uri));
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
 
         String[] selectionArgs;
@@ -83,7 +250,7 @@ public class WeatherProvider extends ContentProvider {
             selection = sLocationSettingWithStartDateSelection;
         }
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+        return sWeatherByLocationSettingQueryBuilder.query(db,
                 projection,
                 selection,
                 selectionArgs,
@@ -95,10 +262,12 @@ public class WeatherProvider extends ContentProvider {
 
     private Cursor getWeatherByLocationSettingAndDate(
             Uri uri, String[] projection, String sortOrder) {
-        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        String locationSetting = getCanonicalLocationSetting(db,
+                WeatherContract.WeatherEntry.getLocationSettingFromUri(uri));
         long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+        return sWeatherByLocationSettingQueryBuilder.query(db,
                 projection,
                 sLocationSettingAndDaySelection,
                 new String[]{locationSetting, Long.toString(date)},
@@ -108,6 +277,97 @@ public class WeatherProvider extends ContentProvider {
         );
     }
 
+    /**
+     * Reads a location's intervals over the range in the URI, oldest first unless asked
+     * otherwise.  The range is matched against the index on (location_id, date), so this
+     * only ever reads the rows it returns.
+     */
+    private Cursor getIntervalsByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        String locationSetting = getCanonicalLocationSetting(db,
+                WeatherContract.IntervalEntry.getLocationSettingFromUri(uri));
+        long startDate = WeatherContract.IntervalEntry.getStartDateFromUri(uri);
+        long endDate = WeatherContract.IntervalEntry.getEndDateFromUri(uri);
+
+        return sIntervalByLocationSettingQueryBuilder.query(db,
+                projection,
+                sLocationSettingWithDateRangeSelection,
+                new String[]{locationSetting, Long.toString(startDate), Long.toString(endDate)},
+                null,
+                null,
+                sortOrder == null ? sIntervalDateSortOrder : sortOrder
+        );
+    }
+
+    private Cursor getHistoryByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        String locationSetting = getCanonicalLocationSetting(db,
+                WeatherContract.HistoryEntry.getLocationSettingFromUri(uri));
+        long startDate = WeatherContract.HistoryEntry.getStartDateFromUri(uri);
+        long endDate = WeatherContract.HistoryEntry.getEndDateFromUri(uri);
+
+        return sHistoryByLocationSettingQueryBuilder.query(db,
+                projection,
+                sLocationSettingWithHistoryRangeSelection,
+                new String[]{locationSetting, Long.toString(startDate), Long.toString(endDate)},
+                null,
+                null,
+                sortOrder == null ? sHistoryDateSortOrder : sortOrder
+        );
+    }
+
+    /**
+     * Compiles the insert for the tables written many rows at a time.  Binding each row's
+     * values to the one statement saves building and compiling the SQL again for each of
+     * them, as SQLiteDatabase.insert() would.
+     */
+    private static SQLiteStatement compileInsert(SQLiteDatabase db, String table,
+                                                 String[] columns) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i == 0 ? "" : ", ").append(columns[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        return db.compileStatement(sql.append(")").toString());
+    }
+
+    private static SQLiteStatement compileIntervalInsert(SQLiteDatabase db) {
+        return compileInsert(db, WeatherContract.IntervalEntry.TABLE_NAME,
+                sIntervalInsertColumns);
+    }
+
+    private static SQLiteStatement compileHistoryInsert(SQLiteDatabase db) {
+        return compileInsert(db, WeatherContract.HistoryEntry.TABLE_NAME, sHistoryInsertColumns);
+    }
+
+    /**
+     * Inserts (or, through the table's ON CONFLICT REPLACE, replaces) one row through a
+     * compiled insert.
+     *
+     * @param columns the columns the insert was compiled with.
+     * @return the new row's ID, or -1 on error.
+     */
+    private static long insertRow(SQLiteStatement insert, String[] columns,
+                                  ContentValues values) {
+        insert.clearBindings();
+        for (int i = 0; i < columns.length; i++) {
+            Object value = values.get(columns[i]);
+            if (value == null) {
+                insert.bindNull(i + 1);
+            } else if (value instanceof Double || value instanceof Float) {
+                insert.bindDouble(i + 1, ((Number) value).doubleValue());
+            } else if (value instanceof Number) {
+                insert.bindLong(i + 1, ((Number) value).longValue());
+            } else {
+                insert.bindString(i + 1, value.toString());
+            }
+        }
+        return insert.executeInsert();
+    }
+
     /*
         Students: Here is where you need to create the UriMatcher. This UriMatcher will
         match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
@@ -130,6 +390,17 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION_ALIAS, LOCATION_ALIAS);
+
+        matcher.addURI(authority, WeatherContract.PATH_METRICS, METRICS);
+        matcher.addURI(authority, WeatherContract.PATH_METRICS + "/" +
+                WeatherContract.MetricsEntry.PATH_PERCENTILE + "/#", METRICS_PERCENTILE);
+
+        matcher.addURI(authority, WeatherContract.PATH_INTERVAL, INTERVAL);
+        matcher.addURI(authority, WeatherContract.PATH_INTERVAL + "/*", INTERVAL_WITH_LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY, HISTORY);
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY + "/*", HISTORY_WITH_LOCATION);
         return matcher;
     }
 
@@ -164,6 +435,20 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case LOCATION_ALIAS:
+                return WeatherContract.LocationAliasEntry.CONTENT_TYPE;
+            case METRICS:
+                return WeatherContract.MetricsEntry.CONTENT_TYPE;
+            case METRICS_PERCENTILE:
+                return WeatherContract.MetricsEntry.CONTENT_ITEM_TYPE;
+            case INTERVAL:
+                return WeatherContract.IntervalEntry.CONTENT_TYPE;
+            case INTERVAL_WITH_LOCATION:
+                return WeatherContract.IntervalEntry.CONTENT_TYPE;
+            case HISTORY:
+                return WeatherContract.HistoryEntry.CONTENT_TYPE;
+            case HISTORY_WITH_LOCATION:
+                return WeatherContract.HistoryEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -213,6 +498,72 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "location_alias", joined with the location each alias is for
+            case LOCATION_ALIAS: {
+                retCursor = sLocationByAliasQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "metrics"
+            case METRICS: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.MetricsEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "metrics/percentile/#"
+            case METRICS_PERCENTILE: {
+                retCursor = getMetricsPercentile(uri, projection);
+                break;
+            }
+            // "interval/*"
+            case INTERVAL_WITH_LOCATION: {
+                retCursor = getIntervalsByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "interval"
+            case INTERVAL: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.IntervalEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "history/*"
+            case HISTORY_WITH_LOCATION: {
+                retCursor = getHistoryByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "history"
+            case HISTORY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HistoryEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -248,6 +599,38 @@ public class WeatherProvider extends ContentProvider {
                     throw new android.database.SQLException("Failed to insert row into " + uri);
                 break;
             }
+            case LOCATION_ALIAS: {
+                long _id = db.insert(WeatherContract.LocationAliasEntry.TABLE_NAME, null, values);
+                if ( _id > 0 )
+                    returnUri = WeatherContract.LocationAliasEntry.buildLocationAliasUri(_id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                // Whoever is watching the alias's weather now sees the location's.
+                getContext().getContentResolver().notifyChange(
+                        WeatherContract.WeatherEntry.buildWeatherLocation(values.getAsString(
+                                WeatherContract.LocationAliasEntry.COLUMN_ALIAS)), null);
+                break;
+            }
+            case METRICS: {
+                long _id = db.insert(WeatherContract.MetricsEntry.TABLE_NAME, null, values);
+                if ( _id > 0 )
+                    returnUri = WeatherContract.MetricsEntry.buildMetricsUri(_id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                // Keep only the most recent syncs.
+                db.delete(WeatherContract.MetricsEntry.TABLE_NAME,
+                        WeatherContract.MetricsEntry._ID + " <= ?",
+                        new String[]{Long.toString(_id - WeatherContract.MetricsEntry.MAX_ROWS)});
+                break;
+            }
+            case INTERVAL: {
+                long _id = db.insert(WeatherContract.IntervalEntry.TABLE_NAME, null, values);
+                if ( _id > 0 )
+                    returnUri = WeatherContract.IntervalEntry.buildIntervalUri(_id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                break;
+            }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -270,6 +653,25 @@ public class WeatherProvider extends ContentProvider {
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                // Aliases for a location that's gone would point at nothing.
+                db.delete(WeatherContract.LocationAliasEntry.TABLE_NAME,
+                        sOrphanedAliasSelection, null);
+                break;
+            case LOCATION_ALIAS:
+                rowsDeleted = db.delete(
+                        WeatherContract.LocationAliasEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case METRICS:
+                rowsDeleted = db.delete(
+                        WeatherContract.MetricsEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case INTERVAL:
+                rowsDeleted = db.delete(
+                        WeatherContract.IntervalEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case HISTORY:
+                rowsDeleted = db.delete(
+                        WeatherContract.HistoryEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -281,6 +683,70 @@ public class WeatherProvider extends ContentProvider {
         return rowsDeleted;
     }
 
+    /**
+     * Works out the requested percentile of each measured column over every sync kept, by
+     * nearest rank, as a single row.  The row is empty, apart from a _count of 0, when there
+     * are no syncs to go on.
+     */
+    private Cursor getMetricsPercentile(Uri uri, String[] projection) {
+        int percentile = WeatherContract.MetricsEntry.getPercentileFromUri(uri);
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile out of range: " + uri);
+        }
+        String[] columns = projection;
+        if (columns == null) {
+            columns = new String[WeatherContract.MetricsEntry.MEASURED_COLUMNS.length + 1];
+            columns[0] = WeatherContract.MetricsEntry._COUNT;
+            System.arraycopy(WeatherContract.MetricsEntry.MEASURED_COLUMNS, 0,
+                    columns, 1, columns.length - 1);
+        }
+
+        Cursor metrics = mOpenHelper.getReadableDatabase().query(
+                WeatherContract.MetricsEntry.TABLE_NAME,
+                WeatherContract.MetricsEntry.MEASURED_COLUMNS,
+                null,
+                null,
+                null,
+                null,
+                null);
+        long[][] values = new long[WeatherContract.MetricsEntry.MEASURED_COLUMNS.length][];
+        int count = metrics.getCount();
+        try {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = new long[count];
+            }
+            for (int row = 0; metrics.moveToNext(); row++) {
+                for (int i = 0; i < values.length; i++) {
+                    values[i][row] = metrics.getLong(i);
+                }
+            }
+        } finally {
+            metrics.close();
+        }
+
+        // The smallest value at least this many of the syncs are at or below.
+        int rank = Math.max(1, (int) Math.ceil(percentile / 100.0 * count));
+        Object[] row = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            if (WeatherContract.MetricsEntry._COUNT.equals(columns[i])) {
+                row[i] = count;
+                continue;
+            }
+            int measured = Arrays.asList(WeatherContract.MetricsEntry.MEASURED_COLUMNS)
+                    .indexOf(columns[i]);
+            if (measured == -1) {
+                throw new IllegalArgumentException("No percentile for column " + columns[i]);
+            }
+            if (count > 0) {
+                Arrays.sort(values[measured]);
+                row[i] = values[measured][rank - 1];
+            }
+        }
+        MatrixCursor cursor = new MatrixCursor(columns, 1);
+        cursor.addRow(row);
+        return cursor;
+    }
+
     private void normalizeDate(ContentValues values) {
         // normalize the date value
         if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
@@ -337,11 +803,439 @@ public class WeatherProvider extends ContentProvider {
                 }
                 getContext().getContentResolver().notifyChange(uri, null);
                 return returnCount;
+            case INTERVAL: {
+                // A few hundred rows at a time, so they all go through one compiled insert.
+                SQLiteStatement insert = compileIntervalInsert(db);
+                int insertCount = 0;
+                db.beginTransaction();
+                try {
+                    for (ContentValues value : values) {
+                        if (insertRow(insert, sIntervalInsertColumns, value) != -1) {
+                            insertCount++;
+                        }
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                    insert.close();
+                }
+                getContext().getContentResolver().notifyChange(uri, null);
+                return insertCount;
+            }
+            case HISTORY:
+                return insertHistory(values, 0, 0);
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Writes a chunk of one location's history, and moves the location's
+     * {@link WeatherContract.LocationEntry#COLUMN_HISTORY_START} back to the chunk's first day,
+     * both in one transaction.  The backfill's progress is then never ahead of the history
+     * actually written, nor behind it by more than the chunk in flight when the process died.
+     *
+     * @param days complete history rows, location ID included.
+     * @param locationId the location to checkpoint, or 0 not to.
+     * @param historyStart the (normalized) date to checkpoint it at.
+     * @return how many rows were written.
+     */
+    public int insertHistory(ContentValues[] days, long locationId, long historyStart) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        SQLiteStatement insert = compileHistoryInsert(db);
+        int insertCount = 0;
+        db.beginTransaction();
+        try {
+            for (ContentValues day : days) {
+                normalizeDate(day);
+                if (insertRow(insert, sHistoryInsertColumns, day) != -1) {
+                    insertCount++;
+                }
+            }
+            if (locationId != 0) {
+                ContentValues locationValues = new ContentValues();
+                locationValues.put(WeatherContract.LocationEntry.COLUMN_HISTORY_START,
+                        historyStart);
+                db.update(WeatherContract.LocationEntry.TABLE_NAME, locationValues,
+                        WeatherContract.LocationEntry._ID + " = ?",
+                        new String[]{Long.toString(locationId)});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+        getContext().getContentResolver().notifyChange(
+                WeatherContract.HistoryEntry.CONTENT_URI, null);
+        return insertCount;
+    }
+
+    /**
+     * Opens a write transaction on the weather table that rows can be streamed into one at a
+     * time, so a caller never has to hold a whole forecast in memory.  Nothing becomes visible
+     * to readers until {@link WeatherTransaction#commit()}; {@link WeatherTransaction#abort()}
+     * rolls back everything written so far.
+     *
+     * SQLite transactions belong to the thread that began them, so the returned object must
+     * only be used from the calling thread.  Location inserts made through the ContentResolver
+     * on that same thread join the transaction as well.
+     */
+    public WeatherTransaction beginWeatherTransaction() {
+        return new WeatherTransaction(mOpenHelper.getWritableDatabase());
+    }
+
+    public class WeatherTransaction {
+        private final SQLiteDatabase mDb;
+        private int mInsertCount;
+        private int mUpdateCount;
+        private int mUnchangedCount;
+        private boolean mFinished;
+        // Set when a write can't be pinned to one location, so every observer has to hear.
+        private boolean mNotifyAll;
+        // Location setting to the (normalized) dates written for it.
+        private final Map<String, Set<Long>> mChangedDates = new HashMap<String, Set<Long>>();
+        // Compiled the first time intervals are written, and reused for the rest.
+        private SQLiteStatement mIntervalInsert;
+        private int mIntervalCount;
+        // Set when past intervals have been deleted, for whichever locations they were.
+        private boolean mNotifyAllIntervals;
+        // Location settings whose intervals were replaced.
+        private final Set<String> mIntervalLocations = new HashSet<String>();
+
+        WeatherTransaction(SQLiteDatabase db) {
+            mDb = db;
+            mDb.beginTransaction();
+        }
+
+        /**
+         * Inserts (or, through the table's ON CONFLICT REPLACE, replaces) one day of weather.
+         */
+        public void insert(ContentValues values) {
+            normalizeDate(values);
+            long _id = mDb.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+            if (_id != -1) {
+                mInsertCount++;
+                mNotifyAll = true;
+            }
+        }
+
+        /**
+         * Writes one day of weather only if it differs from what's stored for that location and
+         * date.  A day we already have is updated in place, rather than being deleted and
+         * re-inserted by the table's ON CONFLICT REPLACE.
+         *
+         * @param locationSetting the location the row belongs to, used to notify only the
+         *                        observers of that location.
+         * @param values a complete weather row, including its location ID and date.
+         * @return true if anything was written.
+         */
+        public boolean writeDayIfChanged(String locationSetting, ContentValues values) {
+            normalizeDate(values);
+            long locationId = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+            long date = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+
+            Boolean same = matchesStoredDay(locationId, date, values);
+            if (same == null) {
+                if (mDb.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values) == -1) {
+                    return false;
+                }
+                mInsertCount++;
+            } else if (same) {
+                mUnchangedCount++;
+                return false;
+            } else {
+                updateDay(locationId, date, values);
+            }
+            addChangedDate(locationSetting, date);
+            return true;
+        }
+
+        /**
+         * Overwrites just the given columns of one location's weather for one (normalized)
+         * date, if they differ from what's stored, leaving the rest of the row alone.
+         *
+         * @return true if anything was written; false if nothing changed or there was no row
+         * for that day.
+         */
+        public boolean updateDayIfChanged(String locationSetting, long locationId, long date,
+                                          ContentValues values) {
+            Boolean same = matchesStoredDay(locationId, date, values);
+            if (same == null) {
+                return false;
+            } else if (same) {
+                mUnchangedCount++;
+                return false;
+            }
+            updateDay(locationId, date, values);
+            addChangedDate(locationSetting, date);
+            return true;
+        }
+
+        /**
+         * Removes weather rows dated on or before the given (normalized) date.  They're moved
+         * into the history table rather than thrown away, so the history runs right up to
+         * yesterday, past where the archive the backfill reads from has got to.  A day the
+         * history already has is left as it is.
+         */
+        public int deleteOnOrBefore(long date) {
+            StringBuilder move = new StringBuilder("INSERT OR IGNORE INTO ")
+                    .append(WeatherContract.HistoryEntry.TABLE_NAME).append(" (");
+            for (int i = 0; i < sHistoryInsertColumns.length; i++) {
+                move.append(i == 0 ? "" : ", ").append(sHistoryInsertColumns[i]);
+            }
+            move.append(") SELECT ");
+            for (int i = 0; i < sWeatherHistoryColumns.length; i++) {
+                move.append(i == 0 ? "" : ", ").append(sWeatherHistoryColumns[i]);
+            }
+            move.append(" FROM ").append(WeatherContract.WeatherEntry.TABLE_NAME)
+                    .append(" WHERE ").append(WeatherContract.WeatherEntry.COLUMN_DATE)
+                    .append(" <= ?");
+            mDb.execSQL(move.toString(), new Object[]{date});
+
+            int deleted = mDb.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                    new String[]{Long.toString(date)});
+            if (deleted > 0) {
+                mNotifyAll = true;
+            }
+            return deleted;
+        }
+
+        /**
+         * Replaces a location's 3-hour forecast with a newer one.  Stored intervals from the
+         * first of the new ones onwards are dropped, since a forecast that stops sooner than
+         * the last one did hasn't got anything to say about the ones it left out; earlier ones
+         * are kept until {@link #deleteIntervalsBefore(long)} clears them out.
+         *
+         * Every row goes through the one compiled insert, so writing the forty or so rows of a
+         * location costs little more than writing a few days of its daily forecast.
+         *
+         * @param locationSetting the location the rows belong to, used to notify only the
+         *                        observers of that location.
+         * @param intervals complete interval rows without their location ID, oldest first.
+         * @return how many rows were written.
+         */
+        public int replaceIntervals(String locationSetting, long locationId,
+                                    List<ContentValues> intervals) {
+            if (intervals.isEmpty()) {
+                return 0;
+            }
+            long firstDate = intervals.get(0).getAsLong(WeatherContract.IntervalEntry.COLUMN_DATE);
+            mDb.delete(WeatherContract.IntervalEntry.TABLE_NAME,
+                    sIntervalLocationIdFromDateSelection,
+                    new String[]{Long.toString(locationId), Long.toString(firstDate)});
+
+            if (mIntervalInsert == null) {
+                mIntervalInsert = compileIntervalInsert(mDb);
+            }
+            int written = 0;
+            for (ContentValues values : intervals) {
+                values.put(WeatherContract.IntervalEntry.COLUMN_LOC_KEY, locationId);
+                if (insertRow(mIntervalInsert, sIntervalInsertColumns, values) != -1) {
+                    written++;
+                }
+            }
+            mIntervalCount += written;
+            mIntervalLocations.add(locationSetting);
+            return written;
+        }
+
+        /**
+         * Removes intervals that started before the given time, for every location.
+         */
+        public int deleteIntervalsBefore(long date) {
+            int deleted = mDb.delete(WeatherContract.IntervalEntry.TABLE_NAME,
+                    WeatherContract.IntervalEntry.COLUMN_DATE + " < ?",
+                    new String[]{Long.toString(date)});
+            if (deleted > 0) {
+                mNotifyAllIntervals = true;
+            }
+            return deleted;
+        }
+
+        /**
+         * @return how many intervals were written, which aren't counted as inserts.
+         */
+        public int getIntervalCount() {
+            return mIntervalCount;
+        }
+
+        public int getInsertCount() {
+            return mInsertCount;
+        }
+
+        public int getUpdateCount() {
+            return mUpdateCount;
+        }
+
+        /**
+         * @return how many days were found to be identical to what's stored, and so skipped.
+         */
+        public int getUnchangedCount() {
+            return mUnchangedCount;
+        }
+
+        /**
+         * @return the (normalized) dates written for the location so far, in order.  Empty if
+         * nothing about it changed.
+         */
+        public SortedSet<Long> getChangedDates(String locationSetting) {
+            SortedSet<Long> dates = new TreeSet<Long>();
+            Set<Long> changed = mChangedDates.get(locationSetting);
+            if (changed != null) {
+                dates.addAll(changed);
+            }
+            return dates;
+        }
+
+        /**
+         * Makes every row written through this transaction visible, and notifies the observers
+         * of whatever changed.
+         */
+        public void commit() {
+            if (mFinished) return;
+            mFinished = true;
+            try {
+                mDb.setTransactionSuccessful();
+            } finally {
+                mDb.endTransaction();
+                closeIntervalInsert();
+            }
+            if (mNotifyAll) {
+                getContext().getContentResolver().notifyChange(
+                        WeatherContract.WeatherEntry.CONTENT_URI, null);
+            } else {
+                // Observers of a location's weather are registered somewhere under its URI,
+                // or one of its aliases', so the locations nothing happened to don't have to
+                // requery.
+                for (String locationSetting : mChangedDates.keySet()) {
+                    getContext().getContentResolver().notifyChange(
+                            WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting),
+                            null);
+                    for (String alias : getAliases(locationSetting)) {
+                        getContext().getContentResolver().notifyChange(
+                                WeatherContract.WeatherEntry.buildWeatherLocation(alias), null);
+                    }
+                }
+            }
+            // The intervals have URIs of their own, so a new 3-hour forecast doesn't have the
+            // daily forecast's observers requery.
+            if (mNotifyAllIntervals) {
+                getContext().getContentResolver().notifyChange(
+                        WeatherContract.IntervalEntry.CONTENT_URI, null);
+            } else {
+                for (String locationSetting : mIntervalLocations) {
+                    getContext().getContentResolver().notifyChange(
+                            WeatherContract.IntervalEntry.buildIntervalLocation(locationSetting),
+                            null);
+                    for (String alias : getAliases(locationSetting)) {
+                        getContext().getContentResolver().notifyChange(
+                                WeatherContract.IntervalEntry.buildIntervalLocation(alias), null);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Rolls back every row written through this transaction.  Safe to call after
+         * {@link #commit()}, in which case it does nothing, so it can live in a finally block.
+         */
+        public void abort() {
+            if (mFinished) return;
+            mFinished = true;
+            try {
+                mDb.endTransaction();
+            } finally {
+                closeIntervalInsert();
+            }
+        }
+
+        private void closeIntervalInsert() {
+            if (mIntervalInsert != null) {
+                mIntervalInsert.close();
+                mIntervalInsert = null;
+            }
+        }
+
+        /**
+         * @return null if there's no row for this location and date, otherwise whether every
+         * column in values matches the stored row.
+         */
+        private Boolean matchesStoredDay(long locationId, long date, ContentValues values) {
+            String[] columns = values.keySet().toArray(new String[values.size()]);
+            Cursor cursor = mDb.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                    columns,
+                    sWeatherLocationIdAndDaySelection,
+                    new String[]{Long.toString(locationId), Long.toString(date)},
+                    null,
+                    null,
+                    null);
+            try {
+                if (!cursor.moveToFirst()) {
+                    return null;
+                }
+                for (int i = 0; i < columns.length; i++) {
+                    Object value = values.get(columns[i]);
+                    if (value == null) {
+                        if (!cursor.isNull(i)) return false;
+                    } else if (cursor.isNull(i)) {
+                        return false;
+                    } else if (value instanceof Number) {
+                        if (cursor.getDouble(i) != ((Number) value).doubleValue()) return false;
+                    } else if (!value.toString().equals(cursor.getString(i))) {
+                        return false;
+                    }
+                }
+                return true;
+            } finally {
+                cursor.close();
+            }
+        }
+
+        /**
+         * @return every other name the location with this location setting, or alias, goes by.
+         */
+        private List<String> getAliases(String locationSetting) {
+            String canonical = getCanonicalLocationSetting(mDb, locationSetting);
+            Cursor cursor = sLocationByAliasQueryBuilder.query(mDb,
+                    new String[]{WeatherContract.LocationAliasEntry.COLUMN_ALIAS},
+                    sLocationSettingSelection,
+                    new String[]{canonical},
+                    null,
+                    null,
+                    null);
+            List<String> aliases = new ArrayList<String>();
+            if (!canonical.equals(locationSetting)) {
+                aliases.add(canonical);
+            }
+            try {
+                while (cursor.moveToNext()) {
+                    if (!locationSetting.equals(cursor.getString(0))) {
+                        aliases.add(cursor.getString(0));
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+            return aliases;
+        }
+
+        private void updateDay(long locationId, long date, ContentValues values) {
+            mUpdateCount += mDb.update(WeatherContract.WeatherEntry.TABLE_NAME, values,
+                    sWeatherLocationIdAndDaySelection,
+                    new String[]{Long.toString(locationId), Long.toString(date)});
+        }
+
+        private void addChangedDate(String locationSetting, long date) {
+            Set<Long> dates = mChangedDates.get(locationSetting);
+            if (dates == null) {
+                dates = new HashSet<Long>();
+                mChangedDates.put(locationSetting, dates);
+            }
+            dates.add(date);
+        }
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
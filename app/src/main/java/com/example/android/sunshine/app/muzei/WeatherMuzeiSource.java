@@ -45,10 +45,18 @@ public class WeatherMuzeiSource extends MuzeiArtSource {
     @Override
     protected void onHandleIntent(Intent intent) {
         super.onHandleIntent(intent);
+        // The artwork only follows today's weather.
         boolean dataUpdated = intent != null &&
-                SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction());
+                SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction()) &&
+                SunshineSyncAdapter.isTodayChanged(intent);
         if (dataUpdated && isEnabled()) {
-            onUpdate(UPDATE_REASON_OTHER);
+            if (intent.hasExtra(SunshineSyncAdapter.EXTRA_WEATHER_ID)) {
+                // The sync sent today's weather along, so there's no need to read it back.
+                publishWeather(intent.getIntExtra(SunshineSyncAdapter.EXTRA_WEATHER_ID, 0),
+                        intent.getStringExtra(SunshineSyncAdapter.EXTRA_SHORT_DESC));
+            } else {
+                onUpdate(UPDATE_REASON_OTHER);
+            }
         }
     }
 
@@ -60,20 +68,21 @@ public class WeatherMuzeiSource extends MuzeiArtSource {
         Cursor cursor = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
                 null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
         if (cursor.moveToFirst()) {
-            int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-            String desc = cursor.getString(INDEX_SHORT_DESC);
-
-            String imageUrl = Utility.getImageUrlForWeatherCondition(weatherId);
-            // Only publish a new wallpaper if we have a valid image
-            if (imageUrl != null) {
-                publishArtwork(new Artwork.Builder()
-                        .imageUri(Uri.parse(imageUrl))
-                        .title(desc)
-                        .byline(location)
-                        .viewIntent(new Intent(this, MainActivity.class))
-                        .build());
-            }
+            publishWeather(cursor.getInt(INDEX_WEATHER_ID), cursor.getString(INDEX_SHORT_DESC));
         }
         cursor.close();
     }
+
+    private void publishWeather(int weatherId, String desc) {
+        String imageUrl = Utility.getImageUrlForWeatherCondition(weatherId);
+        // Only publish a new wallpaper if we have a valid image
+        if (imageUrl != null) {
+            publishArtwork(new Artwork.Builder()
+                    .imageUri(Uri.parse(imageUrl))
+                    .title(desc)
+                    .byline(Utility.getPreferredLocation(this))
+                    .viewIntent(new Intent(this, MainActivity.class))
+                    .build());
+        }
+    }
 }
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.net;
+
+import android.os.SystemClock;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import okhttp3.Dns;
+
+/**
+ * Remembers successful lookups for a while.  The platform resolver only holds on to answers
+ * for a couple of seconds, and we talk to the same handful of hosts on every sync.
+ */
+class CachingDns implements Dns {
+
+    private final Dns mDelegate;
+    private final long mTtlMillis;
+    private final Map<String, Entry> mCache = new HashMap<String, Entry>();
+
+    private static class Entry {
+        final List<InetAddress> addresses;
+        final long expiresAt;
+
+        Entry(List<InetAddress> addresses, long expiresAt) {
+            this.addresses = addresses;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    CachingDns(Dns delegate, long ttlMillis) {
+        mDelegate = delegate;
+        mTtlMillis = ttlMillis;
+    }
+
+    @Override
+    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+        long now = SystemClock.elapsedRealtime();
+        synchronized (mCache) {
+            Entry entry = mCache.get(hostname);
+            if (entry != null && entry.expiresAt > now) {
+                return entry.addresses;
+            }
+        }
+
+        // Resolve outside the lock so one slow lookup doesn't hold up the others.
+        List<InetAddress> addresses = mDelegate.lookup(hostname);
+        synchronized (mCache) {
+            mCache.put(hostname, new Entry(addresses, now + mTtlMillis));
+        }
+        return addresses;
+    }
+}
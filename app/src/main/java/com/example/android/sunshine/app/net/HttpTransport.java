@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.net;
+
+import android.support.annotation.IntDef;
+import android.support.v4.os.CancellationSignal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Map;
+
+/**
+ * The way the sync adapter talks to the outside world.  Everything it fetches goes through
+ * one of these, so the connection handling lives in one place and tests can swap in a
+ * transport pointed at a local server.
+ */
+public interface HttpTransport {
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({PHASE_DNS, PHASE_CONNECT, PHASE_WAIT, PHASE_DOWNLOAD})
+    @interface Phase {}
+
+    // The stages of a request that are timed.
+    // Looking up the host.
+    int PHASE_DNS = 0;
+    // Setting up the connection, TLS handshake included.  Free when a pooled one is reused.
+    int PHASE_CONNECT = 1;
+    // From starting to send the request to having the response headers back.
+    int PHASE_WAIT = 2;
+    // Blocked reading the response body.
+    int PHASE_DOWNLOAD = 3;
+
+    /**
+     * Performs a GET and returns once the status line and headers have arrived.  The body is
+     * left on the wire for the caller to stream; the response must be closed when done with
+     * so its connection can go back to the pool.
+     *
+     * Cancelling the signal aborts the request wherever it has got to: a blocked connect or
+     * read fails at once with an IOException, and the connection is dropped rather than
+     * returned to the pool.
+     *
+     * @param url the full URL to fetch
+     * @param headers extra request headers, or null
+     * @param signal cancels the request, or null if it can't be cancelled.  Each request
+     *               needs a signal of its own.
+     * @throws android.support.v4.os.OperationCanceledException if the signal had already been
+     * cancelled.
+     */
+    Response get(String url, Map<String, String> headers, CancellationSignal signal)
+            throws IOException;
+
+    /**
+     * @return the number of bytes sent over the network since this transport was created,
+     * headers included.
+     */
+    long getBytesSent();
+
+    /**
+     * @return the number of bytes received over the network since this transport was
+     * created, headers included and before any decompression.
+     */
+    long getBytesReceived();
+
+    /**
+     * @return the time spent in the given stage of a request, in nanoseconds, summed over
+     * every request since this transport was created.  Requests made side by side each count
+     * in full.
+     */
+    long getNetworkNanos(@Phase int phase);
+
+    interface Response extends Closeable {
+
+        int getCode();
+
+        /**
+         * @return the value of the named response header, or null if it wasn't sent.
+         */
+        String getHeader(String name);
+
+        /**
+         * @return the response body, already decompressed.
+         */
+        InputStream getBody() throws IOException;
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.net;
+
+import android.support.v4.os.CancellationSignal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
+import okhttp3.Dns;
+import okhttp3.EventListener;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * {@link HttpTransport} backed by a single OkHttp client.  Keeping the client around means
+ * idle connections are pooled and reused across requests and syncs, so only the first request
+ * to a host pays for the TCP (and TLS) handshake.  OkHttp also asks for gzip and unpacks it
+ * transparently, as long as we don't set Accept-Encoding ourselves.
+ */
+public class OkHttpTransport implements HttpTransport {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 20 * 1000;
+
+    // Syncs are hours apart, but a multi-location sync makes its requests back to back.
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+    private static final long DNS_TTL_MILLIS = 10 * 60 * 1000;
+
+    private final OkHttpClient mClient;
+    private final AtomicLong mBytesSent = new AtomicLong();
+    private final AtomicLong mBytesReceived = new AtomicLong();
+    // Indexed by phase.
+    private final AtomicLong[] mNetworkNanos = {
+            new AtomicLong(), new AtomicLong(), new AtomicLong(), new AtomicLong()
+    };
+
+    public OkHttpTransport() {
+        this(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS);
+    }
+
+    public OkHttpTransport(int connectTimeoutMillis, int readTimeoutMillis) {
+        mClient = new OkHttpClient.Builder()
+                .connectTimeout(connectTimeoutMillis, TimeUnit.MILLISECONDS)
+                .readTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS)
+                .writeTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS)
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS,
+                        KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                .dns(new CachingDns(Dns.SYSTEM, DNS_TTL_MILLIS))
+                // A network interceptor sees what actually goes over the socket: it runs
+                // after OkHttp has added its own headers and before gzip is unpacked.
+                .addNetworkInterceptor(new ByteCountingInterceptor())
+                .eventListenerFactory(new EventListener.Factory() {
+                    @Override
+                    public EventListener create(Call call) {
+                        return new PhaseTimingListener();
+                    }
+                })
+                .build();
+    }
+
+    @Override
+    public HttpTransport.Response get(String url, Map<String, String> headers,
+                                      CancellationSignal signal) throws IOException {
+        Request.Builder builder = new Request.Builder().url(url).get();
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                builder.header(header.getKey(), header.getValue());
+            }
+        }
+        final Call call = mClient.newCall(builder.build());
+        if (signal != null) {
+            signal.throwIfCanceled();
+            // Cancelling the call closes its socket, so this also reaches a body that's
+            // part way through being read.
+            signal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    call.cancel();
+                }
+            });
+        }
+        return new OkHttpResponse(call.execute());
+    }
+
+    @Override
+    public long getBytesSent() {
+        return mBytesSent.get();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return mBytesReceived.get();
+    }
+
+    @Override
+    public long getNetworkNanos(@Phase int phase) {
+        return mNetworkNanos[phase].get();
+    }
+
+    private static class OkHttpResponse implements HttpTransport.Response {
+        private final okhttp3.Response mResponse;
+
+        OkHttpResponse(okhttp3.Response response) {
+            mResponse = response;
+        }
+
+        @Override
+        public int getCode() {
+            return mResponse.code();
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return mResponse.header(name);
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            return mResponse.body().byteStream();
+        }
+
+        @Override
+        public void close() {
+            // Closing the body (rather than disconnecting) hands the connection back to the
+            // pool once it has been read to the end.
+            mResponse.close();
+        }
+    }
+
+    private class ByteCountingInterceptor implements Interceptor {
+        @Override
+        public okhttp3.Response intercept(Chain chain) throws IOException {
+            Request request = chain.request();
+            long sent = request.headers().byteCount();
+            RequestBody requestBody = request.body();
+            if (requestBody != null && requestBody.contentLength() > 0) {
+                sent += requestBody.contentLength();
+            }
+            mBytesSent.addAndGet(sent);
+
+            okhttp3.Response response = chain.proceed(request);
+            mBytesReceived.addAndGet(response.headers().byteCount());
+            ResponseBody body = response.body();
+            if (body == null) {
+                return response;
+            }
+            return response.newBuilder()
+                    .body(new CountingResponseBody(body))
+                    .build();
+        }
+    }
+
+    /**
+     * Times the stages of one call up to its response headers.  OkHttp makes one of these per
+     * call, and only calls it from the thread running the call.
+     */
+    private class PhaseTimingListener extends EventListener {
+        private long mDnsStart;
+        private long mConnectStart;
+        private long mRequestStart;
+
+        @Override
+        public void dnsStart(Call call, String domainName) {
+            mDnsStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsEnd(Call call, String domainName, List<InetAddress> addresses) {
+            mNetworkNanos[PHASE_DNS].addAndGet(System.nanoTime() - mDnsStart);
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress address, Proxy proxy) {
+            mConnectStart = System.nanoTime();
+        }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress address, Proxy proxy,
+                               Protocol protocol) {
+            mNetworkNanos[PHASE_CONNECT].addAndGet(System.nanoTime() - mConnectStart);
+        }
+
+        @Override
+        public void connectFailed(Call call, InetSocketAddress address, Proxy proxy,
+                                  Protocol protocol, IOException e) {
+            mNetworkNanos[PHASE_CONNECT].addAndGet(System.nanoTime() - mConnectStart);
+        }
+
+        @Override
+        public void requestHeadersStart(Call call) {
+            mRequestStart = System.nanoTime();
+        }
+
+        @Override
+        public void responseHeadersEnd(Call call, okhttp3.Response response) {
+            mNetworkNanos[PHASE_WAIT].addAndGet(System.nanoTime() - mRequestStart);
+        }
+    }
+
+    /**
+     * Passes the body through untouched, counting the bytes as they are read and the time
+     * spent waiting on them.
+     */
+    private class CountingResponseBody extends ResponseBody {
+        private final ResponseBody mDelegate;
+        private final BufferedSource mSource;
+
+        CountingResponseBody(ResponseBody delegate) {
+            mDelegate = delegate;
+            mSource = Okio.buffer(new ForwardingSource(delegate.source()) {
+                @Override
+                public long read(Buffer sink, long byteCount) throws IOException {
+                    long start = System.nanoTime();
+                    long read;
+                    try {
+                        read = super.read(sink, byteCount);
+                    } finally {
+                        mNetworkNanos[PHASE_DOWNLOAD].addAndGet(System.nanoTime() - start);
+                    }
+                    if (read > 0) {
+                        mBytesReceived.addAndGet(read);
+                    }
+                    return read;
+                }
+            });
+        }
+
+        @Override
+        public MediaType contentType() {
+            return mDelegate.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+            return mDelegate.contentLength();
+        }
+
+        @Override
+        public BufferedSource source() {
+            return mSource;
+        }
+    }
+}
@@ -1,18 +1,28 @@
 package com.example.android.sunshine.app.service;
 
+import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
+import android.util.Log;
 
 import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.ForecastFanOut;
+import com.example.android.sunshine.app.sync.ForecastUpdate;
+import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.PendingResult;
+import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.MessageEvent;
 import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 import com.google.android.gms.wearable.WearableListenerService;
 
+import java.util.concurrent.TimeUnit;
+
 public class SunshineWearableService extends WearableListenerService {
+    private static final String LOG_TAG = SunshineWearableService.class.getSimpleName();
 
     private static final String GET_WEATHER_DATA_PATH = "/weather-data-request";
     private static final String WEATHER_DATA_PATH = "/weather-data";
@@ -23,11 +33,17 @@ public class SunshineWearableService extends WearableListenerService {
     private static final int COL_WEATHER_MAX_TEMP = 0;
     private static final int COL_WEATHER_MIN_TEMP = 1;
     private static final int COL_WEATHER_CONDITION_ID = 2;
+    private static final int COL_WEATHER_MAX_TEMP_IMPERIAL = 3;
+    private static final int COL_WEATHER_MIN_TEMP_IMPERIAL = 4;
+    // How long a push waits for Play services before giving up on the wearable.
+    private static final long CONNECT_TIMEOUT_SECONDS = 30;
 
     private static final String[] WEATHER_COLUMNS = {
             WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
             WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
             WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP_IMPERIAL,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP_IMPERIAL
     };
 
 
@@ -57,21 +73,64 @@ public class SunshineWearableService extends WearableListenerService {
                 return;
             }
 
-            double highTemp = cursor.getDouble(COL_WEATHER_MAX_TEMP);
-            double lowTemp = cursor.getDouble(COL_WEATHER_MIN_TEMP);
+            String highTemp = Utility.formatTemperature(this,
+                    cursor.getDouble(COL_WEATHER_MAX_TEMP),
+                    cursor.getDouble(COL_WEATHER_MAX_TEMP_IMPERIAL));
+            String lowTemp = Utility.formatTemperature(this,
+                    cursor.getDouble(COL_WEATHER_MIN_TEMP),
+                    cursor.getDouble(COL_WEATHER_MIN_TEMP_IMPERIAL));
             int conditionId = cursor.getInt(COL_WEATHER_CONDITION_ID);
 
-            PutDataMapRequest putDataMapReq = PutDataMapRequest.create(WEATHER_DATA_PATH).setUrgent();
-            putDataMapReq.getDataMap().putInt(WEATHER_IMAGE_KEY, conditionId);
-            putDataMapReq.getDataMap().putLong(TIME_RETRIEVED, System.currentTimeMillis());
-            putDataMapReq.getDataMap().putString(HIGH_TEMP_KEY, Utility.formatTemperature(this, highTemp));
-            putDataMapReq.getDataMap().putString(LOW_TEMP_KEY, Utility.formatTemperature(this, lowTemp));
+            putWeatherData(mGoogleApiClient, highTemp, lowTemp, conditionId);
 
+            cursor.close();
+        }
+    }
 
-            PutDataRequest putDataReq = putDataMapReq.asPutDataRequest();
-            Wearable.DataApi.putDataItem(mGoogleApiClient, putDataReq);
+    private static PendingResult<DataApi.DataItemResult> putWeatherData(
+            GoogleApiClient googleApiClient, String highTemp, String lowTemp, int conditionId) {
+        PutDataMapRequest putDataMapReq = PutDataMapRequest.create(WEATHER_DATA_PATH).setUrgent();
+        putDataMapReq.getDataMap().putInt(WEATHER_IMAGE_KEY, conditionId);
+        putDataMapReq.getDataMap().putLong(TIME_RETRIEVED, System.currentTimeMillis());
+        putDataMapReq.getDataMap().putString(HIGH_TEMP_KEY, highTemp);
+        putDataMapReq.getDataMap().putString(LOW_TEMP_KEY, lowTemp);
 
-            cursor.close();
+
+        PutDataRequest putDataReq = putDataMapReq.asPutDataRequest();
+        return Wearable.DataApi.putDataItem(googleApiClient, putDataReq);
+    }
+
+    /**
+     * Pushes today's weather to the wearable as soon as a sync changes it, rather than waiting
+     * for the wearable to ask.
+     */
+    public static class ForecastPush implements ForecastFanOut.Consumer {
+        @Override
+        public void onForecastUpdated(Context context, ForecastUpdate update) {
+            if (!update.hasToday() || !update.isTodayChanged()) {
+                return;
+            }
+            // We're on the push's own thread, so it's fine to block until Play services is
+            // connected, and then until the data item has gone out.
+            GoogleApiClient googleApiClient = new GoogleApiClient.Builder(context)
+                    .addApi(Wearable.API)
+                    .build();
+            ConnectionResult result =
+                    googleApiClient.blockingConnect(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (!result.isSuccess()) {
+                Log.d(LOG_TAG, "Not pushing weather to the wearable: " + result);
+                return;
+            }
+            try {
+                putWeatherData(googleApiClient,
+                        Utility.formatTemperature(context, update.getMaxTemp(),
+                                update.getMaxTempImperial()),
+                        Utility.formatTemperature(context, update.getMinTemp(),
+                                update.getMinTempImperial()),
+                        update.getWeatherId()).await(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } finally {
+                googleApiClient.disconnect();
+            }
         }
     }
 
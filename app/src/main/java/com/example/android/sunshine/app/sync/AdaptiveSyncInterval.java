@@ -0,0 +1,101 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+
+/**
+ * Picks how often the periodic sync runs from how much recent syncs actually changed.  When the
+ * weather is settled most syncs rewrite nothing, so the interval stretches out; when a front
+ * is moving through and forecasts keep changing, it tightens up.
+ *
+ * One of these collects the changes from a single sync; {@link #update} then folds them into a
+ * smoothed volatility, moves the interval if needed, and persists both so they survive a
+ * restart.
+ */
+public class AdaptiveSyncInterval {
+    private static final String LOG_TAG = AdaptiveSyncInterval.class.getSimpleName();
+
+    // Bounds for the interval, in seconds.
+    public static final int MIN_SYNC_INTERVAL = 60 * 60;
+    public static final int MAX_SYNC_INTERVAL = 60 * 60 * 12;
+
+    // How much weight the latest sync gets in the smoothed volatility.
+    private static final float SMOOTHING = 0.3f;
+    // Above this share of days changing, sync more often; below the other, less often.
+    private static final float VOLATILE_THRESHOLD = 0.3f;
+    private static final float STABLE_THRESHOLD = 0.05f;
+    // How far one decision moves the interval.
+    private static final float STEP = 1.5f;
+
+    private int mComparedDays;
+    private int mChangedDays;
+
+    /**
+     * Records one batch's writes.
+     *
+     * @param comparedDays stored days that a freshly fetched day was compared against.
+     * @param changedDays how many of those turned out to be different.
+     */
+    void addSample(int comparedDays, int changedDays) {
+        mComparedDays += comparedDays;
+        mChangedDays += changedDays;
+    }
+
+    /**
+     * Folds this sync's changes into the stored volatility and, if it has crossed a threshold,
+     * moves the periodic sync interval.  Does nothing if there was nothing to compare, which
+     * is the case for a location we've never fetched before.
+     */
+    void update(Context context) {
+        if (mComparedDays == 0) {
+            return;
+        }
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String volatilityKey = context.getString(R.string.pref_forecast_volatility_key);
+
+        float sample = (float) mChangedDays / mComparedDays;
+        float volatility = prefs.contains(volatilityKey)
+                ? SMOOTHING * sample + (1 - SMOOTHING) * prefs.getFloat(volatilityKey, 0)
+                : sample;
+
+        int interval = getSyncInterval(context);
+        int newInterval = interval;
+        if (volatility > VOLATILE_THRESHOLD) {
+            newInterval = Math.max(MIN_SYNC_INTERVAL, (int) (interval / STEP));
+        } else if (volatility < STABLE_THRESHOLD) {
+            newInterval = Math.min(MAX_SYNC_INTERVAL, (int) (interval * STEP));
+        }
+
+        SharedPreferences.Editor editor = prefs.edit();
+        editor.putFloat(volatilityKey, volatility);
+        if (newInterval != interval) {
+            editor.putInt(context.getString(R.string.pref_sync_interval_key), newInterval);
+        }
+        editor.apply();
+
+        if (newInterval != interval) {
+            Log.d(LOG_TAG, "Volatility " + volatility + ", sync interval " + interval + "s -> "
+                    + newInterval + "s");
+            SunshineSyncAdapter.configurePeriodicSync(context, newInterval,
+                    getSyncFlextime(newInterval));
+        }
+    }
+
+    /**
+     * @return the current periodic sync interval in seconds, or the default if it has never
+     * been adjusted.
+     */
+    public static int getSyncInterval(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getInt(context.getString(R.string.pref_sync_interval_key),
+                SunshineSyncAdapter.SYNC_INTERVAL);
+    }
+
+    public static int getSyncFlextime(int syncInterval) {
+        return syncInterval / 3;
+    }
+}
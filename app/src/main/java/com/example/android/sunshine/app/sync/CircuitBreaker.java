@@ -0,0 +1,145 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Keeps track of whether one of OpenWeatherMap's endpoints is answering, so that once it has
+ * clearly gone down we stop sending it requests for a while instead of spending the battery
+ * (and the server's patience) on every sync and manual refresh.
+ *
+ * After {@link #FAILURE_THRESHOLD} failures in a row the breaker opens and turns every
+ * request away.  How long it stays open doubles with each further failure, up to
+ * {@link #MAX_OPEN_MILLIS}, with some jitter so that every device that saw the same outage
+ * doesn't come back at the same moment.  Once that time is up, a single probe request is let
+ * through: if it works the breaker closes again, and if not it reopens for longer.
+ */
+class CircuitBreaker {
+    private static final String LOG_TAG = CircuitBreaker.class.getSimpleName();
+
+    // The endpoints we keep a breaker for.
+    static final String ENDPOINT_FORECAST = "forecast/daily";
+    static final String ENDPOINT_GROUP = "group";
+    static final String ENDPOINT_INTERVALS = "forecast";
+    static final String ENDPOINT_OPEN_METEO = "open-meteo/forecast";
+    static final String ENDPOINT_OPEN_METEO_ARCHIVE = "open-meteo/archive";
+
+    static final int FAILURE_THRESHOLD = 3;
+    static final long BASE_OPEN_MILLIS = 30 * 1000;
+    static final long MAX_OPEN_MILLIS = 30 * 60 * 1000;
+    // A probe that never reports back (say it was cancelled) stops blocking others after this.
+    private static final long PROBE_TIMEOUT_MILLIS = 60 * 1000;
+
+    private static final Map<String, CircuitBreaker> sBreakers =
+            new HashMap<String, CircuitBreaker>();
+
+    private final String mEndpoint;
+    private final int mFailureThreshold;
+    private final long mBaseOpenMillis;
+    private final long mMaxOpenMillis;
+    private final Random mRandom;
+
+    private int mConsecutiveFailures;
+    // Both in SystemClock.elapsedRealtime() time.  Zero when the breaker is closed.
+    private long mOpenUntil;
+    private long mProbeStartedAt;
+
+    /**
+     * @return the process-wide breaker for the given endpoint.
+     */
+    static synchronized CircuitBreaker get(String endpoint) {
+        CircuitBreaker breaker = sBreakers.get(endpoint);
+        if (breaker == null) {
+            breaker = new CircuitBreaker(endpoint, FAILURE_THRESHOLD, BASE_OPEN_MILLIS,
+                    MAX_OPEN_MILLIS, new Random());
+            sBreakers.put(endpoint, breaker);
+        }
+        return breaker;
+    }
+
+    // Everything but the tests should go through get().
+    CircuitBreaker(String endpoint, int failureThreshold, long baseOpenMillis,
+                   long maxOpenMillis, Random random) {
+        mEndpoint = endpoint;
+        mFailureThreshold = failureThreshold;
+        mBaseOpenMillis = baseOpenMillis;
+        mMaxOpenMillis = maxOpenMillis;
+        mRandom = random;
+    }
+
+    /**
+     * @return true if a request may go out now.  Once the breaker has been open long enough
+     * this lets a single probe through, and the caller has to report how it went.
+     */
+    synchronized boolean allowRequest() {
+        if (mOpenUntil == 0) {
+            return true;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (now < mOpenUntil) {
+            return false;
+        }
+        if (mProbeStartedAt != 0 && now - mProbeStartedAt < PROBE_TIMEOUT_MILLIS) {
+            // Someone else is already finding out whether it's back.
+            return false;
+        }
+        mProbeStartedAt = now;
+        return true;
+    }
+
+    synchronized void recordSuccess() {
+        if (mOpenUntil != 0) {
+            Log.d(LOG_TAG, mEndpoint + " is back after " + mConsecutiveFailures + " failures");
+        }
+        mConsecutiveFailures = 0;
+        mOpenUntil = 0;
+        mProbeStartedAt = 0;
+    }
+
+    synchronized void recordFailure() {
+        mConsecutiveFailures++;
+        mProbeStartedAt = 0;
+        if (mConsecutiveFailures < mFailureThreshold) {
+            return;
+        }
+        long openMillis = getBackoffMillis(mConsecutiveFailures - mFailureThreshold);
+        mOpenUntil = SystemClock.elapsedRealtime() + openMillis;
+        Log.d(LOG_TAG, mEndpoint + " failed " + mConsecutiveFailures + " times, holding off for "
+                + openMillis + "ms");
+    }
+
+    /**
+     * @return true if requests are currently being turned away.
+     */
+    synchronized boolean isOpen() {
+        return mOpenUntil != 0 && SystemClock.elapsedRealtime() < mOpenUntil;
+    }
+
+    /**
+     * @return how long until the breaker will let a request through again, or 0 if it would
+     * now.
+     */
+    synchronized long getRetryDelayMillis() {
+        if (mOpenUntil == 0) {
+            return 0;
+        }
+        return Math.max(0, mOpenUntil - SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Exponential backoff with jitter: the nth retry waits somewhere between half and all of
+     * base * 2^n, capped at the maximum.
+     */
+    private long getBackoffMillis(int retry) {
+        long delay = mMaxOpenMillis;
+        // Past this the shift would overflow, and we'd be at the cap long before anyway.
+        if (retry < 30) {
+            delay = Math.min(mMaxOpenMillis, mBaseOpenMillis << retry);
+        }
+        return delay / 2 + (long) (mRandom.nextDouble() * (delay / 2));
+    }
+}
@@ -0,0 +1,180 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
+import com.example.android.sunshine.app.service.SunshineWearableService;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands what a sync wrote for the preferred location to everything that shows it: the widgets,
+ * Muzei, the notification and any connected wearable.  Each consumer runs on a thread of its
+ * own, so a slow one (the notification waits on its large icon) holds up neither the others
+ * nor the sync, which goes on as soon as it has committed.  A consumer sees the updates in the
+ * order they were published.
+ */
+public class ForecastFanOut {
+    private static final String LOG_TAG = ForecastFanOut.class.getSimpleName();
+
+    /**
+     * Something that wants to hear about each update to the preferred location's weather.
+     * Called on the consumer's own background thread.
+     */
+    public interface Consumer {
+        void onForecastUpdated(Context context, ForecastUpdate update);
+    }
+
+    private static ForecastFanOut sInstance;
+
+    // Each consumer with the executor it runs on, in the order they were registered.
+    private final Map<Consumer, ExecutorService> mConsumers =
+            new LinkedHashMap<Consumer, ExecutorService>();
+
+    // The last full row for today that went out for each location, so an update of just the
+    // current conditions can be laid over it.
+    private final Map<String, ContentValues> mLastToday = new HashMap<String, ContentValues>();
+
+    /**
+     * @return the app's fan-out, with the app's own consumers registered.
+     */
+    public static synchronized ForecastFanOut getInstance() {
+        if (sInstance == null) {
+            sInstance = new ForecastFanOut();
+            sInstance.register(new WidgetUpdater());
+            sInstance.register(new MuzeiUpdater());
+            sInstance.register(new WeatherNotifier());
+            sInstance.register(new SunshineWearableService.ForecastPush());
+        }
+        return sInstance;
+    }
+
+    // Everything but the tests should go through getInstance().
+    ForecastFanOut() {
+    }
+
+    public synchronized void register(Consumer consumer) {
+        if (!mConsumers.containsKey(consumer)) {
+            mConsumers.put(consumer, createConsumerExecutor());
+        }
+    }
+
+    public synchronized void unregister(Consumer consumer) {
+        ExecutorService executor = mConsumers.remove(consumer);
+        if (executor != null) {
+            // Whatever it has already been handed still gets delivered.
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Hands a freshly written forecast to every consumer, and returns without waiting for
+     * any of them.
+     *
+     * @param locationSetting the preferred location, as the user set it, which the forecast
+     *                        may be the canonical location for.
+     */
+    synchronized void publish(Context context, String locationSetting,
+                              LocationForecast forecast) {
+        long[] changedDates = new long[forecast.changedDates.size()];
+        int i = 0;
+        for (long date : forecast.changedDates) {
+            changedDates[i++] = date;
+        }
+        final ForecastUpdate update =
+                new ForecastUpdate(locationSetting, changedDates, getToday(forecast));
+        final Context appContext = context.getApplicationContext();
+        for (Map.Entry<Consumer, ExecutorService> entry : mConsumers.entrySet()) {
+            final Consumer consumer = entry.getKey();
+            entry.getValue().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        consumer.onForecastUpdated(appContext, update);
+                    } catch (RuntimeException e) {
+                        // One consumer's bug shouldn't take the others, or the app, down.
+                        Log.e(LOG_TAG, "Error updating " + consumer.getClass().getSimpleName(),
+                                e);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * @return today's full row for the forecast's location, as written, or null if we don't
+     * have one in memory.
+     */
+    private ContentValues getToday(LocationForecast forecast) {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ContentValues values = null;
+        for (ContentValues day : forecast.days) {
+            // The dates have been normalized by the write.
+            if (day.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE) == today) {
+                values = new ContentValues(day);
+                break;
+            }
+        }
+        if (values == null && forecast.current != null) {
+            ContentValues last = mLastToday.get(forecast.locationSetting);
+            if (last != null
+                    && last.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE) == today) {
+                values = new ContentValues(last);
+                values.putAll(forecast.current);
+            }
+        }
+        if (values != null) {
+            mLastToday.put(forecast.locationSetting, values);
+        }
+        return values;
+    }
+
+    private static ExecutorService createConsumerExecutor() {
+        // One thread, so that a consumer never sees an older update after a newer one.
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        // Syncs are hours apart, so don't keep the threads around in between.
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Tells the widgets the weather changed, passing today's weather along so the Today widget
+     * can redraw without going back to the database for it.
+     */
+    private static class WidgetUpdater implements Consumer {
+        @Override
+        public void onForecastUpdated(Context context, ForecastUpdate update) {
+            // Setting the package ensures that only components in our app will receive the
+            // broadcast
+            Intent dataUpdatedIntent = new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED)
+                    .setPackage(context.getPackageName());
+            context.sendBroadcast(SunshineSyncAdapter.putForecastExtras(dataUpdatedIntent,
+                    update));
+        }
+    }
+
+    private static class MuzeiUpdater implements Consumer {
+        @Override
+        public void onForecastUpdated(Context context, ForecastUpdate update) {
+            // Muzei is only compatible with Jelly Bean MR1+ devices, so there's no need to
+            // update the Muzei background on lower API level devices
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+                Intent intent = new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED)
+                        .setClass(context, WeatherMuzeiSource.class);
+                context.startService(SunshineSyncAdapter.putForecastExtras(intent, update));
+            }
+        }
+    }
+}
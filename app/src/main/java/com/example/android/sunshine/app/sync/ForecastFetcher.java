@@ -0,0 +1,556 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.net.Uri;
+import android.support.v4.os.CancellationSignal;
+import android.support.v4.os.OperationCanceledException;
+import android.text.format.Time;
+import android.util.JsonReader;
+import android.util.Log;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.data.DerivedWeather;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.net.HttpTransport;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Fetches and parses the forecast for one location.  This never touches the database, so any
+ * number of these can run side by side; the sync adapter writes the results afterwards.
+ *
+ * Failures are reported through {@link LocationForecast#status} rather than thrown, so one
+ * bad location can't take the rest of a sync down with it.
+ */
+class ForecastFetcher implements Callable<LocationForecast> {
+    private static final String LOG_TAG = ForecastFetcher.class.getSimpleName();
+
+    // How many days of forecast we ask for.
+    static final int FORECAST_DAYS = 14;
+
+    // Every one of these has to be present in a day of the forecast before we'll store it.
+    private static final String[] REQUIRED_DAY_COLUMNS = new String[] {
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
+    };
+
+    private final HttpTransport mTransport;
+    private final String mLocationSetting;
+    private final String[] mValidators;
+    private final ResponseJournal mJournal;
+    private final ResponseJournal.Record mJournaled;
+    private final CancellationSignal mSignal;
+
+    /**
+     * @param validators the ETag and Last-Modified stored for this location, or null to make
+     *                   an unconditional request.
+     * @param journal where to journal the response once it has parsed, or null not to.
+     * @param journaled the latest response journaled for this location, or null.  If there
+     *                  are no stored validators, its validators are sent instead, and a 304
+     *                  is answered by replaying it.
+     * @param signal cancels the fetch, wherever it has got to.  The forecast then comes back
+     *               with its status still {@link SunshineSyncAdapter#LOCATION_STATUS_UNKNOWN}.
+     */
+    ForecastFetcher(HttpTransport transport, String locationSetting, String[] validators,
+                    ResponseJournal journal, ResponseJournal.Record journaled,
+                    CancellationSignal signal) {
+        mTransport = transport;
+        mLocationSetting = locationSetting;
+        mValidators = validators;
+        mJournal = journal;
+        mJournaled = journaled;
+        mSignal = signal;
+    }
+
+    @Override
+    public LocationForecast call() {
+        LocationForecast forecast = new LocationForecast(mLocationSetting);
+        forecast.fetchedAt = System.currentTimeMillis();
+        String[] validators = mValidators;
+        if (validators == null && mJournaled != null) {
+            validators = new String[]{mJournaled.eTag, mJournaled.lastModified};
+        }
+
+        CircuitBreaker breaker = CircuitBreaker.get(CircuitBreaker.ENDPOINT_FORECAST);
+        if (!breaker.allowRequest()) {
+            // The forecast endpoint has been failing; don't add to its load.
+            forecast.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+            forecast.error = "Holding off requests to a failing server";
+            return forecast;
+        }
+
+        // These two need to be declared outside the try/catch
+        // so that they can be closed in the finally block.
+        HttpTransport.Response response = null;
+        JsonReader reader = null;
+
+        String format = "json";
+        String units = "metric";
+        int numDays = FORECAST_DAYS;
+
+        try {
+            // Construct the URL for the OpenWeatherMap query
+            // Possible parameters are avaiable at OWM's forecast API page, at
+            // http://openweathermap.org/API#forecast
+            final String FORECAST_BASE_URL =
+                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
+            final String QUERY_PARAM = "q";
+            final String FORMAT_PARAM = "mode";
+            final String UNITS_PARAM = "units";
+            final String DAYS_PARAM = "cnt";
+            final String APPID_PARAM = "APPID";
+
+            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
+                    .appendQueryParameter(QUERY_PARAM, mLocationSetting)
+                    .appendQueryParameter(FORMAT_PARAM, format)
+                    .appendQueryParameter(UNITS_PARAM, units)
+                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
+                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                    .build();
+
+            // If we're still holding a forecast from today onwards for this location, let the
+            // server tell us it hasn't changed instead of sending the whole thing again.
+            Map<String, String> headers = new HashMap<String, String>();
+            if (validators != null) {
+                if (validators[0] != null) {
+                    headers.put("If-None-Match", validators[0]);
+                }
+                if (validators[1] != null) {
+                    headers.put("If-Modified-Since", validators[1]);
+                }
+            }
+
+            // Create the request to OpenWeatherMap, and wait for the response headers
+            response = mTransport.get(builtUri.toString(), headers, mSignal);
+            if (response.getCode() >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+                breaker.recordFailure();
+            } else {
+                breaker.recordSuccess();
+            }
+
+            if (response.getCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                if (mValidators == null) {
+                    // Nothing stored, but the journal still has the response the server says
+                    // is current.
+                    if (replay(mJournaled, forecast)) {
+                        forecast.fetchedAt = System.currentTimeMillis();
+                        return forecast;
+                    }
+                    // It no longer parses, so ask again for the whole thing.
+                    return new ForecastFetcher(mTransport, mLocationSetting, null, mJournal,
+                            null, mSignal).call();
+                }
+                // What we have is still current, so there is nothing to parse or write.
+                forecast.notModified = true;
+                forecast.status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+                return forecast;
+            }
+            if (response.getCode() >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+                // OpenWeatherMap reports its own errors as JSON with a "cod", but anything
+                // from the server side of the connection is unlikely to be.
+                Log.e(LOG_TAG, "Server returned " + response.getCode() + " for " + mLocationSetting);
+                forecast.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                forecast.error = "Server returned " + response.getCode();
+                return forecast;
+            }
+
+            InputStream inputStream = response.getBody();
+            if (inputStream == null) {
+                // Nothing to do.
+                return forecast;
+            }
+
+            forecast.eTag = response.getHeader("ETag");
+            forecast.lastModified = response.getHeader("Last-Modified");
+
+            // Parse the response as it comes off the socket instead of buffering it into a
+            // String first, gzipping a copy for the journal on the way.  An empty stream shows
+            // up here as an EOFException.
+            CompressingInputStream compressing = null;
+            if (mJournal != null) {
+                compressing = new CompressingInputStream(inputStream);
+                inputStream = compressing;
+            }
+            reader = new JsonReader(new BufferedReader(new InputStreamReader(inputStream, "UTF-8")));
+            long parseStart = System.nanoTime();
+            getWeatherDataFromJson(reader, forecast, mSignal);
+            forecast.parseNanos = System.nanoTime() - parseStart;
+            if (forecast.status == SunshineSyncAdapter.LOCATION_STATUS_OK && compressing != null) {
+                journal(compressing.finish(), forecast);
+            }
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            // The server answered, but not with anything we know how to read.
+            Log.e(LOG_TAG, e.getMessage(), e);
+            forecast.days.clear();
+            forecast.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+            forecast.error = e.toString();
+        } catch (IOException e) {
+            if (mSignal.isCanceled()) {
+                // The read was cut off on purpose; that says nothing about the server.
+                return cancelled(forecast);
+            }
+            Log.e(LOG_TAG, "Error ", e);
+            breaker.recordFailure();
+            // If the stream was cut off part way through, don't keep half a forecast.
+            forecast.days.clear();
+            forecast.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+            forecast.error = e.toString();
+        } catch (OperationCanceledException e) {
+            return cancelled(forecast);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+            if (response != null) {
+                try {
+                    response.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing response", e);
+                }
+            }
+        }
+        return forecast;
+    }
+
+    private LocationForecast cancelled(LocationForecast forecast) {
+        Log.d(LOG_TAG, "Fetch of " + mLocationSetting + " cancelled");
+        forecast.days.clear();
+        forecast.status = SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+        return forecast;
+    }
+
+    private void journal(byte[] body, LocationForecast forecast) {
+        try {
+            mJournal.append(new ResponseJournal.Record(mLocationSetting, forecast.fetchedAt,
+                    forecast.eTag, forecast.lastModified, body));
+        } catch (IOException e) {
+            // We still have the forecast; it just can't be replayed.
+            Log.e(LOG_TAG, "Error journaling response", e);
+        }
+    }
+
+    /**
+     * Parses a journaled response into the forecast, as if it had just been fetched at the
+     * time it was journaled.  A response that no longer parses leaves the forecast's status
+     * as {@link SunshineSyncAdapter#LOCATION_STATUS_SERVER_INVALID}.
+     *
+     * @return true if the forecast was replayed.
+     */
+    static boolean replay(ResponseJournal.Record record, LocationForecast forecast) {
+        forecast.fetchedAt = record.fetchedAt;
+        forecast.eTag = record.eTag;
+        forecast.lastModified = record.lastModified;
+        JsonReader reader = null;
+        try {
+            reader = new JsonReader(new BufferedReader(
+                    new InputStreamReader(record.openBody(), "UTF-8")));
+            long parseStart = System.nanoTime();
+            getWeatherDataFromJson(reader, forecast, null);
+            forecast.parseNanos = System.nanoTime() - parseStart;
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            Log.e(LOG_TAG, "Error replaying " + record.locationSetting, e);
+            forecast.days.clear();
+            forecast.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        }
+        return forecast.status == SunshineSyncAdapter.LOCATION_STATUS_OK;
+    }
+
+    /**
+     * Read the forecast JSON off the stream into the given forecast.  Its status is only set
+     * to OK once the whole document has been read; if the stream is truncated or turns out to
+     * be malformed, the exception propagates to the caller.  The first day is taken to be the
+     * day the forecast was fetched.
+     *
+     * @param signal checked between days, or null if the parse can't be cancelled.
+     * @throws OperationCanceledException if the signal is cancelled part way through.
+     */
+    private static void getWeatherDataFromJson(JsonReader reader, LocationForecast forecast,
+                                               CancellationSignal signal) throws IOException {
+
+        // These are the names of the JSON objects that need to be extracted.
+
+        // Location information
+        final String OWM_CITY = "city";
+
+        // Weather information.  Each day's forecast info is an element of the "list" array.
+        final String OWM_LIST = "list";
+
+        final String OWM_MESSAGE_CODE = "cod";
+
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
+
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
+
+        Time dayTime = new Time();
+        dayTime.setToNow();
+
+        // we start at the day returned by local time. Otherwise this is a mess.
+        int julianStartDay = Time.getJulianDay(forecast.fetchedAt, dayTime.gmtoff);
+
+        // now we work exclusively in UTC
+        dayTime = new Time();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                // do we have an error?
+                int errorCode = reader.nextInt();
+                switch (errorCode) {
+                    case HttpURLConnection.HTTP_OK:
+                        break;
+                    case HttpURLConnection.HTTP_NOT_FOUND:
+                        forecast.status = SunshineSyncAdapter.LOCATION_STATUS_INVALID;
+                        return;
+                    default:
+                        forecast.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                        forecast.error = "Server reported error " + errorCode;
+                        return;
+                }
+            } else if (OWM_CITY.equals(name)) {
+                readCity(reader, forecast);
+            } else if (OWM_LIST.equals(name)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    if (signal != null) {
+                        signal.throwIfCanceled();
+                    }
+                    ContentValues weatherValues = readDay(reader);
+
+                    // Cheating to convert this to UTC time, which is what we want anyhow
+                    weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                            dayTime.setJulianDay(julianStartDay + forecast.days.size()));
+                    // Worked out here once, rather than by everything that shows the day.
+                    DerivedWeather.putDerivedValues(weatherValues);
+                    forecast.days.add(weatherValues);
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (forecast.cityName == null) {
+            throw new MalformedJsonException("Forecast response has no city");
+        }
+        forecast.status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+    }
+
+    /**
+     * Reads the "city" object of the forecast response into the forecast.
+     */
+    private static void readCity(JsonReader reader, LocationForecast forecast)
+            throws IOException {
+        final String OWM_CITY_ID = "id";
+        final String OWM_CITY_NAME = "name";
+        final String OWM_COORD = "coord";
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_ID.equals(name)) {
+                forecast.cityId = reader.nextLong();
+            } else if (OWM_CITY_NAME.equals(name)) {
+                forecast.cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                readCoord(reader, forecast);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (forecast.cityName == null || Double.isNaN(forecast.cityLatitude)
+                || Double.isNaN(forecast.cityLongitude)) {
+            throw new MalformedJsonException("Incomplete city in forecast response");
+        }
+    }
+
+    /**
+     * Reads a "coord" object into the forecast's city coordinates.
+     */
+    static void readCoord(JsonReader reader, LocationForecast forecast) throws IOException {
+        final String OWM_LATITUDE = "lat";
+        final String OWM_LONGITUDE = "lon";
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String coordName = reader.nextName();
+            if (OWM_LATITUDE.equals(coordName)) {
+                forecast.cityLatitude = reader.nextDouble();
+            } else if (OWM_LONGITUDE.equals(coordName)) {
+                forecast.cityLongitude = reader.nextDouble();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Reads a "weather" array, which is 1 element long, into the description and weather
+     * code columns.
+     */
+    static void readWeather(JsonReader reader, ContentValues weatherValues) throws IOException {
+        final String OWM_DESCRIPTION = "main";
+        final String OWM_WEATHER_ID = "id";
+
+        reader.beginArray();
+        if (reader.hasNext()) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String weatherName = reader.nextName();
+                if (OWM_DESCRIPTION.equals(weatherName)) {
+                    weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+                            reader.nextString());
+                } else if (OWM_WEATHER_ID.equals(weatherName)) {
+                    weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                            reader.nextInt());
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        while (reader.hasNext()) {
+            reader.skipValue();
+        }
+        reader.endArray();
+    }
+
+    /**
+     * Reads one element of the "list" array into the ContentValues for a weather row.  The
+     * caller fills in the date, and the location once it is known.
+     */
+    private static ContentValues readDay(JsonReader reader) throws IOException {
+        final String OWM_PRESSURE = "pressure";
+        final String OWM_HUMIDITY = "humidity";
+        final String OWM_WINDSPEED = "speed";
+        final String OWM_WIND_DIRECTION = "deg";
+
+        // All temperatures are children of the "temp" object.
+        final String OWM_TEMPERATURE = "temp";
+        final String OWM_MAX = "max";
+        final String OWM_MIN = "min";
+
+        final String OWM_WEATHER = "weather";
+
+        ContentValues weatherValues = new ContentValues();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, reader.nextDouble());
+            } else if (OWM_HUMIDITY.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, (int) reader.nextDouble());
+            } else if (OWM_WINDSPEED.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, reader.nextDouble());
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, reader.nextDouble());
+            } else if (OWM_WEATHER.equals(name)) {
+                // Description is in a child array called "weather".
+                readWeather(reader, weatherValues);
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                // Temperatures are in a child object called "temp".  Try not to name variables
+                // "temp" when working with temperature.  It confuses everybody.
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String temperatureName = reader.nextName();
+                    if (OWM_MAX.equals(temperatureName)) {
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, reader.nextDouble());
+                    } else if (OWM_MIN.equals(temperatureName)) {
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, reader.nextDouble());
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        for (String column : REQUIRED_DAY_COLUMNS) {
+            if (!weatherValues.containsKey(column)) {
+                throw new MalformedJsonException("Forecast day is missing " + column);
+            }
+        }
+        return weatherValues;
+    }
+
+    /**
+     * Gzips a copy of everything read through it, so the journal gets the response without
+     * the whole of it ever being held on the heap.
+     */
+    private static class CompressingInputStream extends FilterInputStream {
+        private final ByteArrayOutputStream mCompressed = new ByteArrayOutputStream();
+        private final GZIPOutputStream mGzip;
+
+        CompressingInputStream(InputStream in) throws IOException {
+            super(in);
+            mGzip = new GZIPOutputStream(mCompressed);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mGzip.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                mGzip.write(buffer, offset, read);
+            }
+            return read;
+        }
+
+        /**
+         * @return everything read so far, gzipped.
+         */
+        byte[] finish() throws IOException {
+            mGzip.finish();
+            return mCompressed.toByteArray();
+        }
+    }
+}
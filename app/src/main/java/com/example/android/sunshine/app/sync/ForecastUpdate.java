@@ -0,0 +1,69 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/**
+ * What a sync just wrote for the preferred location, as handed to each
+ * {@link ForecastFanOut.Consumer}.  It holds the values as they were parsed, so consumers
+ * don't have to read back from the database what the sync has only just written there.
+ */
+public class ForecastUpdate {
+    public final String locationSetting;
+
+    // The (normalized) dates that changed, in order.
+    public final long[] changedDates;
+
+    // Today's weather row as written, with the same columns as the weather table, or null if
+    // the sync doesn't hold all of it in memory.  That's the case when it only refreshed the
+    // current conditions, for a forecast fetched by an earlier run of the app.
+    private final ContentValues mToday;
+
+    ForecastUpdate(String locationSetting, long[] changedDates, ContentValues today) {
+        this.locationSetting = locationSetting;
+        this.changedDates = changedDates;
+        mToday = today;
+    }
+
+    /**
+     * @return true if today's weather is one of the dates that changed.
+     */
+    public boolean isTodayChanged() {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        for (long date : changedDates) {
+            if (date == today) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean hasToday() {
+        return mToday != null;
+    }
+
+    public int getWeatherId() {
+        return mToday.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+    }
+
+    public String getShortDesc() {
+        return mToday.getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC);
+    }
+
+    public double getMaxTemp() {
+        return mToday.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
+    }
+
+    public double getMinTemp() {
+        return mToday.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
+    }
+
+    public double getMaxTempImperial() {
+        return mToday.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP_IMPERIAL);
+    }
+
+    public double getMinTempImperial() {
+        return mToday.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP_IMPERIAL);
+    }
+}
@@ -0,0 +1,310 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.net.Uri;
+import android.support.v4.os.CancellationSignal;
+import android.support.v4.os.OperationCanceledException;
+import android.text.TextUtils;
+import android.util.JsonReader;
+import android.util.Log;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.data.DerivedWeather;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.net.HttpTransport;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Fetches the current conditions for several cities in one request to OpenWeatherMap's group
+ * endpoint, and splits the response back up into one {@link LocationForecast} per location.
+ *
+ * Only cities we already know OpenWeatherMap's ID for can be fetched this way.  A location
+ * that's missing from the response is handed back with its status still
+ * {@link SunshineSyncAdapter#LOCATION_STATUS_UNKNOWN}, so the caller can fall back to fetching
+ * it on its own.
+ */
+class GroupFetcher implements Callable<List<LocationForecast>> {
+    private static final String LOG_TAG = GroupFetcher.class.getSimpleName();
+
+    // The most city IDs OpenWeatherMap will take in a single group request.
+    static final int MAX_CITIES_PER_REQUEST = 20;
+
+    // Without these there's nothing worth writing over today's row.
+    private static final String[] REQUIRED_CURRENT_COLUMNS = new String[] {
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID
+    };
+
+    private final HttpTransport mTransport;
+    // City ID to location setting, at most MAX_CITIES_PER_REQUEST of them.
+    private final Map<Long, String> mCities;
+    private final CancellationSignal mSignal;
+
+    /**
+     * @param signal cancels the fetch, wherever it has got to, leaving every location's status
+     *               {@link SunshineSyncAdapter#LOCATION_STATUS_UNKNOWN}.
+     */
+    GroupFetcher(HttpTransport transport, Map<Long, String> cities, CancellationSignal signal) {
+        mTransport = transport;
+        mCities = cities;
+        mSignal = signal;
+    }
+
+    @Override
+    public List<LocationForecast> call() {
+        List<LocationForecast> forecasts = new ArrayList<LocationForecast>(mCities.size());
+        long fetchedAt = System.currentTimeMillis();
+        for (Map.Entry<Long, String> city : mCities.entrySet()) {
+            LocationForecast forecast = new LocationForecast(city.getValue());
+            forecast.cityId = city.getKey();
+            forecast.fetchedAt = fetchedAt;
+            forecasts.add(forecast);
+        }
+
+        CircuitBreaker breaker = CircuitBreaker.get(CircuitBreaker.ENDPOINT_GROUP);
+        if (!breaker.allowRequest()) {
+            // Every location falls back to its own request, which goes to a different
+            // endpoint and so may well still work.
+            return forecasts;
+        }
+
+        // These two need to be declared outside the try/catch
+        // so that they can be closed in the finally block.
+        HttpTransport.Response response = null;
+        JsonReader reader = null;
+
+        try {
+            // http://openweathermap.org/current#severalid
+            final String GROUP_BASE_URL = "http://api.openweathermap.org/data/2.5/group?";
+            final String ID_PARAM = "id";
+            final String UNITS_PARAM = "units";
+            final String APPID_PARAM = "APPID";
+
+            Uri builtUri = Uri.parse(GROUP_BASE_URL).buildUpon()
+                    .appendQueryParameter(ID_PARAM, TextUtils.join(",", mCities.keySet()))
+                    .appendQueryParameter(UNITS_PARAM, "metric")
+                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                    .build();
+
+            response = mTransport.get(builtUri.toString(), null, mSignal);
+            if (response.getCode() >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+                breaker.recordFailure();
+                Log.e(LOG_TAG, "Server returned " + response.getCode());
+                setStatus(forecasts, SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN);
+                return forecasts;
+            }
+
+            breaker.recordSuccess();
+
+            InputStream inputStream = response.getBody();
+            if (inputStream == null) {
+                // Nothing to do; every location falls back to its own request.
+                return forecasts;
+            }
+
+            reader = new JsonReader(new BufferedReader(new InputStreamReader(inputStream, "UTF-8")));
+            long parseStart = System.nanoTime();
+            getGroupDataFromJson(reader, forecasts);
+            // The one parse is shared out between the cities it covered.
+            long parseNanos = (System.nanoTime() - parseStart) / forecasts.size();
+            for (LocationForecast forecast : forecasts) {
+                forecast.parseNanos = parseNanos;
+            }
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            // The server answered, but not with anything we know how to read.
+            Log.e(LOG_TAG, e.getMessage(), e);
+            setStatus(forecasts, SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID);
+        } catch (IOException e) {
+            if (mSignal.isCanceled()) {
+                // The read was cut off on purpose; that says nothing about the server.
+                return cancelled(forecasts);
+            }
+            Log.e(LOG_TAG, "Error ", e);
+            breaker.recordFailure();
+            setStatus(forecasts, SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN);
+        } catch (OperationCanceledException e) {
+            return cancelled(forecasts);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+            if (response != null) {
+                try {
+                    response.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing response", e);
+                }
+            }
+        }
+        return forecasts;
+    }
+
+    /**
+     * Reads the group response, matching each city in its "list" to a location by ID.
+     * Nothing is marked OK until the whole document has been read.
+     */
+    private void getGroupDataFromJson(JsonReader reader, List<LocationForecast> forecasts)
+            throws IOException {
+        final String OWM_MESSAGE_CODE = "cod";
+        final String OWM_LIST = "list";
+
+        List<LocationForecast> found = new ArrayList<LocationForecast>(forecasts.size());
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                // A successful group response has no "cod", so this is always an error.
+                Log.e(LOG_TAG, "Group request failed with " + reader.nextString());
+                setStatus(forecasts, SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN);
+                return;
+            } else if (OWM_LIST.equals(name)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    mSignal.throwIfCanceled();
+                    LocationForecast city = readCity(reader);
+                    LocationForecast forecast = findByCityId(forecasts, city.cityId);
+                    if (forecast == null) {
+                        // Not one we asked for.
+                        continue;
+                    }
+                    forecast.cityName = city.cityName;
+                    forecast.cityLatitude = city.cityLatitude;
+                    forecast.cityLongitude = city.cityLongitude;
+                    forecast.current = city.current;
+                    found.add(forecast);
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        setStatus(found, SunshineSyncAdapter.LOCATION_STATUS_OK);
+    }
+
+    /**
+     * Reads one element of the group response's "list" into a scratch forecast holding the
+     * city and its current conditions.
+     */
+    private LocationForecast readCity(JsonReader reader) throws IOException {
+        final String OWM_CITY_ID = "id";
+        final String OWM_CITY_NAME = "name";
+        final String OWM_COORD = "coord";
+        final String OWM_WEATHER = "weather";
+
+        // Pressure and humidity are children of the "main" object.
+        final String OWM_MAIN = "main";
+        final String OWM_PRESSURE = "pressure";
+        final String OWM_HUMIDITY = "humidity";
+
+        // Wind speed and direction are children of the "wind" object.
+        final String OWM_WIND = "wind";
+        final String OWM_WINDSPEED = "speed";
+        final String OWM_WIND_DIRECTION = "deg";
+
+        LocationForecast city = new LocationForecast(null);
+        ContentValues weatherValues = new ContentValues();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_ID.equals(name)) {
+                city.cityId = reader.nextLong();
+            } else if (OWM_CITY_NAME.equals(name)) {
+                city.cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                ForecastFetcher.readCoord(reader, city);
+            } else if (OWM_WEATHER.equals(name)) {
+                ForecastFetcher.readWeather(reader, weatherValues);
+            } else if (OWM_MAIN.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String mainName = reader.nextName();
+                    if (OWM_PRESSURE.equals(mainName)) {
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                                reader.nextDouble());
+                    } else if (OWM_HUMIDITY.equals(mainName)) {
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                                (int) reader.nextDouble());
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WIND.equals(name)) {
+                // "deg" is left out when it's calm, in which case we keep the forecast's.
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String windName = reader.nextName();
+                    if (OWM_WINDSPEED.equals(windName)) {
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+                                reader.nextDouble());
+                    } else if (OWM_WIND_DIRECTION.equals(windName)) {
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES,
+                                reader.nextDouble());
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (city.cityId == 0 || city.cityName == null || Double.isNaN(city.cityLatitude)
+                || Double.isNaN(city.cityLongitude)) {
+            throw new MalformedJsonException("Incomplete city in group response");
+        }
+        for (String column : REQUIRED_CURRENT_COLUMNS) {
+            if (!weatherValues.containsKey(column)) {
+                throw new MalformedJsonException("Current weather is missing " + column);
+            }
+        }
+        DerivedWeather.putDerivedValues(weatherValues);
+        city.current = weatherValues;
+        return city;
+    }
+
+    private static List<LocationForecast> cancelled(List<LocationForecast> forecasts) {
+        Log.d(LOG_TAG, "Group fetch cancelled");
+        setStatus(forecasts, SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+        return forecasts;
+    }
+
+    private static LocationForecast findByCityId(List<LocationForecast> forecasts, long cityId) {
+        for (LocationForecast forecast : forecasts) {
+            if (forecast.cityId == cityId) {
+                return forecast;
+            }
+        }
+        return null;
+    }
+
+    private static void setStatus(List<LocationForecast> forecasts,
+                                  @SunshineSyncAdapter.LocationStatus int status) {
+        for (LocationForecast forecast : forecasts) {
+            forecast.status = status;
+            if (status != SunshineSyncAdapter.LOCATION_STATUS_OK) {
+                forecast.current = null;
+            }
+        }
+    }
+}
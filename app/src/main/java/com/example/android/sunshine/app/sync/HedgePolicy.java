@@ -0,0 +1,67 @@
+package com.example.android.sunshine.app.sync;
+
+import java.util.Arrays;
+
+/**
+ * Decides how long to give the primary source before a fetch is hedged to the secondary.
+ * The wait is a high percentile of how long the primary's recent fetches have taken, so only
+ * the slowest few fetches are hedged, however fast or slow the primary is running overall.
+ * Until there are enough fetches to go on, a fixed wait is used instead.
+ */
+class HedgePolicy {
+
+    static final int SAMPLE_SIZE = 64;
+    static final int MIN_SAMPLES = 8;
+    static final int PERCENTILE = 95;
+
+    static final long DEFAULT_DELAY_MILLIS = 3 * 1000;
+    // However the primary has been doing, don't hedge sooner or later than these.
+    static final long MIN_DELAY_MILLIS = 500;
+    static final long MAX_DELAY_MILLIS = 10 * 1000;
+
+    private static final HedgePolicy sInstance =
+            new HedgePolicy(SAMPLE_SIZE, MIN_SAMPLES, PERCENTILE, DEFAULT_DELAY_MILLIS);
+
+    private final int mMinSamples;
+    private final long mDefaultDelayMillis;
+    private final int mPercentile;
+    // The most recent fetch times, in milliseconds, oldest overwritten first.
+    private final long[] mSamples;
+    private int mCount;
+    private int mNext;
+
+    public static HedgePolicy getInstance() {
+        return sInstance;
+    }
+
+    // Everything but the tests should go through getInstance().
+    HedgePolicy(int sampleSize, int minSamples, int percentile, long defaultDelayMillis) {
+        mSamples = new long[sampleSize];
+        mMinSamples = minSamples;
+        mPercentile = percentile;
+        mDefaultDelayMillis = defaultDelayMillis;
+    }
+
+    /**
+     * Counts one fetch the primary finished on its own, however it went.
+     */
+    synchronized void addSample(long millis) {
+        mSamples[mNext] = millis;
+        mNext = (mNext + 1) % mSamples.length;
+        mCount = Math.min(mCount + 1, mSamples.length);
+    }
+
+    /**
+     * @return how long a fetch from the primary can run before it's hedged.
+     */
+    synchronized long getHedgeDelayMillis() {
+        if (mCount < mMinSamples) {
+            return mDefaultDelayMillis;
+        }
+        long[] sorted = Arrays.copyOf(mSamples, mCount);
+        Arrays.sort(sorted);
+        // Nearest rank.
+        int rank = Math.max(1, (int) Math.ceil(mPercentile / 100.0 * mCount));
+        return Math.max(MIN_DELAY_MILLIS, Math.min(MAX_DELAY_MILLIS, sorted[rank - 1]));
+    }
+}
@@ -0,0 +1,224 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.support.v4.os.CancellationSignal;
+import android.util.Log;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * One location's forecast, fetched from the primary source and, if that hasn't answered by
+ * the time the {@link HedgePolicy} says it should have, from the secondary as well.  The first
+ * to come back with a forecast wins and the other is cancelled.  If the primary fails before
+ * the hedge goes out, its failure is the result, as it would be without hedging; the
+ * secondary is there to cut the slow tail, not to stand in for a primary that's down.
+ *
+ * The secondary is only sent once the primary has actually started, since until then it
+ * would only be queued behind the same fetches.
+ *
+ * This stands in for the primary's Future in the sync adapter, and like it is only used from
+ * the sync thread.
+ */
+class HedgedFetch implements Future<LocationForecast> {
+    private static final String LOG_TAG = HedgedFetch.class.getSimpleName();
+
+    private final ExecutorService mExecutor;
+    private final HedgePolicy mPolicy;
+    private final String mLocationSetting;
+    private final CancellationSignal mPrimarySignal;
+    private final Future<?> mPrimaryFuture;
+    private final Callable<LocationForecast> mSecondary;
+    private final CancellationSignal mSecondarySignal;
+    private Future<?> mSecondaryFuture;
+
+    // Each fetch adds its outcome here as it finishes.
+    private final BlockingQueue<Outcome> mOutcomes = new LinkedBlockingQueue<Outcome>();
+    // When the primary started running, in SystemClock.elapsedRealtime() time, or 0.
+    private volatile long mPrimaryStartedAt;
+    // Fetches sent whose outcome we haven't had yet.
+    private int mPending;
+    // Whether the secondary can still be sent.
+    private boolean mCanHedge;
+
+    private boolean mDone;
+    private boolean mCancelled;
+    private LocationForecast mResult;
+    private Outcome mFallback;
+
+    private static class Outcome {
+        final boolean primary;
+        final LocationForecast forecast;
+        final Throwable error;
+
+        Outcome(boolean primary, LocationForecast forecast, Throwable error) {
+            this.primary = primary;
+            this.forecast = forecast;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Sends the primary fetch to the executor straight away.
+     *
+     * @param secondary the fetch to hedge with, or null to just wait on the primary.
+     */
+    HedgedFetch(ExecutorService executor, HedgePolicy policy, String locationSetting,
+                final Callable<LocationForecast> primary, CancellationSignal primarySignal,
+                Callable<LocationForecast> secondary, CancellationSignal secondarySignal) {
+        mExecutor = executor;
+        mPolicy = policy;
+        mLocationSetting = locationSetting;
+        mPrimarySignal = primarySignal;
+        mSecondary = secondary;
+        mSecondarySignal = secondarySignal;
+        mCanHedge = secondary != null;
+        mPending = 1;
+        mPrimaryFuture = executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                long start = SystemClock.elapsedRealtime();
+                mPrimaryStartedAt = start;
+                Outcome outcome = fetch(true, primary);
+                if (!mPrimarySignal.isCanceled()) {
+                    // A primary cut off by the secondary winning didn't get to finish, so
+                    // says nothing about how long it takes.
+                    mPolicy.addSample(SystemClock.elapsedRealtime() - start);
+                }
+                mOutcomes.add(outcome);
+            }
+        });
+    }
+
+    private Outcome fetch(boolean primary, Callable<LocationForecast> fetch) {
+        try {
+            return new Outcome(primary, fetch.call(), null);
+        } catch (Exception e) {
+            return new Outcome(primary, null, e);
+        }
+    }
+
+    @Override
+    public LocationForecast get() throws InterruptedException, ExecutionException {
+        try {
+            return get(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public LocationForecast get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long now = SystemClock.elapsedRealtime();
+        long timeoutMillis = unit.toMillis(timeout);
+        long deadline = timeoutMillis >= Long.MAX_VALUE - now ? Long.MAX_VALUE : now + timeoutMillis;
+        while (!mDone) {
+            long wait = deadline - now;
+            if (mCanHedge && mPrimaryStartedAt != 0) {
+                long hedgeAt = mPrimaryStartedAt + mPolicy.getHedgeDelayMillis();
+                if (now >= hedgeAt) {
+                    hedge();
+                } else {
+                    wait = Math.min(wait, hedgeAt - now);
+                }
+            }
+            if (wait <= 0) {
+                throw new TimeoutException();
+            }
+            Outcome outcome = mOutcomes.poll(wait, TimeUnit.MILLISECONDS);
+            if (outcome != null) {
+                take(outcome);
+            }
+            now = SystemClock.elapsedRealtime();
+        }
+        if (mCancelled) {
+            throw new CancellationException();
+        }
+        if (mResult == null) {
+            throw new ExecutionException(mFallback.error);
+        }
+        return mResult;
+    }
+
+    private void hedge() {
+        mCanHedge = false;
+        mPending++;
+        Log.d(LOG_TAG, "Hedging " + mLocationSetting + " after "
+                + (SystemClock.elapsedRealtime() - mPrimaryStartedAt) + "ms");
+        mSecondaryFuture = mExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                mOutcomes.add(fetch(false, mSecondary));
+            }
+        });
+    }
+
+    private void take(Outcome outcome) {
+        mPending--;
+        if (outcome.primary) {
+            // Too late to hedge now.
+            mCanHedge = false;
+        }
+        if (outcome.forecast != null
+                && outcome.forecast.status == SunshineSyncAdapter.LOCATION_STATUS_OK) {
+            if (!outcome.primary) {
+                Log.d(LOG_TAG, "Secondary answered first for " + mLocationSetting);
+            }
+            finish(outcome.forecast);
+            return;
+        }
+        // Keep the failure that says the most, preferring the primary's.
+        if (mFallback == null || mFallback.forecast == null
+                || (outcome.primary && outcome.forecast != null)) {
+            mFallback = outcome;
+        }
+        if (mPending == 0 && !mCanHedge) {
+            finish(mFallback.forecast);
+        }
+    }
+
+    private void finish(LocationForecast result) {
+        mDone = true;
+        mResult = result;
+        // Whichever is still going has lost.
+        stop();
+    }
+
+    private void stop() {
+        mPrimarySignal.cancel();
+        mPrimaryFuture.cancel(true);
+        if (mSecondaryFuture != null) {
+            mSecondarySignal.cancel();
+            mSecondaryFuture.cancel(true);
+        }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (mDone) {
+            return false;
+        }
+        mCancelled = true;
+        mDone = true;
+        stop();
+        return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    @Override
+    public boolean isDone() {
+        return mDone;
+    }
+}
@@ -0,0 +1,324 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.v4.os.CancellationSignal;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherProvider;
+import com.example.android.sunshine.app.net.HttpTransport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Fills in the last year of each location's weather history, working backwards from the most
+ * recent day the archive has, {@link #CHUNK_DAYS} days to a request.
+ *
+ * A few chunks are fetched and parsed side by side, then written in order, each in one
+ * transaction with the location's {@link WeatherContract.LocationEntry#COLUMN_HISTORY_START}
+ * moved back to the chunk's first day.  That column is the checkpoint: a run picks up from it,
+ * so if the process is killed part way through, only the chunks that were in flight are asked
+ * for again.
+ *
+ * The backfill is strictly background work.  Each request takes a token the quota would spare
+ * a prefetch, and the run ends as soon as it's refused one, to go on after the next sync.
+ * While a sync is running, or about to, the backfill cancels whatever it has in flight and
+ * waits for it to finish.
+ */
+class HistoryBackfill {
+    private static final String LOG_TAG = HistoryBackfill.class.getSimpleName();
+
+    // How far back each location's history goes.
+    static final int HISTORY_DAYS = 365;
+    static final int CHUNK_DAYS = 30;
+    // The archive is put together from reanalysis that runs a few days behind.
+    static final int ARCHIVE_LAG_DAYS = 5;
+    private static final int MAX_PARALLEL_CHUNKS = 3;
+    // How often the backfill checks whether a sync wants the network back.
+    private static final long YIELD_CHECK_MILLIS = 500;
+
+    private static final String[] LOCATION_COLUMNS = {
+            WeatherContract.LocationEntry._ID,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+            WeatherContract.LocationEntry.COLUMN_HISTORY_START
+    };
+
+    private static final int COL_LOCATION_ID = 0;
+    private static final int COL_LOCATION_SETTING = 1;
+    private static final int COL_COORD_LAT = 2;
+    private static final int COL_COORD_LONG = 3;
+    private static final int COL_HISTORY_START = 4;
+
+    private static HistoryBackfill sInstance;
+
+    private final Context mContext;
+    private final SyncCoalescer mCoalescer;
+    // One run at a time, on a thread of its own.
+    private final ExecutorService mRunExecutor = createExecutor(1);
+    private final ExecutorService mChunkExecutor = createExecutor(MAX_PARALLEL_CHUNKS);
+
+    private boolean mRunning;
+
+    /**
+     * @return the app's backfill.
+     */
+    static synchronized HistoryBackfill get(Context context) {
+        if (sInstance == null) {
+            sInstance = new HistoryBackfill(context.getApplicationContext(),
+                    SyncCoalescer.getInstance());
+        }
+        return sInstance;
+    }
+
+    // Everything but the tests should go through get().
+    HistoryBackfill(Context context, SyncCoalescer coalescer) {
+        mContext = context;
+        mCoalescer = coalescer;
+    }
+
+    /**
+     * Starts a run in the background, unless one is already going.  Returns at once.
+     *
+     * @param weatherProvider our own provider, which the history is written to directly.
+     */
+    synchronized void start(final HttpTransport transport, final WeatherProvider weatherProvider) {
+        if (mRunning) {
+            return;
+        }
+        mRunning = true;
+        mRunExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    backfill(transport, weatherProvider);
+                } catch (InterruptedException e) {
+                    Log.d(LOG_TAG, "Backfill interrupted");
+                } finally {
+                    synchronized (HistoryBackfill.this) {
+                        mRunning = false;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * A location to backfill, as the location table has it.
+     */
+    private static class BackfillLocation {
+        long id;
+        String locationSetting;
+        double latitude;
+        double longitude;
+        // The Julian day before the earliest one already filled in, or 0 if none has been.
+        int resumeDay;
+    }
+
+    private void backfill(HttpTransport transport, WeatherProvider weatherProvider)
+            throws InterruptedException {
+        Time dayTime = new Time();
+        dayTime.setToNow();
+        int today = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+        int newestDay = today - ARCHIVE_LAG_DAYS;
+        int oldestDay = today - HISTORY_DAYS;
+
+        for (BackfillLocation location : getLocations()) {
+            int endDay = location.resumeDay != 0 ? location.resumeDay : newestDay;
+            if (!backfillLocation(transport, weatherProvider, location, endDay, oldestDay)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Fills in one location's history from endDay back to oldestDay, a few chunks at a time.
+     *
+     * @return true to go on to the next location; false if the quota or the archive has
+     * called a halt to this run.
+     */
+    private boolean backfillLocation(HttpTransport transport, WeatherProvider weatherProvider,
+                                     BackfillLocation location, int endDay, int oldestDay)
+            throws InterruptedException {
+        QuotaGovernor quota = QuotaGovernor.get(mContext);
+        Time dayTime = new Time();
+
+        List<int[]> chunks;
+        while (!(chunks = planChunks(endDay, oldestDay, CHUNK_DAYS, MAX_PARALLEL_CHUNKS))
+                .isEmpty()) {
+            waitForSyncs();
+
+            CancellationSignal signal = new CancellationSignal();
+            List<Future<List<ContentValues>>> futures =
+                    new ArrayList<Future<List<ContentValues>>>();
+            try {
+                for (int[] chunk : chunks) {
+                    if (!quota.tryAcquire(SyncScheduler.PRIORITY_PREFETCH)) {
+                        break;
+                    }
+                    futures.add(mChunkExecutor.submit(new HistoryFetcher(transport,
+                            location.locationSetting, location.latitude, location.longitude,
+                            chunk[0], chunk[1], signal)));
+                }
+                if (futures.isEmpty()) {
+                    Log.d(LOG_TAG, "Quota deferred backfill of " + location.locationSetting);
+                    return false;
+                }
+
+                boolean yielded = false;
+                for (int i = 0; i < futures.size(); i++) {
+                    // Chunks are written newest first, so the checkpoint never skips one.
+                    if (!awaitOrYield(futures.get(i))) {
+                        yielded = true;
+                        break;
+                    }
+                    List<ContentValues> days = getChunk(futures.get(i));
+                    if (days == null) {
+                        return false;
+                    }
+                    waitForSyncs();
+
+                    int[] chunk = chunks.get(i);
+                    ContentValues[] values = new ContentValues[days.size()];
+                    for (int j = 0; j < values.length; j++) {
+                        values[j] = days.get(j);
+                        // The days come in the weather table's columns, which the history
+                        // table shares.
+                        values[j].put(WeatherContract.HistoryEntry.COLUMN_LOC_KEY, location.id);
+                    }
+                    weatherProvider.insertHistory(values, location.id,
+                            dayTime.setJulianDay(chunk[0]));
+                    endDay = chunk[0] - 1;
+                }
+                if (yielded) {
+                    Log.d(LOG_TAG, "Backfill of " + location.locationSetting
+                            + " yielding to a sync");
+                    continue;
+                }
+                if (futures.size() < chunks.size()) {
+                    Log.d(LOG_TAG, "Quota deferred backfill of " + location.locationSetting);
+                    return false;
+                }
+            } finally {
+                // Whatever is still in flight would only be asked for again.
+                signal.cancel();
+                for (Future<List<ContentValues>> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Splits the days from endDay back to oldestDay into chunks of chunkDays, newest first.
+     * Fewer than chunkDays left over aren't worth a request of their own; they'll make up a
+     * whole chunk in a few days' time.
+     *
+     * @return up to maxChunks chunks, each the Julian days of its first and last day.
+     */
+    static List<int[]> planChunks(int endDay, int oldestDay, int chunkDays, int maxChunks) {
+        List<int[]> chunks = new ArrayList<int[]>();
+        while (chunks.size() < maxChunks && endDay - chunkDays + 1 >= oldestDay) {
+            chunks.add(new int[]{endDay - chunkDays + 1, endDay});
+            endDay -= chunkDays;
+        }
+        return chunks;
+    }
+
+    /**
+     * Waits for the chunk to come in, unless a sync starts first.
+     *
+     * @return true once the chunk is done, however it went; false if a sync has started.
+     */
+    private boolean awaitOrYield(Future<List<ContentValues>> future)
+            throws InterruptedException {
+        while (true) {
+            try {
+                future.get(YIELD_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                return true;
+            } catch (TimeoutException e) {
+                if (mCoalescer.isSyncActive()) {
+                    return false;
+                }
+            } catch (ExecutionException e) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return the days of a chunk that's done, or null if it failed.
+     */
+    private static List<ContentValues> getChunk(Future<List<ContentValues>> future)
+            throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG, "Error fetching history", e.getCause());
+            return null;
+        }
+    }
+
+    private void waitForSyncs() throws InterruptedException {
+        while (mCoalescer.isSyncActive()) {
+            Thread.sleep(YIELD_CHECK_MILLIS);
+        }
+    }
+
+    /**
+     * @return every location we know where to find, with where its backfill got to.
+     */
+    private List<BackfillLocation> getLocations() {
+        List<BackfillLocation> locations = new ArrayList<BackfillLocation>();
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                LOCATION_COLUMNS,
+                WeatherContract.LocationEntry.COLUMN_COORD_LAT + " IS NOT NULL AND "
+                        + WeatherContract.LocationEntry.COLUMN_COORD_LONG + " IS NOT NULL",
+                null,
+                null);
+        if (cursor == null) {
+            return locations;
+        }
+        try {
+            Time dayTime = new Time();
+            while (cursor.moveToNext()) {
+                BackfillLocation location = new BackfillLocation();
+                location.id = cursor.getLong(COL_LOCATION_ID);
+                location.locationSetting = cursor.getString(COL_LOCATION_SETTING);
+                location.latitude = cursor.getDouble(COL_COORD_LAT);
+                location.longitude = cursor.getDouble(COL_COORD_LONG);
+                if (!cursor.isNull(COL_HISTORY_START)) {
+                    long historyStart = cursor.getLong(COL_HISTORY_START);
+                    dayTime.set(historyStart);
+                    location.resumeDay = Time.getJulianDay(historyStart, dayTime.gmtoff) - 1;
+                }
+                locations.add(location);
+            }
+        } finally {
+            cursor.close();
+        }
+        return locations;
+    }
+
+    private static ExecutorService createExecutor(int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        // Syncs are hours apart, so don't keep the threads around in between.
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
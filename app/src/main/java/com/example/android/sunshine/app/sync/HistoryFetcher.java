@@ -0,0 +1,152 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.net.Uri;
+import android.support.v4.os.CancellationSignal;
+import android.support.v4.os.OperationCanceledException;
+import android.text.format.Time;
+import android.util.JsonReader;
+import android.util.Log;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.app.net.HttpTransport;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+
+/**
+ * Fetches and parses one chunk of a location's past weather from Open-Meteo's historical
+ * archive, by its coordinates.  The archive answers with the same daily variables as the
+ * forecast, so the days come out in the same columns, with the same condition IDs.  Like
+ * {@link OpenMeteoFetcher}, this never touches the database.
+ *
+ * History is only ever backfilled in the background, so there's no status to report:
+ * anything that goes wrong just leaves the result null, and the chunk is asked for again on
+ * a later run.
+ */
+class HistoryFetcher implements Callable<List<ContentValues>> {
+    private static final String LOG_TAG = HistoryFetcher.class.getSimpleName();
+
+    private final HttpTransport mTransport;
+    private final String mLocationSetting;
+    private final double mLatitude;
+    private final double mLongitude;
+    private final int mStartDay;
+    private final int mEndDay;
+    private final CancellationSignal mSignal;
+
+    /**
+     * @param startDay the Julian day of the chunk's first day.
+     * @param endDay the Julian day of its last day, included.
+     * @param signal cancels the fetch, wherever it has got to, leaving the result null.
+     */
+    HistoryFetcher(HttpTransport transport, String locationSetting, double latitude,
+                   double longitude, int startDay, int endDay, CancellationSignal signal) {
+        mTransport = transport;
+        mLocationSetting = locationSetting;
+        mLatitude = latitude;
+        mLongitude = longitude;
+        mStartDay = startDay;
+        mEndDay = endDay;
+        mSignal = signal;
+    }
+
+    /**
+     * @return the chunk's days in order, ready to be written but for their location ID, or
+     * null if we didn't get them.  A day the archive has nothing for is left out.
+     */
+    @Override
+    public List<ContentValues> call() {
+        CircuitBreaker breaker = CircuitBreaker.get(CircuitBreaker.ENDPOINT_OPEN_METEO_ARCHIVE);
+        if (!breaker.allowRequest()) {
+            return null;
+        }
+
+        HttpTransport.Response response = null;
+        JsonReader reader = null;
+
+        try {
+            // https://open-meteo.com/en/docs/historical-weather-api
+            final String ARCHIVE_BASE_URL = "https://archive-api.open-meteo.com/v1/archive?";
+            final String LATITUDE_PARAM = "latitude";
+            final String LONGITUDE_PARAM = "longitude";
+            final String START_DATE_PARAM = "start_date";
+            final String END_DATE_PARAM = "end_date";
+            final String DAILY_PARAM = "daily";
+            final String WIND_UNIT_PARAM = "wind_speed_unit";
+            final String TIMEZONE_PARAM = "timezone";
+
+            Uri builtUri = Uri.parse(ARCHIVE_BASE_URL).buildUpon()
+                    .appendQueryParameter(LATITUDE_PARAM, Double.toString(mLatitude))
+                    .appendQueryParameter(LONGITUDE_PARAM, Double.toString(mLongitude))
+                    .appendQueryParameter(START_DATE_PARAM, formatDay(mStartDay))
+                    .appendQueryParameter(END_DATE_PARAM, formatDay(mEndDay))
+                    .appendQueryParameter(DAILY_PARAM, OpenMeteoFetcher.joinVariables())
+                    .appendQueryParameter(WIND_UNIT_PARAM, "ms")
+                    // Days in the location's own time zone, as the forecast's are.
+                    .appendQueryParameter(TIMEZONE_PARAM, "auto")
+                    .build();
+
+            response = mTransport.get(builtUri.toString(), null, mSignal);
+            if (response.getCode() >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+                breaker.recordFailure();
+                Log.e(LOG_TAG, "Server returned " + response.getCode() + " for " + mLocationSetting);
+                return null;
+            }
+            breaker.recordSuccess();
+            if (response.getCode() != HttpURLConnection.HTTP_OK) {
+                Log.e(LOG_TAG, "Server returned " + response.getCode() + " for " + mLocationSetting);
+                return null;
+            }
+
+            InputStream inputStream = response.getBody();
+            if (inputStream == null) {
+                return null;
+            }
+            reader = new JsonReader(new BufferedReader(new InputStreamReader(inputStream, "UTF-8")));
+            return OpenMeteoFetcher.readDays(reader, mStartDay, true, mSignal);
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            // The server answered, but not with anything we know how to read.
+            Log.e(LOG_TAG, e.getMessage(), e);
+        } catch (IOException e) {
+            if (!mSignal.isCanceled()) {
+                Log.e(LOG_TAG, "Error ", e);
+                breaker.recordFailure();
+            }
+        } catch (OperationCanceledException e) {
+            Log.d(LOG_TAG, "Fetch of " + mLocationSetting + " history cancelled");
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+            if (response != null) {
+                try {
+                    response.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing response", e);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the Julian day as the archive takes its dates, yyyy-MM-dd.
+     */
+    static String formatDay(int julianDay) {
+        Time dayTime = new Time();
+        dayTime.setJulianDay(julianDay);
+        return String.format(Locale.US, "%04d-%02d-%02d",
+                dayTime.year, dayTime.month + 1, dayTime.monthDay);
+    }
+}
@@ -0,0 +1,259 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.net.Uri;
+import android.support.v4.os.CancellationSignal;
+import android.support.v4.os.OperationCanceledException;
+import android.util.JsonReader;
+import android.util.Log;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.net.HttpTransport;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Fetches and parses the 5-day forecast in 3-hour steps for one location, about forty rows of
+ * it.  Like {@link ForecastFetcher}, this never touches the database.
+ *
+ * The 3-hour forecast is a nice-to-have on top of the daily one, so there's no status to
+ * report: anything that goes wrong just leaves the result null, and the intervals we already
+ * have stay as they are until a later sync gets through.
+ */
+class IntervalFetcher implements Callable<List<ContentValues>> {
+    private static final String LOG_TAG = IntervalFetcher.class.getSimpleName();
+
+    // Every one of these has to be present in an interval before we'll store it.
+    private static final String[] REQUIRED_INTERVAL_COLUMNS = new String[] {
+            WeatherContract.IntervalEntry.COLUMN_WEATHER_ID,
+            WeatherContract.IntervalEntry.COLUMN_SHORT_DESC,
+            WeatherContract.IntervalEntry.COLUMN_TEMP,
+            WeatherContract.IntervalEntry.COLUMN_HUMIDITY,
+            WeatherContract.IntervalEntry.COLUMN_PRESSURE,
+            WeatherContract.IntervalEntry.COLUMN_WIND_SPEED,
+            WeatherContract.IntervalEntry.COLUMN_DEGREES
+    };
+
+    private final HttpTransport mTransport;
+    private final String mLocationSetting;
+    private final long mCityId;
+    private final CancellationSignal mSignal;
+
+    /**
+     * @param cityId OpenWeatherMap's ID for the city, which is asked for instead of the
+     *               location setting if we know it, or 0.
+     * @param signal cancels the fetch, wherever it has got to, leaving the result null.
+     */
+    IntervalFetcher(HttpTransport transport, String locationSetting, long cityId,
+                    CancellationSignal signal) {
+        mTransport = transport;
+        mLocationSetting = locationSetting;
+        mCityId = cityId;
+        mSignal = signal;
+    }
+
+    /**
+     * @return the intervals in order, ready to be written but for their location ID, or null
+     * if we didn't get them.
+     */
+    @Override
+    public List<ContentValues> call() {
+        CircuitBreaker breaker = CircuitBreaker.get(CircuitBreaker.ENDPOINT_INTERVALS);
+        if (!breaker.allowRequest()) {
+            return null;
+        }
+
+        // These two need to be declared outside the try/catch
+        // so that they can be closed in the finally block.
+        HttpTransport.Response response = null;
+        JsonReader reader = null;
+
+        try {
+            // http://openweathermap.org/forecast5
+            final String FORECAST_BASE_URL = "http://api.openweathermap.org/data/2.5/forecast?";
+            final String QUERY_PARAM = "q";
+            final String ID_PARAM = "id";
+            final String FORMAT_PARAM = "mode";
+            final String UNITS_PARAM = "units";
+            final String APPID_PARAM = "APPID";
+
+            Uri.Builder builder = Uri.parse(FORECAST_BASE_URL).buildUpon();
+            if (mCityId != 0) {
+                builder.appendQueryParameter(ID_PARAM, Long.toString(mCityId));
+            } else {
+                builder.appendQueryParameter(QUERY_PARAM, mLocationSetting);
+            }
+            Uri builtUri = builder
+                    .appendQueryParameter(FORMAT_PARAM, "json")
+                    .appendQueryParameter(UNITS_PARAM, "metric")
+                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                    .build();
+
+            response = mTransport.get(builtUri.toString(), null, mSignal);
+            if (response.getCode() >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+                breaker.recordFailure();
+                Log.e(LOG_TAG, "Server returned " + response.getCode() + " for " + mLocationSetting);
+                return null;
+            }
+            breaker.recordSuccess();
+
+            InputStream inputStream = response.getBody();
+            if (inputStream == null) {
+                return null;
+            }
+            reader = new JsonReader(new BufferedReader(new InputStreamReader(inputStream, "UTF-8")));
+            return getIntervalDataFromJson(reader, mSignal);
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            // The server answered, but not with anything we know how to read.
+            Log.e(LOG_TAG, e.getMessage(), e);
+        } catch (IOException e) {
+            if (!mSignal.isCanceled()) {
+                Log.e(LOG_TAG, "Error ", e);
+                breaker.recordFailure();
+            }
+        } catch (OperationCanceledException e) {
+            Log.d(LOG_TAG, "Fetch of " + mLocationSetting + " intervals cancelled");
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+            if (response != null) {
+                try {
+                    response.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing response", e);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the 3-hour forecast JSON off the stream.
+     *
+     * @return the intervals, or null if the server reported an error in the document.
+     * @throws OperationCanceledException if the signal is cancelled part way through.
+     */
+    private static List<ContentValues> getIntervalDataFromJson(JsonReader reader,
+                                                               CancellationSignal signal)
+            throws IOException {
+        final String OWM_LIST = "list";
+        // Unlike the daily forecast's, this one comes as a string.  JsonReader reads it as a
+        // number all the same.
+        final String OWM_MESSAGE_CODE = "cod";
+
+        List<ContentValues> intervals = new ArrayList<ContentValues>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                int errorCode = reader.nextInt();
+                if (errorCode != HttpURLConnection.HTTP_OK) {
+                    Log.d(LOG_TAG, "Server reported error " + errorCode);
+                    return null;
+                }
+            } else if (OWM_LIST.equals(name)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    signal.throwIfCanceled();
+                    intervals.add(readInterval(reader));
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return intervals;
+    }
+
+    /**
+     * Reads one element of the "list" array into the ContentValues for an interval row.
+     */
+    private static ContentValues readInterval(JsonReader reader) throws IOException {
+        final String OWM_DATETIME = "dt";
+        final String OWM_MAIN = "main";
+        final String OWM_TEMPERATURE = "temp";
+        final String OWM_PRESSURE = "pressure";
+        final String OWM_HUMIDITY = "humidity";
+        final String OWM_WIND = "wind";
+        final String OWM_WINDSPEED = "speed";
+        final String OWM_WIND_DIRECTION = "deg";
+        final String OWM_WEATHER = "weather";
+
+        ContentValues intervalValues = new ContentValues();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_DATETIME.equals(name)) {
+                // Seconds since the epoch, at the start of the interval.
+                intervalValues.put(WeatherContract.IntervalEntry.COLUMN_DATE,
+                        reader.nextLong() * 1000);
+            } else if (OWM_MAIN.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String mainName = reader.nextName();
+                    if (OWM_TEMPERATURE.equals(mainName)) {
+                        intervalValues.put(WeatherContract.IntervalEntry.COLUMN_TEMP,
+                                reader.nextDouble());
+                    } else if (OWM_PRESSURE.equals(mainName)) {
+                        intervalValues.put(WeatherContract.IntervalEntry.COLUMN_PRESSURE,
+                                reader.nextDouble());
+                    } else if (OWM_HUMIDITY.equals(mainName)) {
+                        intervalValues.put(WeatherContract.IntervalEntry.COLUMN_HUMIDITY,
+                                (int) reader.nextDouble());
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WIND.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String windName = reader.nextName();
+                    if (OWM_WINDSPEED.equals(windName)) {
+                        intervalValues.put(WeatherContract.IntervalEntry.COLUMN_WIND_SPEED,
+                                reader.nextDouble());
+                    } else if (OWM_WIND_DIRECTION.equals(windName)) {
+                        intervalValues.put(WeatherContract.IntervalEntry.COLUMN_DEGREES,
+                                reader.nextDouble());
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // The weather columns are named as in the weather table, so the daily
+                // forecast's reader fills them in.
+                ForecastFetcher.readWeather(reader, intervalValues);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!intervalValues.containsKey(WeatherContract.IntervalEntry.COLUMN_DATE)) {
+            throw new MalformedJsonException("Forecast interval has no date");
+        }
+        for (String column : REQUIRED_INTERVAL_COLUMNS) {
+            if (!intervalValues.containsKey(column)) {
+                throw new MalformedJsonException("Forecast interval is missing " + column);
+            }
+        }
+        return intervalValues;
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Remembers the location settings OpenWeatherMap has told us don't exist, so that neither the
+ * syncs nor the location preference have to ask about them again.  An entry only lasts so
+ * long, since a city the server didn't know about may be added later, and is dropped as soon
+ * as the location fetches successfully.
+ *
+ * Location settings are looked up by their canonical form, so "Londn, UK" and "londn,uk" are
+ * the same bad location.  Entries are kept in their own SharedPreferences file, as the time
+ * each one expires, so they survive the process being killed.
+ */
+public class InvalidLocationCache {
+
+    static final String PREFS_NAME = "invalid_locations";
+    static final long EXPIRY_MILLIS = 24 * 60 * 60 * 1000L;
+    // Past this many entries, the ones closest to expiring are dropped to make room.
+    static final int MAX_ENTRIES = 100;
+
+    private static InvalidLocationCache sInstance;
+
+    private final SharedPreferences mPrefs;
+
+    public static synchronized InvalidLocationCache get(Context context) {
+        if (sInstance == null) {
+            sInstance = new InvalidLocationCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    // Everything but the tests should go through get().
+    InvalidLocationCache(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return the form a location setting is cached under: trimmed, lower case, and with any
+     * run of whitespace made a single space and none around commas.
+     */
+    static String canonicalize(String locationSetting) {
+        return locationSetting.trim()
+                .replaceAll("\\s+", " ")
+                .replaceAll(" ?, ?", ",")
+                .toLowerCase(Locale.US);
+    }
+
+    public boolean contains(String locationSetting) {
+        return contains(locationSetting, System.currentTimeMillis());
+    }
+
+    /**
+     * @return true if the server said this location doesn't exist, recently enough that
+     * there's no point asking again.
+     */
+    synchronized boolean contains(String locationSetting, long now) {
+        String key = canonicalize(locationSetting);
+        long expiresAt = mPrefs.getLong(key, 0);
+        if (expiresAt == 0) {
+            return false;
+        }
+        if (expiresAt <= now) {
+            mPrefs.edit().remove(key).apply();
+            return false;
+        }
+        return true;
+    }
+
+    void add(String locationSetting) {
+        add(locationSetting, System.currentTimeMillis());
+    }
+
+    /**
+     * Records that the server said this location doesn't exist.
+     */
+    synchronized void add(String locationSetting, long now) {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        Map<String, ?> entries = mPrefs.getAll();
+        int size = entries.size();
+        String soonest = null;
+        long soonestExpiresAt = Long.MAX_VALUE;
+        for (Map.Entry<String, ?> entry : entries.entrySet()) {
+            long expiresAt = entry.getValue() instanceof Long ? (Long) entry.getValue() : 0;
+            if (expiresAt <= now) {
+                editor.remove(entry.getKey());
+                size--;
+            } else if (expiresAt < soonestExpiresAt) {
+                soonest = entry.getKey();
+                soonestExpiresAt = expiresAt;
+            }
+        }
+        String key = canonicalize(locationSetting);
+        if (size >= MAX_ENTRIES && soonest != null && !entries.containsKey(key)) {
+            editor.remove(soonest);
+        }
+        editor.putLong(key, now + EXPIRY_MILLIS).apply();
+    }
+
+    /**
+     * Forgets anything cached about this location, say because it has just been fetched.
+     */
+    synchronized void remove(String locationSetting) {
+        String key = canonicalize(locationSetting);
+        if (mPrefs.contains(key)) {
+            mPrefs.edit().remove(key).apply();
+        }
+    }
+}
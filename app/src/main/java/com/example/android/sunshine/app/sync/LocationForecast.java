@@ -0,0 +1,79 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Everything one fetch found out about one location, held until the sync thread writes it.
+ * The weather rows don't have a location ID yet, since the location may not be in the
+ * database until the write.
+ */
+class LocationForecast {
+    final String locationSetting;
+
+    @SunshineSyncAdapter.LocationStatus
+    int status = SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+    // What went wrong, when there's more to say about it than the status, or null.
+    String error;
+
+    // True when the server answered 304 and what we already have is still current.
+    boolean notModified;
+    // True when we didn't ask the server at all: because what we have was fetched recently
+    // enough, in which case it comes with notModified, or because the location is one the
+    // server has lately said doesn't exist.
+    boolean fresh;
+
+    // OpenWeatherMap's ID for the city, or 0 if the response didn't include one.
+    long cityId;
+    String cityName;
+    double cityLatitude = Double.NaN;
+    double cityLongitude = Double.NaN;
+
+    // When the server sent this, in milliseconds since the epoch.  For a forecast replayed from
+    // the journal, when it was first fetched.
+    long fetchedAt;
+
+    // Cache validators from the response, either of which may be null.
+    String eTag;
+    String lastModified;
+
+    // How long it took to turn the response into this, in nanoseconds, including any time
+    // spent blocked on the download.
+    long parseNanos;
+
+    final List<ContentValues> days = new ArrayList<ContentValues>();
+
+    // Current conditions from a group fetch, to be written over today's row.  These only hold
+    // some of the weather columns, and are null unless this came from a group fetch.
+    ContentValues current;
+
+    // The 3-hour forecast, oldest first, or null if this sync didn't fetch it.  Like the days,
+    // the rows don't have a location ID yet.
+    List<ContentValues> intervals;
+    // When the intervals were fetched, in milliseconds since the epoch.
+    long intervalsFetchedAt;
+
+    // The (normalized) dates actually written for this location, filled in by the sync
+    // adapter once the forecast has been written.
+    final SortedSet<Long> changedDates = new TreeSet<Long>();
+
+    // The location settings in the batch this forecast answers: the location setting itself,
+    // and any aliases for it.  Filled in by the sync adapter.
+    final List<String> requestedAs = new ArrayList<String>();
+
+    LocationForecast(String locationSetting) {
+        this.locationSetting = locationSetting;
+    }
+
+    /**
+     * @return true if there are new rows to write for this location.
+     */
+    boolean hasNewData() {
+        return status == SunshineSyncAdapter.LOCATION_STATUS_OK && !notModified
+                && (!days.isEmpty() || current != null);
+    }
+}
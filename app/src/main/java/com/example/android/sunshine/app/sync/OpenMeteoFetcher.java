@@ -0,0 +1,406 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.net.Uri;
+import android.support.v4.os.CancellationSignal;
+import android.support.v4.os.OperationCanceledException;
+import android.text.format.Time;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.Log;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.app.data.DerivedWeather;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.net.HttpTransport;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Fetches and parses Open-Meteo's daily forecast for one location, by its coordinates.  The
+ * response is mapped onto the same weather columns OpenWeatherMap's fills in, with WMO weather
+ * codes translated to OpenWeatherMap's condition IDs so the icons and descriptions come out
+ * the same.  Open-Meteo knows nothing of the location itself, so the city is taken to be the
+ * one already stored for it.
+ *
+ * Like {@link ForecastFetcher}, this never touches the database and reports failures through
+ * the forecast's status.
+ */
+class OpenMeteoFetcher implements Callable<LocationForecast> {
+    private static final String LOG_TAG = OpenMeteoFetcher.class.getSimpleName();
+
+    // The daily variables we ask for, one array of each in the response.
+    private static final String OM_WEATHER_CODE = "weather_code";
+    private static final String OM_MAX = "temperature_2m_max";
+    private static final String OM_MIN = "temperature_2m_min";
+    private static final String OM_WINDSPEED = "wind_speed_10m_max";
+    private static final String OM_WIND_DIRECTION = "wind_direction_10m_dominant";
+    private static final String OM_HUMIDITY = "relative_humidity_2m_mean";
+    private static final String OM_PRESSURE = "pressure_msl_mean";
+
+    private static final String[] DAILY_VARIABLES = new String[] {
+            OM_WEATHER_CODE, OM_MAX, OM_MIN, OM_WINDSPEED, OM_WIND_DIRECTION, OM_HUMIDITY,
+            OM_PRESSURE
+    };
+
+    private final HttpTransport mTransport;
+    private final String mLocationSetting;
+    private final String mCityName;
+    private final double mLatitude;
+    private final double mLongitude;
+    private final CancellationSignal mSignal;
+
+    OpenMeteoFetcher(HttpTransport transport, String locationSetting, String cityName,
+                     double latitude, double longitude, CancellationSignal signal) {
+        mTransport = transport;
+        mLocationSetting = locationSetting;
+        mCityName = cityName;
+        mLatitude = latitude;
+        mLongitude = longitude;
+        mSignal = signal;
+    }
+
+    @Override
+    public LocationForecast call() {
+        LocationForecast forecast = new LocationForecast(mLocationSetting);
+        forecast.fetchedAt = System.currentTimeMillis();
+        forecast.cityName = mCityName;
+        forecast.cityLatitude = mLatitude;
+        forecast.cityLongitude = mLongitude;
+
+        CircuitBreaker breaker = CircuitBreaker.get(CircuitBreaker.ENDPOINT_OPEN_METEO);
+        if (!breaker.allowRequest()) {
+            forecast.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+            return forecast;
+        }
+
+        HttpTransport.Response response = null;
+        JsonReader reader = null;
+
+        try {
+            // https://open-meteo.com/en/docs
+            final String FORECAST_BASE_URL = "https://api.open-meteo.com/v1/forecast?";
+            final String LATITUDE_PARAM = "latitude";
+            final String LONGITUDE_PARAM = "longitude";
+            final String DAILY_PARAM = "daily";
+            final String WIND_UNIT_PARAM = "wind_speed_unit";
+            final String TIMEZONE_PARAM = "timezone";
+            final String DAYS_PARAM = "forecast_days";
+
+            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
+                    .appendQueryParameter(LATITUDE_PARAM, Double.toString(mLatitude))
+                    .appendQueryParameter(LONGITUDE_PARAM, Double.toString(mLongitude))
+                    .appendQueryParameter(DAILY_PARAM, joinVariables())
+                    // Metres per second, as OpenWeatherMap's metric units have it.
+                    .appendQueryParameter(WIND_UNIT_PARAM, "ms")
+                    // Days in the location's own time zone, so the first is its today.
+                    .appendQueryParameter(TIMEZONE_PARAM, "auto")
+                    .appendQueryParameter(DAYS_PARAM,
+                            Integer.toString(ForecastFetcher.FORECAST_DAYS))
+                    .build();
+
+            response = mTransport.get(builtUri.toString(), null, mSignal);
+            if (response.getCode() >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+                breaker.recordFailure();
+                Log.e(LOG_TAG, "Server returned " + response.getCode() + " for " + mLocationSetting);
+                forecast.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                return forecast;
+            }
+            breaker.recordSuccess();
+            if (response.getCode() != HttpURLConnection.HTTP_OK) {
+                // Open-Meteo only turns down requests it can't make sense of, and the
+                // coordinates came from OpenWeatherMap, so this is on us.
+                Log.e(LOG_TAG, "Server returned " + response.getCode() + " for " + mLocationSetting);
+                forecast.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+                return forecast;
+            }
+
+            InputStream inputStream = response.getBody();
+            if (inputStream == null) {
+                return forecast;
+            }
+
+            reader = new JsonReader(new BufferedReader(new InputStreamReader(inputStream, "UTF-8")));
+            long parseStart = System.nanoTime();
+            getWeatherDataFromJson(reader, forecast, mSignal);
+            forecast.parseNanos = System.nanoTime() - parseStart;
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            forecast.days.clear();
+            forecast.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+        } catch (IOException e) {
+            if (mSignal.isCanceled()) {
+                return cancelled(forecast);
+            }
+            Log.e(LOG_TAG, "Error ", e);
+            breaker.recordFailure();
+            forecast.days.clear();
+            forecast.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+        } catch (OperationCanceledException e) {
+            return cancelled(forecast);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+            if (response != null) {
+                try {
+                    response.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing response", e);
+                }
+            }
+        }
+        return forecast;
+    }
+
+    private LocationForecast cancelled(LocationForecast forecast) {
+        Log.d(LOG_TAG, "Fetch of " + mLocationSetting + " cancelled");
+        forecast.days.clear();
+        forecast.status = SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+        return forecast;
+    }
+
+    static String joinVariables() {
+        StringBuilder variables = new StringBuilder();
+        for (String variable : DAILY_VARIABLES) {
+            if (variables.length() > 0) {
+                variables.append(',');
+            }
+            variables.append(variable);
+        }
+        return variables.toString();
+    }
+
+    /**
+     * Reads the forecast JSON off the stream into the given forecast.  Open-Meteo sends each
+     * daily variable as an array with one element per day, so the days are only put together
+     * once the whole document has been read.  A day with any variable missing ends the
+     * forecast there.  The first day is taken to be the day the forecast was fetched.
+     *
+     * @throws OperationCanceledException if the signal is cancelled part way through.
+     */
+    static void getWeatherDataFromJson(JsonReader reader, LocationForecast forecast,
+                                       CancellationSignal signal) throws IOException {
+        Time dayTime = new Time();
+        dayTime.setToNow();
+        int julianStartDay = Time.getJulianDay(forecast.fetchedAt, dayTime.gmtoff);
+
+        forecast.days.addAll(readDays(reader, julianStartDay, false, signal));
+        if (forecast.days.isEmpty()) {
+            throw new MalformedJsonException("Forecast response has no complete days");
+        }
+        forecast.status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+    }
+
+    /**
+     * Reads a response's daily arrays off the stream into weather rows, ready to be written
+     * but for their location ID.  The archive's responses are laid out just like the
+     * forecast's, so {@link HistoryFetcher} reads them here too.
+     *
+     * @param julianStartDay the Julian day of the first element of each array.
+     * @param skipIncomplete whether to leave out a day with any variable missing and go on
+     *                       to the next, rather than stop there.
+     * @throws OperationCanceledException if the signal is cancelled part way through.
+     */
+    static List<ContentValues> readDays(JsonReader reader, int julianStartDay,
+                                        boolean skipIncomplete, CancellationSignal signal)
+            throws IOException {
+        final String OM_DAILY = "daily";
+        final String OM_TIME = "time";
+
+        Map<String, List<Double>> daily = new HashMap<String, List<Double>>();
+        int dayCount = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OM_DAILY.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String variable = reader.nextName();
+                    if (OM_TIME.equals(variable)) {
+                        dayCount = countArray(reader);
+                    } else {
+                        daily.put(variable, readArray(reader));
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        List<ContentValues> days = new ArrayList<ContentValues>(dayCount);
+        Time dayTime = new Time();
+        for (int i = 0; i < dayCount; i++) {
+            if (signal != null) {
+                signal.throwIfCanceled();
+            }
+            double weatherCode = getValue(daily, OM_WEATHER_CODE, i);
+            double max = getValue(daily, OM_MAX, i);
+            double min = getValue(daily, OM_MIN, i);
+            double windSpeed = getValue(daily, OM_WINDSPEED, i);
+            double windDirection = getValue(daily, OM_WIND_DIRECTION, i);
+            double humidity = getValue(daily, OM_HUMIDITY, i);
+            double pressure = getValue(daily, OM_PRESSURE, i);
+            if (Double.isNaN(weatherCode) || Double.isNaN(max) || Double.isNaN(min)
+                    || Double.isNaN(windSpeed) || Double.isNaN(windDirection)
+                    || Double.isNaN(humidity) || Double.isNaN(pressure)) {
+                if (skipIncomplete) {
+                    continue;
+                }
+                break;
+            }
+
+            int weatherId = getWeatherIdForCode((int) weatherCode);
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    dayTime.setJulianDay(julianStartDay + i));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+                    getDescriptionForWeatherId(weatherId));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, max);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, min);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, (int) humidity);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
+            DerivedWeather.putDerivedValues(weatherValues);
+            days.add(weatherValues);
+        }
+        return days;
+    }
+
+    private static int countArray(JsonReader reader) throws IOException {
+        int count = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            reader.skipValue();
+            count++;
+        }
+        reader.endArray();
+        return count;
+    }
+
+    /**
+     * Reads an array of numbers, with any nulls read as NaN.
+     */
+    private static List<Double> readArray(JsonReader reader) throws IOException {
+        List<Double> values = new ArrayList<Double>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                values.add(Double.NaN);
+            } else {
+                values.add(reader.nextDouble());
+            }
+        }
+        reader.endArray();
+        return values;
+    }
+
+    private static double getValue(Map<String, List<Double>> daily, String variable, int day) {
+        List<Double> values = daily.get(variable);
+        if (values == null || day >= values.size()) {
+            return Double.NaN;
+        }
+        return values.get(day);
+    }
+
+    /**
+     * Translates a WMO weather interpretation code, as Open-Meteo uses, into the nearest
+     * OpenWeatherMap condition ID.
+     */
+    static int getWeatherIdForCode(int code) {
+        switch (code) {
+            case 0:
+                return 800; // clear sky
+            case 1:
+                return 801; // few clouds
+            case 2:
+                return 802; // scattered clouds
+            case 3:
+                return 804; // overcast
+            case 45:
+            case 48:
+                return 741; // fog
+            case 51:
+                return 300; // light drizzle
+            case 53:
+            case 56:
+                return 301; // drizzle
+            case 55:
+            case 57:
+                return 302; // heavy drizzle
+            case 61:
+                return 500; // light rain
+            case 63:
+                return 501; // moderate rain
+            case 65:
+                return 502; // heavy rain
+            case 66:
+            case 67:
+                return 511; // freezing rain
+            case 71:
+            case 77:
+                return 600; // light snow
+            case 73:
+                return 601; // snow
+            case 75:
+                return 602; // heavy snow
+            case 80:
+                return 520; // light shower rain
+            case 81:
+                return 521; // shower rain
+            case 82:
+                return 522; // heavy shower rain
+            case 85:
+                return 620; // light shower snow
+            case 86:
+                return 621; // shower snow
+            case 95:
+                return 211; // thunderstorm
+            case 96:
+            case 99:
+                return 201; // thunderstorm with rain
+            default:
+                return 800;
+        }
+    }
+
+    /**
+     * @return the short description OpenWeatherMap gives the condition's group.
+     */
+    static String getDescriptionForWeatherId(int weatherId) {
+        if (weatherId >= 200 && weatherId < 300) {
+            return "Thunderstorm";
+        } else if (weatherId >= 300 && weatherId < 400) {
+            return "Drizzle";
+        } else if (weatherId >= 500 && weatherId < 600) {
+            return "Rain";
+        } else if (weatherId >= 600 && weatherId < 700) {
+            return "Snow";
+        } else if (weatherId == 741) {
+            return "Fog";
+        } else if (weatherId == 800) {
+            return "Clear";
+        } else {
+            return "Clouds";
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.android.sunshine.app.sync;
+
+import android.support.v4.os.CancellationSignal;
+
+import com.example.android.sunshine.app.net.HttpTransport;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Open-Meteo's daily forecast, used as a second opinion when OpenWeatherMap is slow to
+ * answer.  It needs no API key, but only takes coordinates, so it can only be asked about
+ * locations OpenWeatherMap has already found for us.
+ */
+class OpenMeteoSource implements WeatherSource {
+    private final HttpTransport mTransport;
+
+    OpenMeteoSource(HttpTransport transport) {
+        mTransport = transport;
+    }
+
+    @Override
+    public String getName() {
+        return "Open-Meteo";
+    }
+
+    @Override
+    public Callable<LocationForecast> newFetch(String locationSetting, StoredLocation stored,
+                                               CancellationSignal signal) {
+        if (!stored.hasCoordinates()) {
+            return null;
+        }
+        return new OpenMeteoFetcher(mTransport, locationSetting, stored.cityName,
+                stored.latitude, stored.longitude, signal);
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.android.sunshine.app.sync;
+
+import android.support.v4.os.CancellationSignal;
+
+import com.example.android.sunshine.app.net.HttpTransport;
+
+import java.util.concurrent.Callable;
+
+/**
+ * OpenWeatherMap's daily forecast, our primary source.  It can look up any location setting
+ * the user types, and its responses are journaled and fetched conditionally.
+ *
+ * OpenWeatherMap can also answer for many cities at once; the sync adapter makes those group
+ * requests with {@link GroupFetcher} directly, since no other source has anything like them.
+ */
+class OpenWeatherMapSource implements WeatherSource {
+    private final HttpTransport mTransport;
+    private final ResponseJournal mJournal;
+
+    /**
+     * @param journal where to journal responses, or null not to.
+     */
+    OpenWeatherMapSource(HttpTransport transport, ResponseJournal journal) {
+        mTransport = transport;
+        mJournal = journal;
+    }
+
+    @Override
+    public String getName() {
+        return "OpenWeatherMap";
+    }
+
+    @Override
+    public Callable<LocationForecast> newFetch(String locationSetting, StoredLocation stored,
+                                               CancellationSignal signal) {
+        return new ForecastFetcher(mTransport, locationSetting, stored.validators, mJournal,
+                stored.journaled, signal);
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.app.R;
+
+/**
+ * Keeps our requests to OpenWeatherMap within what the API key is allowed, so that a sync of
+ * many locations, a few manual refreshes and their retries can't add up to getting the key
+ * throttled.  Every request the sync adapter sends OpenWeatherMap has to be let through here
+ * first.
+ *
+ * The quota is a token bucket holding a minute's worth of requests, refilled at the rate the
+ * key allows.  The bucket is kept in SharedPreferences, so killing the process or rebooting
+ * doesn't hand out a fresh minute's worth.  How far a request can dig into the bucket depends
+ * on its priority:
+ * <ul>
+ *     <li>the location on screen may borrow up to {@link #BORROW_LIMIT} requests ahead of
+ *     the refill, so the user is never kept waiting on background work;</li>
+ *     <li>other saved locations need a whole token;</li>
+ *     <li>prefetches have to leave {@link #PREFETCH_RESERVE} tokens behind for whatever the
+ *     user asks for next.</li>
+ * </ul>
+ * A request that isn't let through should be deferred, and tried again after
+ * {@link #getWaitMillis}.
+ */
+class QuotaGovernor {
+
+    // OpenWeatherMap's free tier allows 60 calls a minute per key.
+    static final int CAPACITY = 60;
+    static final long REFILL_MILLIS = 60 * 1000 / CAPACITY;
+    static final int BORROW_LIMIT = 10;
+    static final int PREFETCH_RESERVE = 15;
+
+    private static QuotaGovernor sInstance;
+
+    private final SharedPreferences mPrefs;
+    private final String mTokensKey;
+    private final String mUpdatedAtKey;
+
+    private double mTokens;
+    // When mTokens was last brought up to date, in milliseconds since the epoch.
+    private long mUpdatedAt;
+
+    /**
+     * @return the app's governor, with the bucket as it was last left.
+     */
+    static synchronized QuotaGovernor get(Context context) {
+        if (sInstance == null) {
+            sInstance = new QuotaGovernor(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    // Everything but the tests should go through get().
+    QuotaGovernor(Context context) {
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        mTokensKey = context.getString(R.string.pref_quota_tokens_key);
+        mUpdatedAtKey = context.getString(R.string.pref_quota_updated_at_key);
+        mTokens = mPrefs.getFloat(mTokensKey, CAPACITY);
+        mUpdatedAt = mPrefs.getLong(mUpdatedAtKey, 0);
+    }
+
+    boolean tryAcquire(@SyncScheduler.Priority int priority) {
+        return tryAcquire(priority, System.currentTimeMillis());
+    }
+
+    /**
+     * Takes a token for one request, if one of this priority may go out now.
+     *
+     * @return true if the request may go out; false if it should be deferred.
+     */
+    synchronized boolean tryAcquire(@SyncScheduler.Priority int priority, long now) {
+        refill(now);
+        if (mTokens < getTokensNeeded(priority)) {
+            return false;
+        }
+        mTokens -= 1;
+        mPrefs.edit()
+                .putFloat(mTokensKey, (float) mTokens)
+                .putLong(mUpdatedAtKey, mUpdatedAt)
+                .apply();
+        return true;
+    }
+
+    long getWaitMillis(@SyncScheduler.Priority int priority) {
+        return getWaitMillis(priority, System.currentTimeMillis());
+    }
+
+    /**
+     * @return how long until a request of this priority would be let through, or 0 if it
+     * would be now.
+     */
+    synchronized long getWaitMillis(@SyncScheduler.Priority int priority, long now) {
+        refill(now);
+        double missing = getTokensNeeded(priority) - mTokens;
+        return missing <= 0 ? 0 : (long) Math.ceil(missing * REFILL_MILLIS);
+    }
+
+    /**
+     * @return how many tokens there have to be for a request of this priority to take one.
+     */
+    private static int getTokensNeeded(@SyncScheduler.Priority int priority) {
+        switch (priority) {
+            case SyncScheduler.PRIORITY_VISIBLE:
+                return 1 - BORROW_LIMIT;
+            case SyncScheduler.PRIORITY_FAVORITE:
+                return 1;
+            default:
+                return 1 + PREFETCH_RESERVE;
+        }
+    }
+
+    private void refill(long now) {
+        if (now > mUpdatedAt) {
+            // Nothing builds up while the bucket is full, and a clock that has gone backwards
+            // just restarts the refill from here.
+            mTokens = Math.min(CAPACITY, mTokens + (double) (now - mUpdatedAt) / REFILL_MILLIS);
+        }
+        mUpdatedAt = now;
+    }
+}
@@ -0,0 +1,335 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * An append-only journal of the raw forecast responses we've had from the server, kept in a
+ * memory-mapped file outside the database.  A response is journaled as soon as it has parsed,
+ * before anything is written to the database, so that if the process dies before the write,
+ * or the database is thrown away on an upgrade, it can be parsed again from here instead of
+ * downloaded again.  Since it's the response that's kept, a change to the parsing applies to
+ * journaled forecasts too.  Replaying is only free while the forecast is still fresh; after
+ * that it saves the download only if the server answers the journaled validators with a 304.
+ *
+ * The body is kept gzipped, as it's compressed on its way through the parser, so a record
+ * is a few kilobytes rather than the whole response.  Each record is laid out as
+ * <pre>
+ *     int length | long fetchedAt | UTF location | UTF eTag | UTF lastModified |
+ *     int bodyLength | byte[] gzipped body | int crc32
+ * </pre>
+ * where the length covers everything between it and the CRC.  The file starts out zeroed,
+ * and a record's length is written last, so a record that was only partly written when the
+ * process died reads as the end of the journal.  Appends aren't synced to disk: the mapped pages outlive
+ * the process, and if the device goes down first, a record that didn't make it fails its
+ * CRC and is dropped along with everything after it, which costs no more than a download.
+ *
+ * When the file fills up it's compacted down to the latest record for each location.
+ */
+public class ResponseJournal {
+    private static final String LOG_TAG = ResponseJournal.class.getSimpleName();
+
+    private static final String FILE_NAME = "forecast.journal";
+    private static final int MAGIC = 0x534a4e4c; // "SJNL"
+    private static final int VERSION = 3;
+    private static final int HEADER_SIZE = 8;
+    // The length before a record and the CRC after it.
+    private static final int RECORD_OVERHEAD = 8;
+
+    static final int DEFAULT_CAPACITY = 1024 * 1024;
+    // Compaction drops records older than this.
+    static final long MAX_RECORD_AGE_MILLIS = 7 * 24 * 60 * 60 * 1000L;
+
+    private static ResponseJournal sInstance;
+
+    private final File mFile;
+    private final int mCapacity;
+    private MappedByteBuffer mBuffer;
+    // Where the next record goes.
+    private int mEnd;
+    // Offset of the latest record for each location, in the order they were last written.
+    private final Map<String, Integer> mLatest = new LinkedHashMap<String, Integer>();
+
+    /**
+     * One journaled response.
+     */
+    public static class Record {
+        public final String locationSetting;
+        // When it was fetched, in milliseconds since the epoch.
+        public final long fetchedAt;
+        // The response's cache validators, either of which may be null.
+        public final String eTag;
+        public final String lastModified;
+        // The response body, gzipped.
+        public final byte[] body;
+
+        public Record(String locationSetting, long fetchedAt, String eTag, String lastModified,
+                      byte[] body) {
+            this.locationSetting = locationSetting;
+            this.fetchedAt = fetchedAt;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.body = body;
+        }
+
+        /**
+         * @return the response body as the server sent it.
+         */
+        public InputStream openBody() throws IOException {
+            return new GZIPInputStream(new ByteArrayInputStream(body));
+        }
+    }
+
+    // How much of the file is zeroed at a time.
+    private static final int ZERO_CHUNK_SIZE = 8 * 1024;
+
+    /**
+     * @return the app's journal, opening it if need be, or null if it can't be opened.
+     */
+    public static synchronized ResponseJournal get(Context context) {
+        if (sInstance == null) {
+            try {
+                sInstance = new ResponseJournal(
+                        new File(context.getFilesDir(), FILE_NAME), DEFAULT_CAPACITY);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Couldn't open the response journal", e);
+                return null;
+            }
+        }
+        return sInstance;
+    }
+
+    // Everything but the tests should go through get().
+    ResponseJournal(File file, int capacity) throws IOException {
+        mFile = file;
+        mCapacity = capacity;
+        open();
+    }
+
+    /**
+     * Appends a response to the journal, compacting it first if it's full.  A response too
+     * big to ever fit is not journaled.
+     */
+    public synchronized void append(Record record) throws IOException {
+        // Only the fields ahead of the body are encoded; the body goes straight into the map.
+        byte[] header = encodeHeader(record);
+        int length = header.length + record.body.length;
+        int size = length + RECORD_OVERHEAD;
+        if (size > (mCapacity - HEADER_SIZE) / 2) {
+            Log.w(LOG_TAG, "Not journaling a " + size + " byte response");
+            return;
+        }
+        if (mEnd + size > mCapacity) {
+            compact();
+            if (mEnd + size > mCapacity) {
+                Log.w(LOG_TAG, "Journal is still full after compacting");
+                return;
+            }
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(header);
+        crc.update(record.body);
+        mBuffer.position(mEnd + 4);
+        mBuffer.put(header);
+        mBuffer.put(record.body);
+        mBuffer.putInt((int) crc.getValue());
+        // Only now does the record become part of the journal.
+        mBuffer.putInt(mEnd, length);
+
+        mLatest.remove(record.locationSetting);
+        mLatest.put(record.locationSetting, mEnd);
+        mEnd += size;
+    }
+
+    /**
+     * @return the latest response journaled for the location, or null if there isn't one.
+     */
+    public synchronized Record getLatest(String locationSetting) {
+        Integer offset = mLatest.get(locationSetting);
+        return offset == null ? null : read(offset);
+    }
+
+    /**
+     * @return every location with a response in the journal, least recently written first.
+     */
+    public synchronized List<String> getLocations() {
+        return new ArrayList<String>(mLatest.keySet());
+    }
+
+    /**
+     * Maps the file, creating it if it doesn't exist, and reads through it to find where each
+     * location's latest record is and where the journal ends.
+     */
+    private void open() throws IOException {
+        boolean readable;
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            readable = file.length() == mCapacity
+                    && file.readInt() == MAGIC && file.readInt() == VERSION;
+            if (!readable) {
+                // New, or from a version we can't read; start over.  Truncating the file
+                // and growing it again zeroes it without writing it out a byte at a time.
+                file.setLength(0);
+                file.setLength(mCapacity);
+            }
+            mBuffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mCapacity);
+        } finally {
+            // The mapping stays valid after the file is closed.
+            file.close();
+        }
+
+        mLatest.clear();
+        if (!readable) {
+            mBuffer.putInt(0, MAGIC);
+            mBuffer.putInt(4, VERSION);
+            mEnd = HEADER_SIZE;
+            return;
+        }
+
+        int offset = HEADER_SIZE;
+        while (true) {
+            Record record = read(offset);
+            if (record == null) {
+                break;
+            }
+            mLatest.remove(record.locationSetting);
+            mLatest.put(record.locationSetting, offset);
+            offset += mBuffer.getInt(offset) + RECORD_OVERHEAD;
+        }
+        mEnd = offset;
+        // Clear out whatever a torn write left after the end, so it can't be mistaken for a
+        // record once the next append lands in front of it.
+        if (mEnd + 4 <= mCapacity && mBuffer.getInt(mEnd) != 0) {
+            byte[] zeros = new byte[ZERO_CHUNK_SIZE];
+            mBuffer.position(mEnd);
+            while (mBuffer.hasRemaining()) {
+                mBuffer.put(zeros, 0, Math.min(zeros.length, mBuffer.remaining()));
+            }
+        }
+    }
+
+    /**
+     * @return the record at the offset, or null if there's no complete, intact record there.
+     */
+    private Record read(int offset) {
+        if (offset + RECORD_OVERHEAD > mCapacity) {
+            return null;
+        }
+        int length = mBuffer.getInt(offset);
+        if (length <= 0 || offset + length + RECORD_OVERHEAD > mCapacity) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        mBuffer.position(offset + 4);
+        try {
+            mBuffer.get(payload);
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if (mBuffer.getInt() != (int) crc.getValue()) {
+            Log.w(LOG_TAG, "Journal record at " + offset + " is corrupt");
+            return null;
+        }
+        try {
+            return decode(payload);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Journal record at " + offset + " can't be read", e);
+            return null;
+        }
+    }
+
+    /**
+     * Rewrites the journal with only the latest, not too old, record for each location.  The
+     * new journal is written to a separate file and renamed over the old one, so dying part
+     * way through leaves the old one as it was.
+     */
+    private void compact() throws IOException {
+        long oldest = System.currentTimeMillis() - MAX_RECORD_AGE_MILLIS;
+        List<Record> keep = new ArrayList<Record>();
+        for (int offset : mLatest.values()) {
+            Record record = read(offset);
+            if (record != null && record.fetchedAt >= oldest) {
+                keep.add(record);
+            }
+        }
+
+        File compacted = new File(mFile.getPath() + ".tmp");
+        if (compacted.exists() && !compacted.delete()) {
+            throw new IOException("Couldn't delete " + compacted);
+        }
+        ResponseJournal journal = new ResponseJournal(compacted, mCapacity);
+        for (Record record : keep) {
+            journal.append(record);
+        }
+        // Whatever is on disk under the old name has to be whole before it's replaced.
+        journal.mBuffer.force();
+        if (!compacted.renameTo(mFile)) {
+            throw new IOException("Couldn't replace " + mFile);
+        }
+        Log.d(LOG_TAG, "Compacted journal to " + keep.size() + " records");
+
+        mBuffer = journal.mBuffer;
+        mEnd = journal.mEnd;
+        mLatest.clear();
+        mLatest.putAll(journal.mLatest);
+    }
+
+    private static byte[] encodeHeader(Record record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(record.fetchedAt);
+        out.writeUTF(record.locationSetting);
+        writeNullableUTF(out, record.eTag);
+        writeNullableUTF(out, record.lastModified);
+        out.writeInt(record.body.length);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static Record decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        long fetchedAt = in.readLong();
+        String locationSetting = in.readUTF();
+        String eTag = readNullableUTF(in);
+        String lastModified = readNullableUTF(in);
+        int bodyLength = in.readInt();
+        if (bodyLength < 0 || bodyLength > in.available()) {
+            throw new IOException("Body length " + bodyLength + " overruns the record");
+        }
+        byte[] body = new byte[bodyLength];
+        in.readFully(body);
+        return new Record(locationSetting, fetchedAt, eTag, lastModified, body);
+    }
+
+    private static void writeNullableUTF(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableUTF(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
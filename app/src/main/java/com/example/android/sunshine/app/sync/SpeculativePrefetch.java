@@ -0,0 +1,141 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.v4.os.CancellationSignal;
+import android.util.Log;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Fetches the forecast for a location the user is still typing, so that by the time they
+ * commit it there's nothing left to wait for but the write.  Only one location is ever
+ * staged: starting on another drops the last one, in flight or not.
+ *
+ * A staged forecast is parsed but not written anywhere.  The next sync takes it instead of
+ * going to the network if it's for one of the locations being synced, and it's dropped
+ * otherwise, once it's {@link #MAX_STAGED_AGE_MILLIS} old or the user gives up on the
+ * location.  Prefetches are charged to the {@link QuotaGovernor} at
+ * {@link SyncScheduler#PRIORITY_PREFETCH}, so they can't starve real syncs of requests.
+ */
+public class SpeculativePrefetch {
+    private static final String LOG_TAG = SpeculativePrefetch.class.getSimpleName();
+
+    static final long MAX_STAGED_AGE_MILLIS = 5 * 60 * 1000;
+
+    private static final SpeculativePrefetch sInstance = new SpeculativePrefetch();
+
+    // Prefetches are one at a time, since each one replaces the last.
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    private String mLocationSetting;
+    private CancellationSignal mSignal;
+    private Future<LocationForecast> mFuture;
+    // When the prefetch was started, in SystemClock.elapsedRealtime() time.
+    private long mStartedAt;
+
+    public static SpeculativePrefetch getInstance() {
+        return sInstance;
+    }
+
+    // Everything but the tests should go through getInstance().
+    SpeculativePrefetch() {
+    }
+
+    /**
+     * Starts fetching the forecast for this location in the background, unless it's already
+     * staged or known not to exist, or the quota won't stretch to it.
+     */
+    public synchronized void prefetch(Context context, String locationSetting) {
+        if (locationSetting.equals(mLocationSetting) && !isExpired()) {
+            return;
+        }
+        drop();
+        if (InvalidLocationCache.get(context).contains(locationSetting)
+                || !QuotaGovernor.get(context).tryAcquire(SyncScheduler.PRIORITY_PREFETCH)) {
+            return;
+        }
+        Log.d(LOG_TAG, "Prefetching " + locationSetting);
+        final Context appContext = context.getApplicationContext();
+        final String location = locationSetting;
+        // No journal: whatever is typed on the way to a location isn't worth keeping.
+        mSignal = new CancellationSignal();
+        final Callable<LocationForecast> fetch =
+                new OpenWeatherMapSource(SunshineSyncAdapter.getTransport(), null)
+                        .newFetch(location, new StoredLocation(), mSignal);
+        mLocationSetting = location;
+        mStartedAt = SystemClock.elapsedRealtime();
+        mFuture = mExecutor.submit(new Callable<LocationForecast>() {
+            @Override
+            public LocationForecast call() throws Exception {
+                LocationForecast forecast = fetch.call();
+                if (forecast.status == SunshineSyncAdapter.LOCATION_STATUS_INVALID) {
+                    InvalidLocationCache.get(appContext).add(location);
+                }
+                return forecast;
+            }
+        });
+    }
+
+    /**
+     * Drops whatever is staged, unless it's for this location.  Called when the user settles
+     * on a location, so that only a prefetch for that one is left for the sync.
+     */
+    public synchronized void keepOnly(String locationSetting) {
+        if (!locationSetting.equals(mLocationSetting)) {
+            drop();
+        }
+    }
+
+    /**
+     * Drops whatever is staged, cancelling it if it's still in flight.
+     */
+    public synchronized void cancel() {
+        drop();
+    }
+
+    /**
+     * Takes the staged forecast for this location, waiting for it if it's still in flight.
+     * Whatever is staged is dropped either way.
+     *
+     * @return the forecast, or null if there isn't a usable one.
+     */
+    LocationForecast take(String locationSetting) throws InterruptedException {
+        Future<LocationForecast> future;
+        synchronized (this) {
+            if (!locationSetting.equals(mLocationSetting) || isExpired()) {
+                return null;
+            }
+            future = mFuture;
+            // Handed over, so it mustn't be cancelled from here on.
+            mLocationSetting = null;
+            mSignal = null;
+            mFuture = null;
+        }
+        try {
+            LocationForecast forecast = future.get();
+            return forecast.status == SunshineSyncAdapter.LOCATION_STATUS_OK ? forecast : null;
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG, "Error prefetching " + locationSetting, e.getCause());
+            return null;
+        }
+    }
+
+    private boolean isExpired() {
+        return SystemClock.elapsedRealtime() - mStartedAt > MAX_STAGED_AGE_MILLIS;
+    }
+
+    private void drop() {
+        if (mFuture != null) {
+            mSignal.cancel();
+            mFuture.cancel(true);
+        }
+        mLocationSetting = null;
+        mSignal = null;
+        mFuture = null;
+    }
+}
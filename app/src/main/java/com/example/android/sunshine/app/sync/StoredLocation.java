@@ -0,0 +1,36 @@
+package com.example.android.sunshine.app.sync;
+
+/**
+ * What we already hold for a location, as far as deciding how to fetch it goes.
+ */
+class StoredLocation {
+    // OpenWeatherMap's ID for the city, or 0 if we haven't learned it yet.
+    long cityId;
+    // How many days of forecast we have from today onwards.
+    int daysAhead;
+    // When we last heard from the server about it, or 0 if we have no forecast for it.
+    long fetchedAt;
+    // When we last had its full daily forecast from the server, or 0 if we have none.  A
+    // refresh of the current conditions alone doesn't count.
+    long forecastFetchedAt;
+    // When we last fetched its 3-hour forecast, or 0 if we never have.
+    long intervalsFetchedAt;
+    // The ETag and Last-Modified values stored for the location, or null if the request
+    // has to be unconditional.  Either element may be null.
+    String[] validators;
+    // The latest response in the journal for the location, or null.
+    ResponseJournal.Record journaled;
+
+    // The city as the location table has it, or null and NaN if the location isn't in the
+    // table yet.  Sources that can't look a location setting up themselves go by these.
+    String cityName;
+    double latitude = Double.NaN;
+    double longitude = Double.NaN;
+
+    /**
+     * @return true if we know where the location actually is.
+     */
+    boolean hasCoordinates() {
+        return cityName != null && !Double.isNaN(latitude) && !Double.isNaN(longitude);
+    }
+}
@@ -0,0 +1,306 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.ContentProviderClient;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SyncResult;
+import android.os.Build;
+import android.os.Bundle;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.example.android.sunshine.app.R;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the sync adapter's sync as a JobScheduler job, on Lollipop and up, so the framework can
+ * hold it for a better moment and batch it with other apps' work instead of waking the radio
+ * on a timer of our own.
+ *
+ * There are two jobs:
+ * <ul>
+ *     <li>the periodic sync, which would rather wait for an unmetered network and a charger,
+ *     but runs anyway once a whole sync interval has gone by.  It's a one-off job that
+ *     schedules the next one as it finishes, so the interval can move with
+ *     {@link AdaptiveSyncInterval} and keep its flex time;</li>
+ *     <li>the immediate sync, which only needs a network, for anything the user is waiting
+ *     on.  It's retried with backoff if it fails.</li>
+ * </ul>
+ * Both go through {@link SunshineSyncAdapter#onPerformSync} just as the framework's syncs do,
+ * and so take turns with any the framework still runs.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class SunshineJobService extends JobService {
+    private static final String LOG_TAG = SunshineJobService.class.getSimpleName();
+
+    static final int JOB_ID_PERIODIC = 1;
+    static final int JOB_ID_IMMEDIATE = 2;
+
+    // How long a failed immediate sync waits before its first retry; the framework doubles it
+    // from there.
+    private static final long BACKOFF_MILLIS = 30 * 1000;
+    // A periodic sync that failed is tried again this soon, rather than a whole interval on.
+    private static final long RETRY_MILLIS = 15 * 60 * 1000;
+
+    // The SyncCoalescer counts on there being one sync at a time, as there is with the sync
+    // adapter, so jobs queue up behind each other here.
+    private static final ExecutorService sSyncExecutor = Executors.newSingleThreadExecutor();
+    private static final Object sSyncAdapterLock = new Object();
+    private static SunshineSyncAdapter sSunshineSyncAdapter = null;
+
+    // Jobs that have started and not finished, and those asked for again in the meantime.
+    // Scheduling a job that's running would stop it, so those wait until it's done.
+    private static final Set<Integer> sRunning = new HashSet<Integer>();
+    private static final Set<Integer> sRequested = new HashSet<Integer>();
+
+    // The syncs of jobs that haven't finished or been stopped.  Each takes itself out as it
+    // finishes, on the sync thread or whichever stopped it, so this is guarded by itself.
+    private final SparseArray<Future<?>> mSyncs = new SparseArray<Future<?>>();
+
+    /**
+     * Schedules the periodic sync to run within the given interval, replacing whatever was
+     * scheduled before.  If it's running, it picks the interval up when it reschedules itself.
+     *
+     * @param syncInterval the interval, in seconds.
+     * @param flexTime how much sooner than the interval it may run, in seconds.
+     */
+    static void schedulePeriodicSync(Context context, int syncInterval, int flexTime) {
+        synchronized (sRunning) {
+            if (sRunning.contains(JOB_ID_PERIODIC)) {
+                return;
+            }
+        }
+        schedulePeriodicJob(context, (syncInterval - flexTime) * 1000L, flexTime * 1000L);
+    }
+
+    /**
+     * Schedules the periodic sync, unless it already is, as it will be from the last time the
+     * app ran unless the app has just been installed or upgraded from the sync adapter.
+     */
+    static void ensurePeriodicSync(Context context) {
+        JobScheduler jobScheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : jobScheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID_PERIODIC) {
+                return;
+            }
+        }
+        int syncInterval = AdaptiveSyncInterval.getSyncInterval(context);
+        schedulePeriodicSync(context, syncInterval,
+                AdaptiveSyncInterval.getSyncFlextime(syncInterval));
+    }
+
+    /**
+     * Has a sync run as soon as there's a network.  If one is running already, another is
+     * scheduled once it's done.
+     */
+    static void scheduleImmediateSync(Context context) {
+        synchronized (sRunning) {
+            if (sRunning.contains(JOB_ID_IMMEDIATE)) {
+                sRequested.add(JOB_ID_IMMEDIATE);
+                return;
+            }
+        }
+        JobInfo job = new JobInfo.Builder(JOB_ID_IMMEDIATE, getComponent(context))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                .setBackoffCriteria(BACKOFF_MILLIS, JobInfo.BACKOFF_POLICY_EXPONENTIAL)
+                .build();
+        schedule(context, job);
+    }
+
+    private static void schedulePeriodicJob(Context context, long minLatencyMillis,
+                                            long flexMillis) {
+        JobInfo job = new JobInfo.Builder(JOB_ID_PERIODIC, getComponent(context))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setRequiresCharging(true)
+                .setMinimumLatency(minLatencyMillis)
+                // Past this, the job runs whether or not the network and charger are there.
+                .setOverrideDeadline(minLatencyMillis + flexMillis)
+                .setPersisted(true)
+                .build();
+        schedule(context, job);
+    }
+
+    private static void schedule(Context context, JobInfo job) {
+        JobScheduler jobScheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (jobScheduler.schedule(job) != JobScheduler.RESULT_SUCCESS) {
+            Log.e(LOG_TAG, "Couldn't schedule job " + job.getId());
+        }
+    }
+
+    private static ComponentName getComponent(Context context) {
+        return new ComponentName(context, SunshineJobService.class);
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        final int jobId = params.getJobId();
+        Log.d(LOG_TAG, "Starting job " + jobId);
+        synchronized (sRunning) {
+            sRunning.add(jobId);
+        }
+        final Context context = getApplicationContext();
+        FutureTask<Void> sync = new JobSync(new Runnable() {
+            @Override
+            public void run() {
+                SyncResult syncResult = new SyncResult();
+                try {
+                    performSync(context, jobId == JOB_ID_IMMEDIATE, syncResult);
+                } finally {
+                    finishJob(context, params, syncResult, Thread.interrupted());
+                }
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                // Stopped while it was waiting its turn, so the sync never started.
+                finishJob(context, params, new SyncResult(), true);
+            }
+        }) {
+            @Override
+            protected void done() {
+                super.done();
+                synchronized (mSyncs) {
+                    // A stopped job may have been started again since.
+                    if (mSyncs.get(jobId) == this) {
+                        mSyncs.remove(jobId);
+                    }
+                }
+            }
+        };
+        synchronized (mSyncs) {
+            mSyncs.put(jobId, sync);
+        }
+        sSyncExecutor.execute(sync);
+        return true;
+    }
+
+    /**
+     * Called when the job's constraints no longer hold, say because the network went away.
+     * Interrupting the sync stops it just as the framework's cancelling a sync does; one
+     * that's still queued behind another job's is finished off here instead.
+     */
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        int jobId = params.getJobId();
+        Future<?> sync;
+        synchronized (mSyncs) {
+            sync = mSyncs.get(jobId);
+            mSyncs.remove(jobId);
+        }
+        if (sync == null || sync.isDone()) {
+            return false;
+        }
+        Log.d(LOG_TAG, "Stopping job " + jobId);
+        sync.cancel(true);
+        // The periodic sync reschedules itself, deadline and all, which a retry wouldn't.
+        return jobId == JOB_ID_IMMEDIATE;
+    }
+
+    /**
+     * A job's sync, queued on the sync thread.  Exactly one of the sync and stoppedWhileQueued
+     * runs: the sync, once the sync thread gets to it, or stoppedWhileQueued, on the thread that
+     * cancels it, if the job is stopped before then.  Either way the job gets finished off.
+     */
+    static class JobSync extends FutureTask<Void> {
+        private final AtomicBoolean mStarted;
+        private final Runnable mStoppedWhileQueued;
+
+        JobSync(Runnable sync, Runnable stoppedWhileQueued) {
+            this(sync, stoppedWhileQueued, new AtomicBoolean());
+        }
+
+        private JobSync(final Runnable sync, Runnable stoppedWhileQueued,
+                        final AtomicBoolean started) {
+            super(new Runnable() {
+                @Override
+                public void run() {
+                    if (started.compareAndSet(false, true)) {
+                        sync.run();
+                    }
+                }
+            }, null);
+            mStarted = started;
+            mStoppedWhileQueued = stoppedWhileQueued;
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled() && mStarted.compareAndSet(false, true)) {
+                mStoppedWhileQueued.run();
+            }
+        }
+    }
+
+    private static void performSync(Context context, boolean manual, SyncResult syncResult) {
+        synchronized (sSyncAdapterLock) {
+            if (sSunshineSyncAdapter == null) {
+                sSunshineSyncAdapter = new SunshineSyncAdapter(context, true);
+            }
+        }
+        Bundle extras = new Bundle();
+        if (manual) {
+            extras.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        }
+        String authority = context.getString(R.string.content_authority);
+        ContentProviderClient provider =
+                context.getContentResolver().acquireContentProviderClient(authority);
+        try {
+            // There's no account to sync here; the sync adapter doesn't look at it.
+            sSunshineSyncAdapter.onPerformSync(null, extras, authority, provider, syncResult);
+        } finally {
+            provider.release();
+        }
+    }
+
+    /**
+     * Tells the framework the job is done, unless it has been stopped, and schedules whatever
+     * has to run next.
+     */
+    private void finishJob(Context context, JobParameters params, SyncResult syncResult,
+                           boolean stopped) {
+        int jobId = params.getJobId();
+        boolean requested;
+        synchronized (sRunning) {
+            sRunning.remove(jobId);
+            requested = sRequested.remove(jobId);
+        }
+        boolean retry = !stopped && syncResult.hasSoftError();
+        if (!stopped) {
+            jobFinished(params, retry && jobId == JOB_ID_IMMEDIATE);
+        }
+
+        if (jobId == JOB_ID_PERIODIC) {
+            int syncInterval = AdaptiveSyncInterval.getSyncInterval(context);
+            long flexMillis = AdaptiveSyncInterval.getSyncFlextime(syncInterval) * 1000L;
+            long minLatencyMillis = stopped || retry
+                    ? RETRY_MILLIS
+                    : syncInterval * 1000L - flexMillis;
+            // The sync may have asked for nothing to run before the quota or the server is
+            // ready for it.
+            if (syncResult.delayUntil > 0) {
+                minLatencyMillis = Math.max(minLatencyMillis,
+                        syncResult.delayUntil * 1000 - System.currentTimeMillis());
+            }
+            schedulePeriodicJob(context, minLatencyMillis, flexMillis);
+        } else if (requested) {
+            scheduleImmediateSync(context);
+        }
+        Log.d(LOG_TAG, "Finished job " + jobId + (stopped ? " (stopped)" : "")
+                + (retry ? " (retrying)" : ""));
+    }
+}
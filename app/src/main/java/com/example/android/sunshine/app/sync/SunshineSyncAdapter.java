@@ -2,9 +2,6 @@ package com.example.android.sunshine.app.sync;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
-import android.annotation.SuppressLint;
-import android.app.NotificationManager;
-import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
 import android.content.ContentResolver;
@@ -15,67 +12,72 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
-import android.content.res.Resources;
+import android.content.SyncStats;
 import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.database.SQLException;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
-import android.support.v4.app.NotificationCompat;
-import android.support.v4.app.TaskStackBuilder;
+import android.support.v4.os.CancellationSignal;
 import android.text.format.Time;
 import android.util.Log;
 
-import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.BuildConfig;
-import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.data.WeatherContract;
-import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
+import com.example.android.sunshine.app.data.WeatherProvider;
+import com.example.android.sunshine.app.net.HttpTransport;
+import com.example.android.sunshine.app.net.OkHttpTransport;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
     public static final String ACTION_DATA_UPDATED =
             "com.example.android.sunshine.app.ACTION_DATA_UPDATED";
-    // Interval at which to sync with the weather, in seconds.
+    // long[] of the (normalized) dates of the preferred location's weather that changed.
+    public static final String EXTRA_CHANGED_DATES =
+            "com.example.android.sunshine.app.EXTRA_CHANGED_DATES";
+    // Today's weather for the preferred location, as the sync wrote it, so that receivers
+    // don't have to read it back.  Left out when the sync didn't have all of it to hand.
+    public static final String EXTRA_WEATHER_ID =
+            "com.example.android.sunshine.app.EXTRA_WEATHER_ID";
+    public static final String EXTRA_SHORT_DESC =
+            "com.example.android.sunshine.app.EXTRA_SHORT_DESC";
+    public static final String EXTRA_MAX_TEMP =
+            "com.example.android.sunshine.app.EXTRA_MAX_TEMP";
+    public static final String EXTRA_MIN_TEMP =
+            "com.example.android.sunshine.app.EXTRA_MIN_TEMP";
+    public static final String EXTRA_MAX_TEMP_IMPERIAL =
+            "com.example.android.sunshine.app.EXTRA_MAX_TEMP_IMPERIAL";
+    public static final String EXTRA_MIN_TEMP_IMPERIAL =
+            "com.example.android.sunshine.app.EXTRA_MIN_TEMP_IMPERIAL";
+    // Interval at which to sync with the weather to begin with, in seconds.  AdaptiveSyncInterval
+    // moves it from there as the weather settles down or picks up.
     // 60 seconds (1 minute) * 180 = 3 hours
     public static final int SYNC_INTERVAL = 60 * 180;
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL/3;
-    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
-    private static final int WEATHER_NOTIFICATION_ID = 3004;
-
-
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
+    // How long a fetched forecast is good for before a sync goes back to the server for it,
+    // in seconds, unless the user has set otherwise.
+    public static final int DEFAULT_FRESHNESS_TTL = 60 * 15;
 
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID,  LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
@@ -87,412 +89,874 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int LOCATION_STATUS_UNKNOWN = 3;
     public static final int LOCATION_STATUS_INVALID = 4;
 
+    // Shared by every sync in the process so pooled connections outlive a single sync.
+    private static HttpTransport sTransport;
+
+    // Locations are fetched and parsed side by side, so a sync of many locations doesn't take
+    // one round trip after another.  The bound keeps us from opening more connections at
+    // once than the server (or a slow radio) will put up with.
+    private static final int MAX_PARALLEL_FETCHES = 4;
+    private static final ExecutorService sFetchExecutor = createFetchExecutor();
+
+    // Locations are taken off the SyncScheduler this many at a time, enough to fill a group
+    // request.  Each batch is written in its own transaction.
+    private static final int MAX_BATCH_SIZE = GroupFetcher.MAX_CITIES_PER_REQUEST;
+    // How often a batch waiting on the network checks whether it has been preempted.
+    private static final long PREEMPTION_CHECK_MILLIS = 250;
+
+    // The 3-hour forecast only moves on every three hours, so each location's is fetched at
+    // most that often, however often its daily forecast is.
+    private static final long INTERVALS_TTL_MILLIS =
+            WeatherContract.IntervalEntry.INTERVAL_MILLIS;
+
+    // A new location with no city ID this close to one we have, in degrees both ways, is taken
+    // to be the same city.  About a kilometre.
+    private static final double SAME_CITY_DEGREES = 0.01;
+
+    // Syncs come from SunshineJobService on Lollipop and up, and can still come from the
+    // framework too, say when the user syncs the account from its settings.  The
+    // SyncCoalescer and SyncScheduler count on there being one at a time, whichever it is.
+    private static final ReentrantLock sSyncLock = new ReentrantLock();
+
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
     }
 
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
+        try {
+            sSyncLock.lockInterruptibly();
+        } catch (InterruptedException e) {
+            Log.d(LOG_TAG, "Sync cancelled waiting for another to finish");
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            performSync(extras, provider, syncResult);
+        } finally {
+            sSyncLock.unlock();
+        }
+    }
+
+    private void performSync(Bundle extras, ContentProviderClient provider,
+                             SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
         String locationQuery = Utility.getPreferredLocation(getContext());
 
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
+        // Whatever triggered this sync, the location the user is looking at goes first.
+        // Scheduled syncs also refresh every other location we know about, behind it.  Anything
+        // already queued (say by a location change while we were busy) is picked up too.
+        // Scheduled syncs are also the ones that tell us how fast the weather is changing; a
+        // manual sync is usually for a location we've only just been given.
+        boolean periodic = !extras.getBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, false);
+        SyncCoalescer coalescer = SyncCoalescer.getInstance();
+        coalescer.onSyncStarted();
+        SyncScheduler scheduler = SyncScheduler.getInstance();
+        scheduler.enqueue(locationQuery, SyncScheduler.PRIORITY_VISIBLE);
+        if (periodic) {
+            List<String> locations = new ArrayList<String>();
+            addTrackedLocations(locations);
+            for (String location : locations) {
+                scheduler.enqueue(location, SyncScheduler.PRIORITY_FAVORITE);
+            }
+        }
+
+        // The provider lives in our own process, so we can write to it directly and keep a
+        // single transaction open across every location in a batch.
+        WeatherProvider weatherProvider = (WeatherProvider) provider.getLocalContentProvider();
 
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
+        HttpTransport transport = getTransport();
+        long bytesBefore = transport.getBytesSent() + transport.getBytesReceived();
+        SyncTrace trace = new SyncTrace(transport);
 
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
+        AdaptiveSyncInterval syncInterval = new AdaptiveSyncInterval();
+
+        // Locations the quota made us leave for later.  Once there are any, the rest of the
+        // queue waits for the next sync rather than being taken only to be put back.
+        List<String> deferred = new ArrayList<String>();
+        long quotaWaitMillis = 0;
 
         try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, locationQuery)
-                    .appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
+            SyncScheduler.Batch batch;
+            while (deferred.isEmpty() && (batch = coalescer.takeBatch(MAX_BATCH_SIZE)) != null) {
+                List<String> unfinished = new ArrayList<String>(batch.getLocations());
+                BatchWrite write = new BatchWrite(weatherProvider, locationQuery);
+                try {
+                    List<LocationForecast> forecasts = fetchForecasts(transport, batch, deferred);
+                    trace.addFetched(forecasts);
+                    if (!deferred.isEmpty()) {
+                        quotaWaitMillis = QuotaGovernor.get(getContext())
+                                .getWaitMillis(batch.getRequestedPriority());
+                        trace.addQuotaDeferred(deferred.size());
+                        Log.d(LOG_TAG, "Quota deferred " + deferred.size() + " locations for "
+                                + quotaWaitMillis / 1000 + "s");
+                    }
+                    if (batch.isPreempted()) {
+                        Log.d(LOG_TAG, "Batch preempted with " + forecasts.size() + " of "
+                                + unfinished.size() + " locations fetched");
+                    }
+
+                    // Whatever finished before a preemption is still worth keeping.  Nothing
+                    // is written until every fetch is in, so the transaction is only held
+                    // for as long as the writes take.
+                    long writeStart = System.nanoTime();
+                    for (LocationForecast forecast : forecasts) {
+                        write.write(forecast);
+                    }
+                    LocationForecast preferred =
+                            write.commit(forecasts, syncInterval, syncResult.stats);
+                    trace.addWrite(System.nanoTime() - writeStart);
+                    if (preferred != null && !preferred.changedDates.isEmpty()) {
+                        // The widgets, Muzei, the notification and the wearable are brought up
+                        // to date in the background, from the forecast we already have.
+                        long notifyStart = System.nanoTime();
+                        ForecastFanOut.getInstance().publish(getContext(), locationQuery,
+                                preferred);
+                        trace.addNotify(System.nanoTime() - notifyStart);
+                    }
+                    for (LocationForecast forecast : forecasts) {
+                        countResult(forecast, syncResult.stats);
+                        rememberIfInvalid(forecast);
+                        for (String requested : forecast.requestedAs) {
+                            unfinished.remove(requested);
+                            if (requested.equals(locationQuery)) {
+                                SyncStatus.get(getContext()).setLocationStatus(
+                                        forecast.status, forecast.error);
+                            }
+                            coalescer.finishLocation(requested, forecast.status);
+                        }
+                    }
+                } finally {
+                    // Does nothing if the batch was committed.
+                    write.abort();
+                    coalescer.finishBatch(batch, unfinished);
+                }
             }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
+            if (periodic) {
+                syncInterval.update(getContext());
+                // With the forecasts all in and the quota to spare, go on filling in the
+                // history.  It gets out of the way again as soon as another sync comes along.
+                if (deferred.isEmpty()) {
+                    HistoryBackfill.get(getContext()).start(transport, weatherProvider);
+                }
+            }
+            setDelay(syncResult, quotaWaitMillis);
+            // A cancelled sync only got part of the way, so it would skew the numbers.
+            recordMetrics(trace.finish(syncResult.stats));
+        } catch (InterruptedException e) {
+            // The sync was cancelled while we were waiting on the network.  The batch we were
+            // on hadn't been written yet, and has gone back in the queue for next time.
+            Log.d(LOG_TAG, "Sync interrupted");
+            Thread.currentThread().interrupt();
+        } finally {
+            Log.d(LOG_TAG, "Sync used " + (transport.getBytesSent() + transport.getBytesReceived()
+                    - bytesBefore) + " bytes on the wire");
+            // Someone asked for a location while we were busy, and we stopped before getting
+            // to it.
+            if (coalescer.onSyncFinished()) {
+                requestImmediateSync(getContext());
+            }
+        }
+    }
 
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
+    /**
+     * Called by the framework when this sync has been cancelled, say because the account's
+     * sync was turned off or the network went away.  The default interrupts the sync thread,
+     * which is what stops it: waiting on the fetches ends at once, whatever they have in
+     * flight is aborted, and a write in progress is rolled back.
+     */
+    @Override
+    public void onSyncCanceled() {
+        Log.d(LOG_TAG, "Sync cancelled");
+        super.onSyncCanceled();
+    }
+
+    /**
+     * Fetches and parses the forecast for each location on the fetch executor, and waits for
+     * all of them.  The results come back in the same order as the batch's locations.
+     *
+     * Locations are fetched as the location they're an alias for, if they are one, so the
+     * same city is only fetched once however many ways it was asked for.  Each forecast says
+     * which of the batch's locations it answers.
+     *
+     * If the batch is preempted, this stops waiting, cancels whatever is still in flight and
+     * returns the forecasts that had already finished.
+     *
+     * A location whose city ID we know, and whose full forecast we fetched less than a sync
+     * interval ago, only needs its current conditions refreshed.  Those go to the group
+     * endpoint up to {@link GroupFetcher#MAX_CITIES_PER_REQUEST} at a time.  Every other
+     * location, and any the group response leaves out, gets a forecast request of its own.  So
+     * does every location in a visible batch, and any the user forced, since they'll be
+     * looking at the days ahead too.
+     *
+     * Every request to OpenWeatherMap has to get past the {@link QuotaGovernor} first, at the
+     * batch's priority.  Locations it holds back are left out of the results, and added to
+     * {@code deferred} instead.
+     *
+     * Locations that go to the network and haven't had their 3-hour forecast in the last
+     * {@link #INTERVALS_TTL_MILLIS} have it fetched alongside, so it adds requests to the sync
+     * but not time.  Those only get tokens the quota would spare a prefetch; a location that
+     * misses out, or whose intervals fail, keeps the ones it has until a later sync.
+     */
+    private List<LocationForecast> fetchForecasts(HttpTransport transport,
+                                                  SyncScheduler.Batch batch,
+                                                  List<String> deferred)
+            throws InterruptedException {
+        Map<String, List<String>> requested = new LinkedHashMap<String, List<String>>();
+        for (String location : batch.getLocations()) {
+            String canonical = getCanonicalLocation(location);
+            List<String> aliases = requested.get(canonical);
+            if (aliases == null) {
+                aliases = new ArrayList<String>();
+                requested.put(canonical, aliases);
+            }
+            aliases.add(location);
+        }
+        List<String> locations = new ArrayList<String>(requested.keySet());
+        SyncCoalescer coalescer = SyncCoalescer.getInstance();
+        QuotaGovernor quota = QuotaGovernor.get(getContext());
+        InvalidLocationCache invalidLocations = InvalidLocationCache.get(getContext());
+        int priority = batch.getRequestedPriority();
+        long freshnessTtlMillis = getFreshnessTtl(getContext()) * 1000L;
+        long forecastTtlMillis = AdaptiveSyncInterval.getSyncInterval(getContext()) * 1000L;
+        long now = System.currentTimeMillis();
+        ResponseJournal journal = ResponseJournal.get(getContext());
+        WeatherSource primary = new OpenWeatherMapSource(transport, journal);
+        WeatherSource secondary =
+                isHedgingEnabled(getContext()) ? new OpenMeteoSource(transport) : null;
+        Map<String, LocationForecast> results = new HashMap<String, LocationForecast>();
+        Map<String, StoredLocation> storedLocations = new HashMap<String, StoredLocation>();
+        Map<String, Future<LocationForecast>> singleFutures =
+                new LinkedHashMap<String, Future<LocationForecast>>();
+        List<Map<Long, String>> groups = new ArrayList<Map<Long, String>>();
+        List<Future<List<LocationForecast>>> groupFutures =
+                new ArrayList<Future<List<LocationForecast>>>();
+        List<String> intervalLocations = new ArrayList<String>();
+        Map<String, Future<List<ContentValues>>> intervalFutures =
+                new LinkedHashMap<String, Future<List<ContentValues>>>();
+        // One per fetch, so that anything still in flight can be aborted.
+        List<CancellationSignal> signals = new ArrayList<CancellationSignal>();
+
+        // The stored state is looked up here because the fetchers stay away from the database.
+        // Locations still fresh from the last fetch don't go to the network at all, and nor do
+        // ones with a fresh response in the journal that never made it into the database, nor
+        // ones the server has lately told us don't exist, nor one that was prefetched while
+        // the user typed it.
+        Map<Long, String> group = new LinkedHashMap<Long, String>();
+        for (String location : locations) {
+            boolean forced = false;
+            for (String alias : requested.get(location)) {
+                forced |= coalescer.isForced(alias);
+            }
+            if (!forced && invalidLocations.contains(location)) {
+                LocationForecast forecast = new LocationForecast(location);
+                forecast.status = LOCATION_STATUS_INVALID;
+                forecast.fresh = true;
+                results.put(location, forecast);
+                continue;
+            }
+            LocationForecast prefetched = SpeculativePrefetch.getInstance().take(location);
+            if (prefetched != null) {
+                // Fetched while the user was still typing it in.
+                Log.d(LOG_TAG, "Promoted the prefetch of " + location);
+                results.put(location, prefetched);
+                continue;
             }
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
+            StoredLocation stored = getStoredLocation(location);
+            storedLocations.put(location, stored);
+            if (journal != null) {
+                stored.journaled = journal.getLatest(location);
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error ", e);
-            // If the code didn't successfully get the weather data, there's no point in attempting
-            // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+            LocationForecast replayed = null;
+            if (!forced && stored.journaled != null && stored.journaled.fetchedAt > stored.fetchedAt
+                    && isFresh(stored.journaled.fetchedAt, now, freshnessTtlMillis)) {
+                // The process died before this was written, or the database has been thrown
+                // away since.
+                replayed = new LocationForecast(location);
+                if (!ForecastFetcher.replay(stored.journaled, replayed)) {
+                    replayed = null;
+                }
+            }
+
+            if (replayed != null) {
+                Log.d(LOG_TAG, "Replayed " + location + " from the journal");
+                results.put(location, replayed);
+            } else if (!forced && isFresh(stored.fetchedAt, now, freshnessTtlMillis)) {
+                // We only just fetched this one, so there's no need to ask again.
+                LocationForecast forecast = new LocationForecast(location);
+                forecast.status = LOCATION_STATUS_OK;
+                forecast.notModified = true;
+                forecast.fresh = true;
+                results.put(location, forecast);
+            } else if (!forced && priority != SyncScheduler.PRIORITY_VISIBLE
+                    && stored.cityId != 0 && stored.daysAhead >= ForecastFetcher.FORECAST_DAYS
+                    && isFresh(stored.forecastFetchedAt, now, forecastTtlMillis)
+                    && !group.containsKey(stored.cityId)) {
+                group.put(stored.cityId, location);
+                if (group.size() == GroupFetcher.MAX_CITIES_PER_REQUEST) {
+                    groups.add(group);
+                    group = new LinkedHashMap<Long, String>();
+                }
+            } else if (quota.tryAcquire(priority)) {
+                singleFutures.put(location,
+                        submitFetch(primary, secondary, location, stored, signals));
+            } else {
+                deferred.addAll(requested.get(location));
             }
-            if (reader != null) {
+            if (!results.containsKey(location)
+                    && !isFresh(stored.intervalsFetchedAt, now, INTERVALS_TTL_MILLIS)) {
+                intervalLocations.add(location);
+            }
+        }
+        if (!group.isEmpty()) {
+            groups.add(group);
+        }
+        for (Iterator<Map<Long, String>> it = groups.iterator(); it.hasNext(); ) {
+            Map<Long, String> next = it.next();
+            if (quota.tryAcquire(priority)) {
+                groupFutures.add(sFetchExecutor.submit(
+                        new GroupFetcher(transport, next, newSignal(signals))));
+            } else {
+                for (String location : next.values()) {
+                    deferred.addAll(requested.get(location));
+                }
+                it.remove();
+            }
+        }
+        for (String location : intervalLocations) {
+            if (!deferred.containsAll(requested.get(location))
+                    && quota.tryAcquire(SyncScheduler.PRIORITY_PREFETCH)) {
+                intervalFutures.put(location, sFetchExecutor.submit(new IntervalFetcher(transport,
+                        location, storedLocations.get(location).cityId, newSignal(signals))));
+            }
+        }
+
+        boolean finished = false;
+        try {
+            for (int i = 0; i < groupFutures.size(); i++) {
+                List<String> fallback = new ArrayList<String>();
                 try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
+                    List<LocationForecast> groupForecasts = await(groupFutures.get(i), batch);
+                    if (groupForecasts == null) {
+                        return collect(requested, results);
+                    }
+                    for (LocationForecast forecast : groupForecasts) {
+                        if (forecast.status == LOCATION_STATUS_UNKNOWN) {
+                            fallback.add(forecast.locationSetting);
+                        } else {
+                            results.put(forecast.locationSetting, forecast);
+                        }
+                    }
+                } catch (ExecutionException e) {
+                    Log.e(LOG_TAG, "Error fetching group", e.getCause());
+                    fallback.addAll(groups.get(i).values());
+                }
+                for (String location : fallback) {
+                    if (quota.tryAcquire(priority)) {
+                        singleFutures.put(location, submitFetch(primary, secondary, location,
+                                storedLocations.get(location), signals));
+                    } else {
+                        deferred.addAll(requested.get(location));
+                    }
+                }
+            }
+
+            for (Map.Entry<String, Future<LocationForecast>> future : singleFutures.entrySet()) {
+                try {
+                    LocationForecast forecast = await(future.getValue(), batch);
+                    if (forecast == null) {
+                        return collect(requested, results);
+                    }
+                    results.put(future.getKey(), forecast);
+                } catch (ExecutionException e) {
+                    // The fetchers report the failures they know about in the status, so
+                    // this is a bug, but it's still only this location's problem.
+                    Log.e(LOG_TAG, "Error fetching " + future.getKey(), e.getCause());
+                    LocationForecast forecast = new LocationForecast(future.getKey());
+                    forecast.status = LOCATION_STATUS_SERVER_INVALID;
+                    results.put(future.getKey(), forecast);
+                }
+            }
+
+            for (Map.Entry<String, Future<List<ContentValues>>> future
+                    : intervalFutures.entrySet()) {
+                try {
+                    List<ContentValues> intervals = await(future.getValue(), batch);
+                    if (batch.isPreempted()) {
+                        // The daily forecasts are all in, so they still go back; only the
+                        // intervals still in flight are lost.
+                        return collect(requested, results);
+                    }
+                    LocationForecast forecast = results.get(future.getKey());
+                    if (intervals != null && forecast != null) {
+                        forecast.intervals = intervals;
+                        forecast.intervalsFetchedAt = now;
+                    }
+                } catch (ExecutionException e) {
+                    Log.e(LOG_TAG, "Error fetching intervals for " + future.getKey(),
+                            e.getCause());
+                }
+            }
+            finished = true;
+        } finally {
+            if (!finished) {
+                // Cancelling the signals drops the connections, which is what actually stops
+                // a fetch that's blocked on the network; the futures only stop the ones that
+                // haven't started yet.
+                for (CancellationSignal signal : signals) {
+                    signal.cancel();
+                }
+                for (Future<List<LocationForecast>> future : groupFutures) {
+                    future.cancel(true);
+                }
+                for (Future<LocationForecast> future : singleFutures.values()) {
+                    future.cancel(true);
+                }
+                for (Future<List<ContentValues>> future : intervalFutures.values()) {
+                    future.cancel(true);
                 }
             }
         }
-        return;
+
+        return collect(requested, results);
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
+     * Starts fetching one location from the primary source, hedged with the secondary if
+     * there is one and it can ask for the location.
      *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * @param secondary the source to hedge with, or null not to.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
+    private static Future<LocationForecast> submitFetch(WeatherSource primary,
+                                                        WeatherSource secondary,
+                                                        String location,
+                                                        StoredLocation stored,
+                                                        List<CancellationSignal> signals) {
+        CancellationSignal primarySignal = newSignal(signals);
+        Callable<LocationForecast> primaryFetch =
+                primary.newFetch(location, stored, primarySignal);
+        if (secondary != null) {
+            CancellationSignal secondarySignal = newSignal(signals);
+            Callable<LocationForecast> secondaryFetch =
+                    secondary.newFetch(location, stored, secondarySignal);
+            if (secondaryFetch != null) {
+                return new HedgedFetch(sFetchExecutor, HedgePolicy.getInstance(), location,
+                        primaryFetch, primarySignal, secondaryFetch, secondarySignal);
+            }
+        }
+        return sFetchExecutor.submit(primaryFetch);
+    }
 
-        // These are the names of the JSON objects that need to be extracted.
+    private static CancellationSignal newSignal(List<CancellationSignal> signals) {
+        CancellationSignal signal = new CancellationSignal();
+        signals.add(signal);
+        return signal;
+    }
 
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
+    /**
+     * Adds how one location's fetch went to the sync's stats.  Network trouble is a soft
+     * error, which the framework retries with backoff; a response we can't read is a hard
+     * error, since asking again will only get the same thing back.
+     */
+    private static void countResult(LocationForecast forecast, SyncStats stats) {
+        switch (forecast.status) {
+            case LOCATION_STATUS_SERVER_DOWN:
+                stats.numIoExceptions++;
+                break;
+            case LOCATION_STATUS_SERVER_INVALID:
+                stats.numParseExceptions++;
+                break;
+            case LOCATION_STATUS_INVALID:
+                // Nothing wrong with the sync, just with what the user typed.
+                stats.numSkippedEntries++;
+                break;
+            default:
+                break;
+        }
+    }
 
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
+    /**
+     * Adds a location the server said doesn't exist to the {@link InvalidLocationCache}, and
+     * takes one it has just found back out.
+     */
+    private void rememberIfInvalid(LocationForecast forecast) {
+        if (forecast.fresh) {
+            // We didn't ask, so there's nothing new to remember.
+            return;
+        }
+        if (forecast.status == LOCATION_STATUS_INVALID) {
+            InvalidLocationCache.get(getContext()).add(forecast.locationSetting);
+        } else if (forecast.status == LOCATION_STATUS_OK) {
+            InvalidLocationCache.get(getContext()).remove(forecast.locationSetting);
+        }
+    }
 
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
+    /**
+     * If the forecast endpoint is holding requests off, or the quota is, asks the framework
+     * not to run the next sync before they'd be let through again.  Manual syncs ignore this,
+     * but they still won't get past the breaker or the quota.
+     *
+     * @param quotaWaitMillis how long until the quota lets the deferred locations through.
+     */
+    private void setDelay(SyncResult syncResult, long quotaWaitMillis) {
+        long retryDelayMillis = quotaWaitMillis;
+        if (syncResult.stats.numIoExceptions > 0) {
+            retryDelayMillis = Math.max(retryDelayMillis,
+                    CircuitBreaker.get(CircuitBreaker.ENDPOINT_FORECAST).getRetryDelayMillis());
+        }
+        if (retryDelayMillis > 0) {
+            // delayUntil is in seconds since the epoch.
+            syncResult.delayUntil = (System.currentTimeMillis() + retryDelayMillis) / 1000;
+            Log.d(LOG_TAG, "Delaying syncs for " + retryDelayMillis / 1000 + "s");
+        }
+    }
 
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
+    /**
+     * @return true if something fetched at the given time is still within the TTL.
+     */
+    private static boolean isFresh(long fetchedAt, long now, long freshnessTtlMillis) {
+        return fetchedAt > now - freshnessTtlMillis && fetchedAt <= now;
+    }
 
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
+    /**
+     * Waits for a fetch, checking every so often whether the batch has been preempted.
+     *
+     * @return the result, or null if the batch was preempted first.
+     */
+    private static <T> T await(Future<T> future, SyncScheduler.Batch batch)
+            throws InterruptedException, ExecutionException {
+        while (!batch.isPreempted()) {
+            try {
+                return future.get(PREEMPTION_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // Still going; check again.
+            }
+        }
+        return null;
+    }
 
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
+    /**
+     * @return the finished forecasts, in the same order as the locations, each with the
+     * locations it answers.
+     */
+    private static List<LocationForecast> collect(Map<String, List<String>> requested,
+                                                  Map<String, LocationForecast> results) {
+        List<LocationForecast> forecasts = new ArrayList<LocationForecast>(results.size());
+        for (Map.Entry<String, List<String>> location : requested.entrySet()) {
+            LocationForecast forecast = results.get(location.getKey());
+            if (forecast != null) {
+                forecast.requestedAs.addAll(location.getValue());
+                forecasts.add(forecast);
+            }
+        }
+        return forecasts;
+    }
 
-        final String OWM_MESSAGE_CODE = "cod";
+    /**
+     * Writes a batch's successfully fetched forecasts in one transaction, once every fetch is
+     * in, so that other writers are never kept waiting on the network.  How each location's
+     * fetch went is recorded in its row of the location table.  Locations that failed keep
+     * whatever forecast they had before.
+     *
+     * Only days that differ from what's stored are written, and only the observers of
+     * locations that changed are notified.  Each forecast's changed dates are filled in on
+     * commit, and the rows written are added to the stats.
+     *
+     * A 3-hour forecast is written through the provider's batched interval insert, in the
+     * same transaction, along with its location's days.
+     *
+     * Nothing is visible to readers until the commit.  If the sync is cancelled part way
+     * through, nothing is written at all.  The transaction belongs to the sync thread, so this
+     * must only be used from there.
+     */
+    private class BatchWrite {
+        private final WeatherProvider mWeatherProvider;
+        private final String mPreferredLocation;
+        private final int mJulianStartDay;
+        private final Time mDayTime;
+        // Begun with the first write, so that a batch with nothing to write never opens one.
+        private WeatherProvider.WeatherTransaction mTransaction;
+        // The row ID each location's forecast was written under, by location setting.
+        private final Map<String, Long> mLocationIds = new HashMap<String, Long>();
+        private boolean mAnyUpdated;
+        private boolean mAnyIntervals;
+        // The preferred location's forecast, which keeps its days for the fan-out.
+        private LocationForecast mPreferred;
+
+        BatchWrite(WeatherProvider weatherProvider, String preferredLocation) {
+            mWeatherProvider = weatherProvider;
+            mPreferredLocation = preferredLocation;
 
-        try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
-                }
-            }
+            Time dayTime = new Time();
+            dayTime.setToNow();
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+            // we start at the day returned by local time. Otherwise this is a mess.
+            mJulianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
 
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
+            // now we work exclusively in UTC
+            mDayTime = new Time();
+        }
 
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
+        private WeatherProvider.WeatherTransaction getTransaction() {
+            if (mTransaction == null) {
+                mTransaction = mWeatherProvider.beginWeatherTransaction();
+            }
+            return mTransaction;
+        }
 
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
+        /**
+         * Writes one location's forecast and its 3-hour forecast, if any, then lets go of its
+         * days, unless it's the preferred location's.
+         */
+        void write(LocationForecast forecast) throws InterruptedException {
+            if (Thread.interrupted()) {
+                // Cancelled; the transaction is rolled back on the way out.
+                throw new InterruptedException();
+            }
+            WeatherProvider.WeatherTransaction transaction = getTransaction();
+            ContentValues locationValues = new ContentValues();
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_SYNC_STATUS, forecast.status);
+            if (forecast.status == LOCATION_STATUS_OK && !forecast.fresh) {
+                // Including a 304, which tells us what we have is current as of then.
+                locationValues.put(WeatherContract.LocationEntry.COLUMN_FETCHED_AT,
+                        forecast.fetchedAt);
+                if (forecast.current == null) {
+                    locationValues.put(
+                            WeatherContract.LocationEntry.COLUMN_FORECAST_FETCHED_AT,
+                            forecast.fetchedAt);
+                }
+            }
 
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
+            long locationId = 0;
+            if (forecast.status == LOCATION_STATUS_OK && !forecast.notModified) {
+                locationId = addLocation(forecast.locationSetting, forecast.cityId,
+                        forecast.cityName, forecast.cityLatitude, forecast.cityLongitude);
+                mLocationIds.put(forecast.locationSetting, locationId);
+                for (ContentValues weatherValues : forecast.days) {
+                    weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+                    transaction.writeDayIfChanged(forecast.locationSetting, weatherValues);
+                }
 
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
+                if (forecast.current != null) {
+                    // Current conditions from a group fetch only replace the columns they
+                    // have in today's row, keeping the forecast's high and low.
+                    transaction.updateDayIfChanged(forecast.locationSetting, locationId,
+                            mDayTime.setJulianDay(mJulianStartDay), forecast.current);
+                } else {
+                    // The cache validators are stored in the same transaction as the
+                    // forecast, so they never describe a forecast we don't actually have.
+                    // Missing headers are stored as null so stale values aren't sent back.
+                    locationValues.put(WeatherContract.LocationEntry.COLUMN_ETAG,
+                            forecast.eTag);
+                    locationValues.put(WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED,
+                            forecast.lastModified);
+                }
+                if (forecast.cityId != 0) {
+                    locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_ID,
+                            forecast.cityId);
+                }
 
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
+                if (forecast.hasNewData()) {
+                    mAnyUpdated = true;
+                }
+            }
+            updateLocation(forecast.locationSetting, locationId, locationValues);
 
-            Time dayTime = new Time();
-            dayTime.setToNow();
+            if (forecast.intervals != null) {
+                writeIntervals(forecast, forecast.intervals, forecast.intervalsFetchedAt);
+                forecast.intervals = null;
+            }
 
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+            if (forecast.requestedAs.contains(mPreferredLocation)) {
+                mPreferred = forecast;
+            } else {
+                forecast.days.clear();
+            }
+        }
 
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
-
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
-
-                ContentValues weatherValues = new ContentValues();
-
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-                cVVector.add(weatherValues);
-            }
-
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
+        /**
+         * Writes a location's 3-hour forecast, if its daily forecast went through.
+         *
+         * @param fetchedAt when the intervals were fetched, in milliseconds since the epoch.
+         */
+        private void writeIntervals(LocationForecast forecast, List<ContentValues> intervals,
+                                    long fetchedAt) {
+            if (forecast.status != LOCATION_STATUS_OK) {
+                return;
+            }
+            Long locationId = mLocationIds.get(forecast.locationSetting);
+            if (locationId == null) {
+                locationId = findLocation(forecast.locationSetting);
+            }
+            if (locationId != 0) {
+                getTransaction().replaceIntervals(forecast.locationSetting, locationId,
+                        intervals);
+                ContentValues locationValues = new ContentValues();
+                locationValues.put(WeatherContract.LocationEntry.COLUMN_INTERVALS_FETCHED_AT,
+                        fetchedAt);
+                updateLocation(forecast.locationSetting, locationId, locationValues);
+                mAnyIntervals = true;
+            }
+        }
 
+        /**
+         * Clears out past weather, if the batch brought any new, and commits.
+         *
+         * @param forecasts everything that was written.
+         * @return the forecast for the preferred location, or null if it isn't one of these.
+         */
+        LocationForecast commit(List<LocationForecast> forecasts,
+                                AdaptiveSyncInterval syncInterval, SyncStats stats) {
+            if (mTransaction == null) {
+                return mPreferred;
+            }
+            WeatherProvider.WeatherTransaction transaction = mTransaction;
+            int deleted = 0;
+            if (mAnyUpdated) {
                 // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
-
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
+                deleted = transaction.deleteOnOrBefore(mDayTime.setJulianDay(mJulianStartDay - 1));
+            }
+            if (mAnyIntervals) {
+                // Keep the interval we're in, but none before it.
+                deleted += transaction.deleteIntervalsBefore(System.currentTimeMillis()
+                        - WeatherContract.IntervalEntry.INTERVAL_MILLIS);
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+            transaction.commit();
+
+            stats.numInserts += transaction.getInsertCount() + transaction.getIntervalCount();
+            stats.numUpdates += transaction.getUpdateCount();
+            stats.numDeletes += deleted;
+            stats.numEntries += transaction.getInsertCount() + transaction.getUpdateCount()
+                    + transaction.getUnchangedCount();
+
+            syncInterval.addSample(
+                    transaction.getUpdateCount() + transaction.getUnchangedCount(),
+                    transaction.getUpdateCount());
+
+            int changedDays = 0;
+            for (LocationForecast forecast : forecasts) {
+                forecast.changedDates.addAll(
+                        transaction.getChangedDates(forecast.locationSetting));
+                changedDays += forecast.changedDates.size();
+            }
+            Log.d(LOG_TAG, "Sync Complete. " + changedDays + " days changed ("
+                    + transaction.getInsertCount() + " Inserted, " + transaction.getUpdateCount()
+                    + " Updated, " + transaction.getIntervalCount() + " intervals) for "
+                    + forecasts.size() + " locations");
+            return mPreferred;
+        }
 
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+        /**
+         * Rolls back everything written, unless it has been committed.
+         */
+        void abort() {
+            if (mTransaction != null) {
+                mTransaction.abort();
+            }
         }
     }
 
-    private void updateWidgets() {
-        Context context = getContext();
-        // Setting the package ensures that only components in our app will receive the broadcast
-        Intent dataUpdatedIntent = new Intent(ACTION_DATA_UPDATED)
-                .setPackage(context.getPackageName());
-        context.sendBroadcast(dataUpdatedIntent);
+    /**
+     * Adds the location setting of every location in the database that isn't already in the
+     * list.  If the database has none, say because it has just been rebuilt, the locations in
+     * the response journal are added instead, so they can be replayed.
+     */
+    private void addTrackedLocations(List<String> locations) {
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                null,
+                null,
+                null);
+        if (cursor == null) {
+            return;
+        }
+        List<String> tracked = new ArrayList<String>();
+        try {
+            while (cursor.moveToNext()) {
+                tracked.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        if (tracked.isEmpty()) {
+            ResponseJournal journal = ResponseJournal.get(getContext());
+            if (journal != null) {
+                tracked = journal.getLocations();
+            }
+        }
+        for (String locationSetting : tracked) {
+            if (!locations.contains(locationSetting)) {
+                locations.add(locationSetting);
+            }
+        }
     }
 
-    private void updateMuzei() {
-        // Muzei is only compatible with Jelly Bean MR1+ devices, so there's no need to update the
-        // Muzei background on lower API level devices
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
-            Context context = getContext();
-            context.startService(new Intent(ACTION_DATA_UPDATED)
-                    .setClass(context, WeatherMuzeiSource.class));
+    /**
+     * Adds today's weather from the update to an {@link #ACTION_DATA_UPDATED} intent, along
+     * with the dates that changed.
+     */
+    static Intent putForecastExtras(Intent intent, ForecastUpdate update) {
+        intent.putExtra(EXTRA_CHANGED_DATES, update.changedDates);
+        if (update.hasToday()) {
+            intent.putExtra(EXTRA_WEATHER_ID, update.getWeatherId())
+                    .putExtra(EXTRA_SHORT_DESC, update.getShortDesc())
+                    .putExtra(EXTRA_MAX_TEMP, update.getMaxTemp())
+                    .putExtra(EXTRA_MIN_TEMP, update.getMinTemp())
+                    .putExtra(EXTRA_MAX_TEMP_IMPERIAL, update.getMaxTempImperial())
+                    .putExtra(EXTRA_MIN_TEMP_IMPERIAL, update.getMinTempImperial());
         }
+        return intent;
     }
 
-    private void notifyWeather() {
-        Context context = getContext();
-        //checking the last update and notify if it' the first of the day
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String displayNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
-        boolean displayNotifications = prefs.getBoolean(displayNotificationsKey,
-                Boolean.parseBoolean(context.getString(R.string.pref_enable_notifications_default)));
-
-        if ( displayNotifications ) {
-
-            String lastNotificationKey = context.getString(R.string.pref_last_notification);
-            long lastSync = prefs.getLong(lastNotificationKey, 0);
-
-            if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
-                // Last sync was more than 1 day ago, let's send a notification with the weather.
-                String locationQuery = Utility.getPreferredLocation(context);
-
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
-
-                    int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
-                    Resources resources = context.getResources();
-                    int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-                    String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
-
-                    // On Honeycomb and higher devices, we can retrieve the size of the large icon
-                    // Prior to that, we use a fixed size
-                    @SuppressLint("InlinedApi")
-                    int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-                    @SuppressLint("InlinedApi")
-                    int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-
-                    // Retrieve the large icon
-                    Bitmap largeIcon;
-                    try {
-                        largeIcon = Glide.with(context)
-                                .load(artUrl)
-                                .asBitmap()
-                                .error(artResourceId)
-                                .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
-                        largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
-                    }
-                    String title = context.getString(R.string.app_name);
-
-                    // Define the text of the forecast.
-                    String contentText = String.format(context.getString(R.string.format_notification),
-                            desc,
-                            Utility.formatTemperature(context, high),
-                            Utility.formatTemperature(context, low));
-
-                    // NotificationCompatBuilder is a very convenient way to build backward-compatible
-                    // notifications.  Just throw in some data.
-                    NotificationCompat.Builder mBuilder =
-                            new NotificationCompat.Builder(getContext())
-                                    .setColor(resources.getColor(R.color.primary_light))
-                                    .setSmallIcon(iconId)
-                                    .setLargeIcon(largeIcon)
-                                    .setContentTitle(title)
-                                    .setContentText(contentText);
-
-                    // Make something interesting happen when the user clicks on the notification.
-                    // In this case, opening the app is sufficient.
-                    Intent resultIntent = new Intent(context, MainActivity.class);
-
-                    // The stack builder object will contain an artificial back stack for the
-                    // started Activity.
-                    // This ensures that navigating backward from the Activity leads out of
-                    // your application to the Home screen.
-                    TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
-                    stackBuilder.addNextIntent(resultIntent);
-                    PendingIntent resultPendingIntent =
-                            stackBuilder.getPendingIntent(
-                                    0,
-                                    PendingIntent.FLAG_UPDATE_CURRENT
-                            );
-                    mBuilder.setContentIntent(resultPendingIntent);
-
-                    NotificationManager mNotificationManager =
-                            (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
-                    // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
-                    mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
-
-                    //refreshing last sync
-                    SharedPreferences.Editor editor = prefs.edit();
-                    editor.putLong(lastNotificationKey, System.currentTimeMillis());
-                    editor.commit();
-                }
-                cursor.close();
+    /**
+     * Checks whether an {@link #ACTION_DATA_UPDATED} intent touched today's weather.  Intents
+     * that don't say which dates changed are assumed to have changed everything.
+     */
+    public static boolean isTodayChanged(Intent intent) {
+        long[] changedDates = intent.getLongArrayExtra(EXTRA_CHANGED_DATES);
+        if (changedDates == null) {
+            return true;
+        }
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        for (long date : changedDates) {
+            if (date == today) {
+                return true;
             }
         }
+        return false;
     }
 
     /**
-     * Helper method to handle insertion of a new location in the weather database.
+     * Keeps a finished sync's trace in the metrics table, where the provider works out
+     * percentiles over the last few syncs.
+     */
+    private void recordMetrics(ContentValues metrics) {
+        Log.d(LOG_TAG, "Sync metrics: " + metrics);
+        try {
+            getContext().getContentResolver().insert(
+                    WeatherContract.MetricsEntry.CONTENT_URI, metrics);
+        } catch (SQLException e) {
+            // Losing one sync's numbers is no reason to fail the sync.
+            Log.e(LOG_TAG, "Error recording sync metrics", e);
+        }
+    }
+
+    /**
+     * Helper method to handle insertion of a new location in the weather database.  If the
+     * city turns out to be one we already have under another location setting, the location
+     * setting is made an alias for that one instead.
      *
      * @param locationSetting The location string used to request updates from the server.
+     * @param cityId openweathermap's ID for the city, or 0 if we don't know it.
      * @param cityName A human-readable city name, e.g "Mountain View"
      * @param lat the latitude of the city
      * @param lon the longitude of the city
-     * @return the row ID of the added location.
+     * @return the row ID of the added location, or of the one it's an alias for.
      */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
+    long addLocation(String locationSetting, long cityId, String cityName, double lat,
+                     double lon) {
         long locationId;
 
         // First, check if the location with this city name exists in the db
@@ -506,6 +970,13 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         if (locationCursor.moveToFirst()) {
             int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
             locationId = locationCursor.getLong(locationIdIndex);
+        } else if ((locationId = findSameCity(cityId, lat, lon)) != 0) {
+            ContentValues aliasValues = new ContentValues();
+            aliasValues.put(WeatherContract.LocationAliasEntry.COLUMN_ALIAS, locationSetting);
+            aliasValues.put(WeatherContract.LocationAliasEntry.COLUMN_LOC_KEY, locationId);
+            getContext().getContentResolver().insert(
+                    WeatherContract.LocationAliasEntry.CONTENT_URI, aliasValues);
+            Log.d(LOG_TAG, locationSetting + " is an alias for location " + locationId);
         } else {
             // Now that the content provider is set up, inserting rows of data is pretty simple.
             // First create a ContentValues object to hold the data you want to insert.
@@ -517,6 +988,9 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
             locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
             locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
             locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+            if (cityId != 0) {
+                locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_ID, cityId);
+            }
 
             // Finally, insert location data into the database.
             Uri insertedUri = getContext().getContentResolver().insert(
@@ -534,9 +1008,225 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     }
 
     /**
-     * Helper method to schedule the sync adapter periodic execution
+     * @return the row ID of the location with this location setting, or 0 if we don't have it.
+     */
+    private long findLocation(String locationSetting) {
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null);
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return the row ID of the location we have for the same city, going by the city ID if
+     * we know it and by the coordinates if not; or 0 if we don't have it.
+     */
+    private long findSameCity(long cityId, double lat, double lon) {
+        String selection;
+        String[] selectionArgs;
+        if (cityId != 0) {
+            selection = WeatherContract.LocationEntry.COLUMN_CITY_ID + " = ?";
+            selectionArgs = new String[]{Long.toString(cityId)};
+        } else if (!Double.isNaN(lat) && !Double.isNaN(lon)) {
+            selection = WeatherContract.LocationEntry.COLUMN_COORD_LAT + " BETWEEN ? AND ? AND "
+                    + WeatherContract.LocationEntry.COLUMN_COORD_LONG + " BETWEEN ? AND ?";
+            selectionArgs = new String[]{
+                    Double.toString(lat - SAME_CITY_DEGREES),
+                    Double.toString(lat + SAME_CITY_DEGREES),
+                    Double.toString(lon - SAME_CITY_DEGREES),
+                    Double.toString(lon + SAME_CITY_DEGREES)
+            };
+        } else {
+            return 0;
+        }
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry._ID},
+                selection,
+                selectionArgs,
+                null);
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return the location setting of the location this one is an alias for, or this one if
+     * it isn't an alias.
+     */
+    private String getCanonicalLocation(String locationSetting) {
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.LocationAliasEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry.TABLE_NAME + "."
+                        + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                WeatherContract.LocationAliasEntry.COLUMN_ALIAS + " = ?",
+                new String[]{locationSetting},
+                null);
+        if (cursor == null) {
+            return locationSetting;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : locationSetting;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Looks up what we already hold for this location.  If we don't have any forecast for it
+     * from today onwards the validators are left null, since a 304 would leave us with
+     * nothing to show.
+     */
+    private StoredLocation getStoredLocation(String locationSetting) {
+        StoredLocation stored = new StoredLocation();
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        locationSetting, System.currentTimeMillis()),
+                new String[]{
+                        WeatherContract.LocationEntry.COLUMN_ETAG,
+                        WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED,
+                        WeatherContract.LocationEntry.COLUMN_CITY_ID,
+                        WeatherContract.LocationEntry.COLUMN_FETCHED_AT,
+                        WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+                        WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+                        WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+                        WeatherContract.LocationEntry.COLUMN_INTERVALS_FETCHED_AT,
+                        WeatherContract.LocationEntry.COLUMN_FORECAST_FETCHED_AT
+                },
+                null,
+                null,
+                null);
+        if (cursor == null) {
+            return stored;
+        }
+        try {
+            if (cursor.moveToFirst()) {
+                stored.daysAhead = cursor.getCount();
+                stored.cityId = cursor.isNull(2) ? 0 : cursor.getLong(2);
+                stored.fetchedAt = cursor.isNull(3) ? 0 : cursor.getLong(3);
+                if (!cursor.isNull(0) || !cursor.isNull(1)) {
+                    stored.validators = new String[]{cursor.getString(0), cursor.getString(1)};
+                }
+                stored.cityName = cursor.getString(4);
+                stored.latitude = cursor.getDouble(5);
+                stored.longitude = cursor.getDouble(6);
+                stored.intervalsFetchedAt = cursor.isNull(7) ? 0 : cursor.getLong(7);
+                stored.forecastFetchedAt = cursor.isNull(8) ? 0 : cursor.getLong(8);
+            }
+        } finally {
+            cursor.close();
+        }
+        if (stored.cityName == null) {
+            // No forecast from today onwards, but the location may still be in the table.
+            getStoredCity(locationSetting, stored);
+        }
+        return stored;
+    }
+
+    /**
+     * Fills in the city the location table has for this location setting, and when its
+     * intervals were fetched, if it has one.
+     */
+    private void getStoredCity(String locationSetting, StoredLocation stored) {
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{
+                        WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+                        WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+                        WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+                        WeatherContract.LocationEntry.COLUMN_INTERVALS_FETCHED_AT
+                },
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null);
+        if (cursor == null) {
+            return;
+        }
+        try {
+            if (cursor.moveToFirst()) {
+                stored.cityName = cursor.getString(0);
+                stored.latitude = cursor.getDouble(1);
+                stored.longitude = cursor.getDouble(2);
+                stored.intervalsFetchedAt = cursor.isNull(3) ? 0 : cursor.getLong(3);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Updates the row of the location table for this location, if there is one.
+     *
+     * @param locationId the row ID, if we know it, or 0 to go by the location setting.
+     */
+    private void updateLocation(String locationSetting, long locationId,
+                                ContentValues locationValues) {
+        if (locationId != 0) {
+            getContext().getContentResolver().update(
+                    WeatherContract.LocationEntry.CONTENT_URI,
+                    locationValues,
+                    WeatherContract.LocationEntry._ID + " = ?",
+                    new String[]{Long.toString(locationId)});
+            return;
+        }
+        getContext().getContentResolver().update(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                locationValues,
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting});
+    }
+
+    private static ExecutorService createFetchExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                MAX_PARALLEL_FETCHES, MAX_PARALLEL_FETCHES, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        // Syncs are hours apart, so don't keep the threads around in between.
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * @return the transport every outbound request from the sync adapter goes through.
+     */
+    public static synchronized HttpTransport getTransport() {
+        if (sTransport == null) {
+            sTransport = new OkHttpTransport();
+        }
+        return sTransport;
+    }
+
+    /**
+     * Replaces the transport used by the sync adapter, e.g. with one pointed at a local
+     * server in tests.  Pass null to go back to the default.
+     */
+    public static synchronized void setTransport(HttpTransport transport) {
+        sTransport = transport;
+    }
+
+    /**
+     * Helper method to schedule the sync adapter periodic execution.  On Lollipop and up the
+     * periodic sync is a job instead, so it can wait for an unmetered network and a charger.
      */
     public static void configurePeriodicSync(Context context, int syncInterval, int flexTime) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            SunshineJobService.schedulePeriodicSync(context, syncInterval, flexTime);
+            return;
+        }
         Account account = getSyncAccount(context);
         String authority = context.getString(R.string.content_authority);
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
@@ -557,6 +1247,33 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
      * @param context The context used to access the account service
      */
     public static void syncImmediately(Context context) {
+        syncImmediately(context, false, null);
+    }
+
+    /**
+     * Has the preferred location synced as soon as possible, sharing a sync with any other
+     * requests that overlap this one.
+     *
+     * @param force true to go to the network even if what we have was only just fetched, as
+     *              for a refresh the user asked for.
+     * @param callback told once the location has been synced, or null.
+     */
+    public static void syncImmediately(Context context, boolean force,
+                                       SyncCoalescer.Callback callback) {
+        // Queue the preferred location ahead of anything else, so that if a sync is already
+        // running it gets preempted instead of making the user wait for the whole thing.  If
+        // a sync is running or already on its way, that's all it takes.
+        if (SyncCoalescer.getInstance().request(Utility.getPreferredLocation(context),
+                SyncScheduler.PRIORITY_VISIBLE, force, callback)) {
+            requestImmediateSync(context);
+        }
+    }
+
+    private static void requestImmediateSync(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            SunshineJobService.scheduleImmediateSync(context);
+            return;
+        }
         Bundle bundle = new Bundle();
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
@@ -564,6 +1281,24 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                 context.getString(R.string.content_authority), bundle);
     }
 
+    /**
+     * @return how long a fetched forecast stays fresh, in seconds.
+     */
+    public static int getFreshnessTtl(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getInt(context.getString(R.string.pref_freshness_ttl_key),
+                DEFAULT_FRESHNESS_TTL);
+    }
+
+    /**
+     * @return true if a fetch that's slow to come back from OpenWeatherMap should also be
+     * sent to the secondary source, with the first answer taken.  On unless turned off.
+     */
+    public static boolean isHedgingEnabled(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getBoolean(context.getString(R.string.pref_hedge_requests_key), true);
+    }
+
     /**
      * Helper method to get the fake account to be used with SyncAdapter, or make a new one
      * if the fake account doesn't exist yet.  If we make a new account, we call the
@@ -607,12 +1342,17 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         /*
          * Since we've created an account
          */
-        SunshineSyncAdapter.configurePeriodicSync(context, SYNC_INTERVAL, SYNC_FLEXTIME);
+        int syncInterval = AdaptiveSyncInterval.getSyncInterval(context);
+        SunshineSyncAdapter.configurePeriodicSync(context, syncInterval,
+                AdaptiveSyncInterval.getSyncFlextime(syncInterval));
 
         /*
-         * Without calling setSyncAutomatically, our periodic sync will not be enabled.
+         * Without calling setSyncAutomatically, our periodic sync will not be enabled.  On
+         * Lollipop and up the periodic sync is a job, which doesn't need it.
          */
-        ContentResolver.setSyncAutomatically(newAccount, context.getString(R.string.content_authority), true);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            ContentResolver.setSyncAutomatically(newAccount, context.getString(R.string.content_authority), true);
+        }
 
         /*
          * Finally, let's do a sync to get things started
@@ -621,19 +1361,15 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     }
 
     public static void initializeSyncAdapter(Context context) {
-        getSyncAccount(context);
-    }
-
-    /**
-     * Sets the location status into shared preference.  This function should not be called from
-     * the UI thread because it uses commit to write to the shared preferences.
-     * @param c Context to get the PreferenceManager from.
-     * @param locationStatus The IntDef value to set
-     */
-    static private void setLocationStatus(Context c, @LocationStatus int locationStatus){
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
-        SharedPreferences.Editor spe = sp.edit();
-        spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
-        spe.commit();
+        Account account = getSyncAccount(context);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && account != null) {
+            // Coming from a version that synced on the account's periodic sync, the job takes
+            // over from it, and the framework's automatic syncs are turned off so they don't
+            // run alongside.
+            String authority = context.getString(R.string.content_authority);
+            ContentResolver.removePeriodicSync(account, authority, new Bundle());
+            ContentResolver.setSyncAutomatically(account, authority, false);
+            SunshineJobService.ensurePeriodicSync(context);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,205 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collapses bursts of "sync this now" into as few syncs as it takes.  Settings changes, manual
+ * refreshes and account setup can all ask for an immediate sync within moments of each other,
+ * and without this each one would cost a full sync of its own.
+ *
+ * A request for a location that's already waiting to be synced just joins it.  If a sync is
+ * running, the location is added to its queue rather than a new sync being requested; if the
+ * location is being fetched at that very moment, it's queued once more so the follow-up picks
+ * up whatever changed, and any further requests join that follow-up.  Only when nothing is
+ * running or on its way is the caller told to request a sync from the framework.
+ *
+ * Everyone who asked for a location is called back once the sync that covers their request
+ * has finished with it.  If any of them asked for it to be forced, the sync goes to the
+ * network for it even if what we have is still fresh.
+ */
+public class SyncCoalescer {
+
+    /**
+     * Told when a requested location has been synced.  Called on the sync thread.
+     */
+    public interface Callback {
+        void onSyncComplete(String locationSetting, @SunshineSyncAdapter.LocationStatus int status);
+    }
+
+    // If a sync we asked the framework for hasn't started after this long, don't count on it.
+    private static final long PENDING_TIMEOUT_MILLIS = 5 * 60 * 1000;
+
+    private static final SyncCoalescer sInstance = new SyncCoalescer(SyncScheduler.getInstance());
+
+    private final SyncScheduler mScheduler;
+
+    // Requests for locations that haven't been taken by a sync yet.
+    private final Map<String, Waiters> mWaiting = new HashMap<String, Waiters>();
+    // Requests for locations in the batch being synced right now.
+    private final Map<String, Waiters> mInFlight = new HashMap<String, Waiters>();
+
+    private boolean mSyncRunning;
+    // When we last told someone to request a sync, or 0 if that sync has since started.
+    private long mSyncRequestedAt;
+
+    public static SyncCoalescer getInstance() {
+        return sInstance;
+    }
+
+    // Everything but the tests should go through getInstance().
+    SyncCoalescer(SyncScheduler scheduler) {
+        mScheduler = scheduler;
+    }
+
+    /**
+     * Everyone waiting on one location.
+     */
+    private static class Waiters {
+        final List<Callback> callbacks = new ArrayList<Callback>();
+        boolean force;
+
+        void addAll(Waiters other) {
+            callbacks.addAll(other.callbacks);
+            force |= other.force;
+        }
+    }
+
+    /**
+     * Asks for the given location to be synced.
+     *
+     * @param force true to fetch the location even if what we have is still fresh.
+     * @param callback told once the location has been synced, or null.
+     * @return true if the caller needs to request a sync from the framework; false if one
+     * that's already running or on its way will take care of it.
+     */
+    public synchronized boolean request(String locationSetting,
+                                        @SyncScheduler.Priority int priority,
+                                        boolean force,
+                                        Callback callback) {
+        Waiters waiters = mWaiting.get(locationSetting);
+        if (waiters == null) {
+            waiters = new Waiters();
+            mWaiting.put(locationSetting, waiters);
+        }
+        waiters.force |= force;
+        if (callback != null) {
+            waiters.callbacks.add(callback);
+        }
+        // Already queued, this keeps its place; being fetched right now, this queues the
+        // follow-up.  Either way it's queued only once.
+        mScheduler.enqueue(locationSetting, priority);
+
+        if (mSyncRunning) {
+            return false;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (mSyncRequestedAt != 0 && now - mSyncRequestedAt < PENDING_TIMEOUT_MILLIS) {
+            return false;
+        }
+        mSyncRequestedAt = now;
+        return true;
+    }
+
+    /**
+     * Called by the sync adapter as a sync starts.  Whatever sync was on its way is this one.
+     */
+    synchronized void onSyncStarted() {
+        mSyncRunning = true;
+        mSyncRequestedAt = 0;
+    }
+
+    /**
+     * Takes the next batch off the scheduler for the running sync.  When there's nothing left
+     * the sync is counted as finished, so any later request asks for a new one.
+     */
+    synchronized SyncScheduler.Batch takeBatch(int maxSize) {
+        SyncScheduler.Batch batch = mScheduler.takeBatch(maxSize);
+        if (batch == null) {
+            mSyncRunning = false;
+            return null;
+        }
+        for (String location : batch.getLocations()) {
+            Waiters waiters = mWaiting.remove(location);
+            if (waiters != null) {
+                mInFlight.put(location, waiters);
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * @return true if someone asked for this location in the current batch to be fetched
+     * regardless of how fresh it is.
+     */
+    synchronized boolean isForced(String locationSetting) {
+        Waiters waiters = mInFlight.get(locationSetting);
+        return waiters != null && waiters.force;
+    }
+
+    /**
+     * Called by the sync adapter once a location in the current batch has been written, to
+     * tell everyone who asked for it.
+     */
+    void finishLocation(String locationSetting, @SunshineSyncAdapter.LocationStatus int status) {
+        Waiters waiters;
+        synchronized (this) {
+            waiters = mInFlight.remove(locationSetting);
+        }
+        if (waiters == null) {
+            return;
+        }
+        // Outside the lock, so a callback can make a request of its own.
+        for (Callback callback : waiters.callbacks) {
+            callback.onSyncComplete(locationSetting, status);
+        }
+    }
+
+    /**
+     * Finishes a batch taken with {@link #takeBatch}, putting back the locations that weren't
+     * synced along with whoever was waiting on them.
+     */
+    synchronized void finishBatch(SyncScheduler.Batch batch, Collection<String> unfinished) {
+        mScheduler.finishBatch(batch, unfinished);
+        for (String location : batch.getLocations()) {
+            Waiters waiters = mInFlight.remove(location);
+            if (waiters == null) {
+                continue;
+            }
+            Waiters waiting = mWaiting.get(location);
+            if (waiting != null) {
+                waiters.addAll(waiting);
+            }
+            mWaiting.put(location, waiters);
+        }
+    }
+
+    /**
+     * @return true if a sync is running, or one has been asked for and should start any
+     * moment, so that background work can stay out of its way.
+     */
+    synchronized boolean isSyncActive() {
+        return mSyncRunning || (mSyncRequestedAt != 0
+                && SystemClock.elapsedRealtime() - mSyncRequestedAt < PENDING_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Called by the sync adapter as a sync ends, however it ends.
+     *
+     * @return true if requests made during the sync were left unserved (say it was cancelled)
+     * and nobody has asked for another sync since, in which case the caller should.
+     */
+    synchronized boolean onSyncFinished() {
+        mSyncRunning = false;
+        if (mWaiting.isEmpty() || mSyncRequestedAt != 0) {
+            return false;
+        }
+        mSyncRequestedAt = SystemClock.elapsedRealtime();
+        return true;
+    }
+}
@@ -0,0 +1,222 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.support.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The queue of locations waiting to be refreshed, shared by everything in the process that
+ * wants weather synced.  Callers add jobs with {@link #enqueue}; the sync adapter takes them
+ * off in batches, best priority first.
+ *
+ * Two things keep this from being a plain priority queue:
+ * <ul>
+ *     <li>A job's priority improves the longer it waits, so a steady stream of visible
+ *     locations can't keep the prefetch work waiting forever.</li>
+ *     <li>Enqueuing a job that beats the batch currently being synced, or a newly visible
+ *     location while another visible one is being synced, marks that batch as preempted.
+ *     The sync adapter then stops waiting on it, writes what has finished, and puts the rest
+ *     back, with its original place in line, before taking the new work.</li>
+ * </ul>
+ */
+public class SyncScheduler {
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({PRIORITY_VISIBLE, PRIORITY_FAVORITE, PRIORITY_PREFETCH})
+    public @interface Priority {}
+
+    // Lower numbers go first.
+    // The location the user is looking at.
+    public static final int PRIORITY_VISIBLE = 0;
+    // Other saved locations, refreshed in the background.
+    public static final int PRIORITY_FAVORITE = 1;
+    // Locations we only think the user might want soon.
+    public static final int PRIORITY_PREFETCH = 2;
+
+    // Every this long a job has been waiting, it moves up one priority.
+    private static final long AGING_INTERVAL_MILLIS = 2 * 60 * 1000;
+
+    private static final SyncScheduler sInstance = new SyncScheduler();
+
+    // Priorities change as jobs age, so the queue is scanned rather than kept sorted.  It only
+    // ever holds a few dozen locations.
+    private final List<Job> mQueue = new ArrayList<Job>();
+    private Batch mRunningBatch;
+
+    public static SyncScheduler getInstance() {
+        return sInstance;
+    }
+
+    // Everything but the tests should go through getInstance().
+    SyncScheduler() {
+    }
+
+    private static class Job {
+        final String locationSetting;
+        @Priority int priority;
+        // When the job first went into the queue, kept if it's put back after preemption.
+        long enqueuedAt;
+
+        Job(String locationSetting, @Priority int priority, long enqueuedAt) {
+            this.locationSetting = locationSetting;
+            this.priority = priority;
+            this.enqueuedAt = enqueuedAt;
+        }
+
+        int effectivePriority(long now) {
+            return Math.max(PRIORITY_VISIBLE,
+                    priority - (int) ((now - enqueuedAt) / AGING_INTERVAL_MILLIS));
+        }
+    }
+
+    /**
+     * A set of jobs of the same effective priority, taken off the queue to be synced together.
+     */
+    public static class Batch {
+        private final List<Job> mJobs;
+        private final int mPriority;
+        private volatile boolean mPreempted;
+
+        Batch(List<Job> jobs, int priority) {
+            mJobs = jobs;
+            mPriority = priority;
+        }
+
+        public List<String> getLocations() {
+            List<String> locations = new ArrayList<String>(mJobs.size());
+            for (Job job : mJobs) {
+                locations.add(job.locationSetting);
+            }
+            return locations;
+        }
+
+        /**
+         * @return the best priority any location in the batch was queued with.  Unlike the
+         * priority the batch was taken at, this ignores how long the locations have waited:
+         * aging decides the order work is done in, not how much it's entitled to.
+         */
+        @Priority
+        public int getRequestedPriority() {
+            int priority = PRIORITY_PREFETCH;
+            for (Job job : mJobs) {
+                priority = Math.min(priority, job.priority);
+            }
+            return priority;
+        }
+
+        /**
+         * @return true if better priority work has arrived since this batch was taken.
+         */
+        public boolean isPreempted() {
+            return mPreempted;
+        }
+    }
+
+    /**
+     * Queues a refresh of the given location.  If it's already queued it keeps its place in
+     * line and takes the better of the two priorities.
+     */
+    public synchronized void enqueue(String locationSetting, @Priority int priority) {
+        long now = SystemClock.elapsedRealtime();
+        Job job = find(locationSetting);
+        if (job == null) {
+            job = new Job(locationSetting, priority, now);
+            mQueue.add(job);
+        } else if (priority < job.priority) {
+            job.priority = priority;
+        }
+
+        if (mRunningBatch == null) {
+            return;
+        }
+        int effectivePriority = job.effectivePriority(now);
+        if (effectivePriority < mRunningBatch.mPriority) {
+            mRunningBatch.mPreempted = true;
+        } else if (priority == PRIORITY_VISIBLE && mRunningBatch.mPriority == PRIORITY_VISIBLE
+                && !mRunningBatch.getLocations().contains(locationSetting)) {
+            // Only one location is on screen at a time, so a newly visible one supersedes
+            // whatever was visible before, say after the user changes their location.
+            mRunningBatch.mPreempted = true;
+        }
+    }
+
+    /**
+     * Takes up to maxSize jobs sharing the best effective priority in the queue, oldest first.
+     *
+     * @return the batch, or null if there's nothing left to sync.
+     */
+    public synchronized Batch takeBatch(int maxSize) {
+        if (mQueue.isEmpty()) {
+            mRunningBatch = null;
+            return null;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        int best = Integer.MAX_VALUE;
+        for (Job job : mQueue) {
+            best = Math.min(best, job.effectivePriority(now));
+        }
+
+        List<Job> jobs = new ArrayList<Job>();
+        for (Job job : mQueue) {
+            if (job.effectivePriority(now) == best) {
+                jobs.add(job);
+            }
+        }
+        Collections.sort(jobs, new Comparator<Job>() {
+            @Override
+            public int compare(Job lhs, Job rhs) {
+                return lhs.enqueuedAt < rhs.enqueuedAt ? -1
+                        : (lhs.enqueuedAt == rhs.enqueuedAt ? 0 : 1);
+            }
+        });
+        if (jobs.size() > maxSize) {
+            jobs = new ArrayList<Job>(jobs.subList(0, maxSize));
+        }
+        mQueue.removeAll(jobs);
+
+        mRunningBatch = new Batch(jobs, best);
+        return mRunningBatch;
+    }
+
+    /**
+     * Finishes a batch, putting back any of its locations that weren't synced.
+     */
+    public synchronized void finishBatch(Batch batch, Collection<String> unfinished) {
+        // Put them back at the front, so they stay ahead of anything queued in the same
+        // millisecond.
+        int index = 0;
+        for (Job job : batch.mJobs) {
+            if (!unfinished.contains(job.locationSetting)) {
+                continue;
+            }
+            Job queued = find(job.locationSetting);
+            if (queued == null) {
+                mQueue.add(index++, job);
+            } else {
+                // Re-enqueued while the batch was running; keep the older place in line.
+                queued.priority = Math.min(queued.priority, job.priority);
+                queued.enqueuedAt = Math.min(queued.enqueuedAt, job.enqueuedAt);
+            }
+        }
+        if (mRunningBatch == batch) {
+            mRunningBatch = null;
+        }
+    }
+
+    private Job find(String locationSetting) {
+        for (Job job : mQueue) {
+            if (job.locationSetting.equals(locationSetting)) {
+                return job;
+            }
+        }
+        return null;
+    }
+}
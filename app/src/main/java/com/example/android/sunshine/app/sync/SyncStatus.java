@@ -0,0 +1,177 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.app.R;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * How the preferred location's last sync went: its {@link SunshineSyncAdapter.LocationStatus},
+ * when it last synced successfully, and what went wrong if it didn't.  The sync reports here
+ * and the UI listens here, in memory, so reporting a result never waits on the disk.
+ *
+ * The status is still kept in SharedPreferences so it outlives the process, but it's written
+ * there in the background, {@link #PERSIST_DELAY_MILLIS} after the first change, with
+ * whatever else has changed by then going out in the same write.
+ */
+public class SyncStatus {
+
+    /**
+     * Told when the status changes, on the main thread.  Several changes close together may
+     * only be reported once, so listeners should read the status they want from the
+     * {@link SyncStatus} they're handed.
+     */
+    public interface Listener {
+        void onSyncStatusChanged(SyncStatus status);
+    }
+
+    static final long PERSIST_DELAY_MILLIS = 1000;
+
+    private static SyncStatus sInstance;
+
+    private final SharedPreferences mPrefs;
+    private final String mLocationStatusKey;
+    private final String mLastSuccessKey;
+    private final String mErrorKey;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    // Only touched from the main thread.
+    private final List<Listener> mListeners = new ArrayList<Listener>();
+
+    @SunshineSyncAdapter.LocationStatus
+    private int mLocationStatus;
+    // When the preferred location last synced successfully, in milliseconds since the epoch,
+    // or 0 if it never has.
+    private long mLastSuccessAt;
+    private String mError;
+    private boolean mPersistPending;
+
+    private final Runnable mNotify = new Runnable() {
+        @Override
+        public void run() {
+            for (Listener listener : new ArrayList<Listener>(mListeners)) {
+                listener.onSyncStatusChanged(SyncStatus.this);
+            }
+        }
+    };
+
+    private final Runnable mPersist = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * @return the app's sync status, as it was last left.
+     */
+    public static synchronized SyncStatus get(Context context) {
+        if (sInstance == null) {
+            sInstance = new SyncStatus(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    // Everything but the tests should go through get().
+    @SuppressWarnings("ResourceType")
+    SyncStatus(Context context) {
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        mLocationStatusKey = context.getString(R.string.pref_location_status_key);
+        mLastSuccessKey = context.getString(R.string.pref_last_sync_success_key);
+        mErrorKey = context.getString(R.string.pref_sync_error_key);
+        mLocationStatus = mPrefs.getInt(mLocationStatusKey,
+                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+        mLastSuccessAt = mPrefs.getLong(mLastSuccessKey, 0);
+        mError = mPrefs.getString(mErrorKey, null);
+    }
+
+    @SunshineSyncAdapter.LocationStatus
+    public synchronized int getLocationStatus() {
+        return mLocationStatus;
+    }
+
+    public synchronized long getLastSuccessAt() {
+        return mLastSuccessAt;
+    }
+
+    /**
+     * @return what went wrong with the last sync, for the logs or a bug report rather than
+     * for the user, or null if it went fine or there's nothing more to say than the status.
+     */
+    public synchronized String getError() {
+        return mError;
+    }
+
+    /**
+     * Must be called from the main thread.
+     */
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    /**
+     * Must be called from the main thread.
+     */
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    void setLocationStatus(@SunshineSyncAdapter.LocationStatus int locationStatus,
+                           String error) {
+        setLocationStatus(locationStatus, error, System.currentTimeMillis());
+    }
+
+    /**
+     * Records how the preferred location's sync went.  Returns at once; listeners hear about
+     * it on the main thread, and it's written to disk shortly after.
+     */
+    synchronized void setLocationStatus(@SunshineSyncAdapter.LocationStatus int locationStatus,
+                                        String error, long now) {
+        if (locationStatus == SunshineSyncAdapter.LOCATION_STATUS_OK) {
+            mLastSuccessAt = now;
+            error = null;
+        }
+        boolean changed = locationStatus != mLocationStatus
+                || (error == null ? mError != null : !error.equals(mError));
+        mLocationStatus = locationStatus;
+        mError = error;
+        if (!mPersistPending) {
+            mPersistPending = true;
+            mHandler.postDelayed(mPersist, PERSIST_DELAY_MILLIS);
+        }
+        if (changed) {
+            mHandler.removeCallbacks(mNotify);
+            mHandler.post(mNotify);
+        }
+    }
+
+    /**
+     * Forgets how the last sync went, say because the location has changed and it no longer
+     * says anything about the new one.
+     */
+    public void reset() {
+        setLocationStatus(SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN, null);
+    }
+
+    /**
+     * Writes out any change that's waiting to be, without waiting for the disk.
+     */
+    synchronized void flush() {
+        if (!mPersistPending) {
+            return;
+        }
+        mPersistPending = false;
+        mHandler.removeCallbacks(mPersist);
+        mPrefs.edit()
+                .putInt(mLocationStatusKey, mLocationStatus)
+                .putLong(mLastSuccessKey, mLastSuccessAt)
+                .putString(mErrorKey, mError)
+                .apply();
+    }
+}
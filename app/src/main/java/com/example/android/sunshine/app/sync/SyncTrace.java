@@ -0,0 +1,115 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.SyncStats;
+
+import com.example.android.sunshine.app.data.WeatherContract.MetricsEntry;
+import com.example.android.sunshine.app.net.HttpTransport;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adds up where one sync's time went, stage by stage, so a slow sync can be pinned on the
+ * network, the parser, the database or the notification rather than guessed at.  The network
+ * stages come from the transport's own counters, taken as the difference between the start of
+ * the sync and the end.  Used only from the sync thread.
+ */
+class SyncTrace {
+    private final HttpTransport mTransport;
+    private final long mStartedAt;
+    private final long mStartNanos;
+    private final long mBytesSentBefore;
+    private final long mBytesReceivedBefore;
+    private final long[] mNetworkNanosBefore;
+
+    private int mLocations;
+    private int mQuotaDeferred;
+    private long mParseNanos;
+    private long mWriteNanos;
+    private long mNotifyNanos;
+
+    SyncTrace(HttpTransport transport) {
+        mTransport = transport;
+        mStartedAt = System.currentTimeMillis();
+        mStartNanos = System.nanoTime();
+        mBytesSentBefore = transport.getBytesSent();
+        mBytesReceivedBefore = transport.getBytesReceived();
+        mNetworkNanosBefore = getNetworkNanos(transport);
+    }
+
+    /**
+     * Counts a batch's forecasts, and the time spent parsing them, once they've been fetched.
+     */
+    void addFetched(List<LocationForecast> forecasts) {
+        mLocations += forecasts.size();
+        for (LocationForecast forecast : forecasts) {
+            mParseNanos += forecast.parseNanos;
+        }
+    }
+
+    /**
+     * Counts locations a batch had to leave for later to stay within the request quota.
+     */
+    void addQuotaDeferred(int locations) {
+        mQuotaDeferred += locations;
+    }
+
+    void addWrite(long nanos) {
+        mWriteNanos += nanos;
+    }
+
+    void addNotify(long nanos) {
+        mNotifyNanos += nanos;
+    }
+
+    /**
+     * @return the sync as a row for the metrics table, up to now.
+     */
+    ContentValues finish(SyncStats stats) {
+        long[] networkNanos = getNetworkNanos(mTransport);
+        for (int i = 0; i < networkNanos.length; i++) {
+            networkNanos[i] -= mNetworkNanosBefore[i];
+        }
+        // Responses are parsed as they come off the socket, so the parse time includes the
+        // time spent waiting on the download, which has a column of its own.
+        long parseNanos = Math.max(0,
+                mParseNanos - networkNanos[HttpTransport.PHASE_DOWNLOAD]);
+
+        ContentValues values = new ContentValues();
+        values.put(MetricsEntry.COLUMN_STARTED_AT, mStartedAt);
+        values.put(MetricsEntry.COLUMN_LOCATIONS, mLocations);
+        values.put(MetricsEntry.COLUMN_TOTAL_MILLIS, toMillis(System.nanoTime() - mStartNanos));
+        values.put(MetricsEntry.COLUMN_DNS_MILLIS,
+                toMillis(networkNanos[HttpTransport.PHASE_DNS]));
+        values.put(MetricsEntry.COLUMN_CONNECT_MILLIS,
+                toMillis(networkNanos[HttpTransport.PHASE_CONNECT]));
+        values.put(MetricsEntry.COLUMN_WAIT_MILLIS,
+                toMillis(networkNanos[HttpTransport.PHASE_WAIT]));
+        values.put(MetricsEntry.COLUMN_DOWNLOAD_MILLIS,
+                toMillis(networkNanos[HttpTransport.PHASE_DOWNLOAD]));
+        values.put(MetricsEntry.COLUMN_PARSE_MILLIS, toMillis(parseNanos));
+        values.put(MetricsEntry.COLUMN_WRITE_MILLIS, toMillis(mWriteNanos));
+        values.put(MetricsEntry.COLUMN_NOTIFY_MILLIS, toMillis(mNotifyNanos));
+        values.put(MetricsEntry.COLUMN_BYTES_SENT, mTransport.getBytesSent() - mBytesSentBefore);
+        values.put(MetricsEntry.COLUMN_BYTES_RECEIVED,
+                mTransport.getBytesReceived() - mBytesReceivedBefore);
+        values.put(MetricsEntry.COLUMN_ROWS_WRITTEN,
+                stats.numInserts + stats.numUpdates + stats.numDeletes);
+        values.put(MetricsEntry.COLUMN_QUOTA_DEFERRED, mQuotaDeferred);
+        return values;
+    }
+
+    private static long[] getNetworkNanos(HttpTransport transport) {
+        return new long[] {
+                transport.getNetworkNanos(HttpTransport.PHASE_DNS),
+                transport.getNetworkNanos(HttpTransport.PHASE_CONNECT),
+                transport.getNetworkNanos(HttpTransport.PHASE_WAIT),
+                transport.getNetworkNanos(HttpTransport.PHASE_DOWNLOAD)
+        };
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
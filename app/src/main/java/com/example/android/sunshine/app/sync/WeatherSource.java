@@ -0,0 +1,31 @@
+package com.example.android.sunshine.app.sync;
+
+import android.support.v4.os.CancellationSignal;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Somewhere a location's forecast can be fetched from.  Whatever the source, a fetch comes
+ * back as a {@link LocationForecast} holding rows for the weather table, so the sync adapter
+ * writes them the same way no matter where they came from.
+ */
+interface WeatherSource {
+
+    /**
+     * @return what this source is called in the logs.
+     */
+    String getName();
+
+    /**
+     * Makes a fetch of one location's forecast, to be run on the sync adapter's fetch
+     * executor.  Like {@link ForecastFetcher}, the fetch reports failures through the
+     * forecast's status rather than throwing, and leaves the status
+     * {@link SunshineSyncAdapter#LOCATION_STATUS_UNKNOWN} if it's cancelled.
+     *
+     * @param stored what we already hold for the location.
+     * @param signal cancels the fetch, wherever it has got to.
+     * @return the fetch, or null if this source has no way of asking for the location.
+     */
+    Callable<LocationForecast> newFetch(String locationSetting, StoredLocation stored,
+                                        CancellationSignal signal);
+}
@@ -32,7 +32,10 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
             WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
             WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
             WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_CONDITION,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP_IMPERIAL,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP_IMPERIAL
     };
     // these indices must match the projection
     static final int INDEX_WEATHER_ID = 0;
@@ -41,6 +44,9 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
     static final int INDEX_WEATHER_DESC = 3;
     static final int INDEX_WEATHER_MAX_TEMP = 4;
     static final int INDEX_WEATHER_MIN_TEMP = 5;
+    static final int INDEX_WEATHER_CONDITION = 6;
+    static final int INDEX_WEATHER_MAX_TEMP_IMPERIAL = 7;
+    static final int INDEX_WEATHER_MIN_TEMP_IMPERIAL = 8;
 
     @Override
     public RemoteViewsFactory onGetViewFactory(Intent intent) {
@@ -94,12 +100,12 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
                 }
                 RemoteViews views = new RemoteViews(getPackageName(),
                         R.layout.widget_detail_list_item);
-                int weatherId = data.getInt(INDEX_WEATHER_CONDITION_ID);
-                int weatherArtResourceId = Utility.getIconResourceForWeatherCondition(weatherId);
+                String condition = data.getString(INDEX_WEATHER_CONDITION);
+                int weatherArtResourceId = Utility.getIconResourceForCondition(condition);
                 Bitmap weatherArtImage = null;
                 if ( !Utility.usingLocalGraphics(DetailWidgetRemoteViewsService.this) ) {
-                    String weatherArtResourceUrl = Utility.getArtUrlForWeatherCondition(
-                            DetailWidgetRemoteViewsService.this, weatherId);
+                    String weatherArtResourceUrl = Utility.getArtUrlForCondition(
+                            DetailWidgetRemoteViewsService.this, condition);
                     try {
                         weatherArtImage = Glide.with(DetailWidgetRemoteViewsService.this)
                                 .load(weatherArtResourceUrl)
@@ -117,9 +123,11 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
                 double maxTemp = data.getDouble(INDEX_WEATHER_MAX_TEMP);
                 double minTemp = data.getDouble(INDEX_WEATHER_MIN_TEMP);
                 String formattedMaxTemperature =
-                        Utility.formatTemperature(DetailWidgetRemoteViewsService.this, maxTemp);
+                        Utility.formatTemperature(DetailWidgetRemoteViewsService.this, maxTemp,
+                                data.getDouble(INDEX_WEATHER_MAX_TEMP_IMPERIAL));
                 String formattedMinTemperature =
-                        Utility.formatTemperature(DetailWidgetRemoteViewsService.this, minTemp);
+                        Utility.formatTemperature(DetailWidgetRemoteViewsService.this, minTemp,
+                                data.getDouble(INDEX_WEATHER_MIN_TEMP_IMPERIAL));
                 if (weatherArtImage != null) {
                     views.setImageViewBitmap(R.id.widget_icon, weatherArtImage);
                 } else {
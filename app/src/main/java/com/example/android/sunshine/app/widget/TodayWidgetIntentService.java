@@ -33,6 +33,7 @@ import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
 /**
  * IntentService which handles updating all Today widgets with the latest data
@@ -42,13 +43,17 @@ public class TodayWidgetIntentService extends IntentService {
             WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
             WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
             WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP_IMPERIAL,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP_IMPERIAL
     };
     // these indices must match the projection
     private static final int INDEX_WEATHER_ID = 0;
     private static final int INDEX_SHORT_DESC = 1;
     private static final int INDEX_MAX_TEMP = 2;
     private static final int INDEX_MIN_TEMP = 3;
+    private static final int INDEX_MAX_TEMP_IMPERIAL = 4;
+    private static final int INDEX_MIN_TEMP_IMPERIAL = 5;
 
     public TodayWidgetIntentService() {
         super("TodayWidgetIntentService");
@@ -61,29 +66,47 @@ public class TodayWidgetIntentService extends IntentService {
         int[] appWidgetIds = appWidgetManager.getAppWidgetIds(new ComponentName(this,
                 TodayWidgetProvider.class));
 
-        // Get today's data from the ContentProvider
-        String location = Utility.getPreferredLocation(this);
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                location, System.currentTimeMillis());
-        Cursor data = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
-                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
-        if (data == null) {
-            return;
-        }
-        if (!data.moveToFirst()) {
+        int weatherId;
+        String description;
+        double maxTemp;
+        double minTemp;
+        double maxTempImperial;
+        double minTempImperial;
+        if (intent != null && intent.hasExtra(SunshineSyncAdapter.EXTRA_WEATHER_ID)) {
+            // A sync has just written today's data, and passed it along
+            weatherId = intent.getIntExtra(SunshineSyncAdapter.EXTRA_WEATHER_ID, 0);
+            description = intent.getStringExtra(SunshineSyncAdapter.EXTRA_SHORT_DESC);
+            maxTemp = intent.getDoubleExtra(SunshineSyncAdapter.EXTRA_MAX_TEMP, 0);
+            minTemp = intent.getDoubleExtra(SunshineSyncAdapter.EXTRA_MIN_TEMP, 0);
+            maxTempImperial = intent.getDoubleExtra(SunshineSyncAdapter.EXTRA_MAX_TEMP_IMPERIAL, 0);
+            minTempImperial = intent.getDoubleExtra(SunshineSyncAdapter.EXTRA_MIN_TEMP_IMPERIAL, 0);
+        } else {
+            // Get today's data from the ContentProvider
+            String location = Utility.getPreferredLocation(this);
+            Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                    location, System.currentTimeMillis());
+            Cursor data = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
+                    null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+            if (data == null) {
+                return;
+            }
+            if (!data.moveToFirst()) {
+                data.close();
+                return;
+            }
+
+            // Extract the weather data from the Cursor
+            weatherId = data.getInt(INDEX_WEATHER_ID);
+            description = data.getString(INDEX_SHORT_DESC);
+            maxTemp = data.getDouble(INDEX_MAX_TEMP);
+            minTemp = data.getDouble(INDEX_MIN_TEMP);
+            maxTempImperial = data.getDouble(INDEX_MAX_TEMP_IMPERIAL);
+            minTempImperial = data.getDouble(INDEX_MIN_TEMP_IMPERIAL);
             data.close();
-            return;
         }
-
-        // Extract the weather data from the Cursor
-        int weatherId = data.getInt(INDEX_WEATHER_ID);
         int weatherArtResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-        String description = data.getString(INDEX_SHORT_DESC);
-        double maxTemp = data.getDouble(INDEX_MAX_TEMP);
-        double minTemp = data.getDouble(INDEX_MIN_TEMP);
-        String formattedMaxTemperature = Utility.formatTemperature(this, maxTemp);
-        String formattedMinTemperature = Utility.formatTemperature(this, minTemp);
-        data.close();
+        String formattedMaxTemperature = Utility.formatTemperature(this, maxTemp, maxTempImperial);
+        String formattedMinTemperature = Utility.formatTemperature(this, minTemp, minTempImperial);
 
         // Perform this loop procedure for each Today widget
         for (int appWidgetId : appWidgetIds) {